@@ -0,0 +1,37 @@
+package main;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of SadKernel, using the (incubating) Java Vector API.
+ * Compile and run with --add-modules jdk.incubator.vector ; obtain it through SadKernel.vector().
+ */
+final class VectorSadKernel implements SadKernel {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	public int rowSad(int[] pattern, int patternStart, int[] image, int imageStart, int length) {
+		//One lane per pixel : the three channels are extracted with shifts and masks on whole vectors.
+		//A lane grows by at most 765 per iteration, so the int accumulator cannot overflow for a row.
+		IntVector sums = IntVector.zero(SPECIES);
+		int j = 0;
+		int upperBound = SPECIES.loopBound(length);
+		for(; j < upperBound; j += SPECIES.length()) {
+			IntVector p = IntVector.fromArray(SPECIES, pattern, patternStart + j);
+			IntVector q = IntVector.fromArray(SPECIES, image, imageStart + j);
+			IntVector blue = p.and(0xFF).sub(q.and(0xFF)).abs();
+			IntVector green = p.lanewise(VectorOperators.LSHR, 8).and(0xFF)
+					.sub(q.lanewise(VectorOperators.LSHR, 8).and(0xFF)).abs();
+			IntVector red = p.lanewise(VectorOperators.LSHR, 16).and(0xFF)
+					.sub(q.lanewise(VectorOperators.LSHR, 16).and(0xFF)).abs();
+			sums = sums.add(red).add(green).add(blue);
+		}
+		int sad = sums.reduceLanes(VectorOperators.ADD);
+
+		//Remaining pixels, fewer than a vector
+		return sad + SCALAR.rowSad(pattern, patternStart + j, image, imageStart + j, length - j);
+	}
+}
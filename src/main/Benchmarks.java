@@ -0,0 +1,790 @@
+package main;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Performance measurements of the search engines.
+ * Run with the name of the benchmark(s) to run as argument(s), or without argument to run all of them.
+ * Timings are wall-clock times of a single run, after one warm-up run.
+ */
+public final class Benchmarks {
+
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			args = new String[] {"similarityScaling", "pyramid", "nBest", "floatPrecision", "grayPlane", "rgbPlanes", "pixelCache", "tiled", "pipelined", "multiPattern", "compiledPattern", "directorySearch", "searchStats"};
+		}
+		for(String name : args) {
+			switch(name) {
+			case "similarityScaling":
+				similarityScaling();
+				break;
+			case "pyramid":
+				pyramid();
+				break;
+			case "nBest":
+				nBest();
+				break;
+			case "floatPrecision":
+				floatPrecision();
+				break;
+			case "grayPlane":
+				grayPlane();
+				break;
+			case "rgbPlanes":
+				rgbPlanes();
+				break;
+			case "pixelCache":
+				pixelCache();
+				break;
+			case "tiled":
+				tiled();
+				break;
+			case "pipelined":
+				pipelined();
+				break;
+			case "multiPattern":
+				multiPattern();
+				break;
+			case "compiledPattern":
+				compiledPattern();
+				break;
+			case "directorySearch":
+				directorySearch();
+				break;
+			case "searchStats":
+				searchStats();
+				break;
+			default:
+				System.out.println("Unknown benchmark : " + name);
+			}
+		}
+	}
+
+	/*
+	 * Parallel similarityMatrix
+	 */
+
+	/**
+	 * Throughput of the parallel similarityMatrix at 1, 2, 4, 8 and 16 threads,
+	 * on food.png / onions.png and on a synthetic 8K (7680x4320) image
+	 */
+	public static void similarityScaling() {
+		System.out.println("Benchmark similarityScaling (" + Runtime.getRuntime().availableProcessors() + " cores)");
+		double[][] food = ImageProcessing.toGray(Helper.read("images/food.png"));
+		double[][] onions = ImageProcessing.toGray(Helper.read("images/onions.png"));
+		similarityScaling("food.png / onions.png", onions, food);
+
+		double[][] synthetic = ImageProcessing.toGray(syntheticImage(7680, 4320, 42));
+		double[][] pattern = crop(synthetic, 2000, 3000, 32, 32);
+		similarityScaling("synthetic 8K / 32x32", pattern, synthetic);
+	}
+
+	private static void similarityScaling(String label, double[][] pattern, double[][] image) {
+		double windows = (double)(image.length-pattern.length+1) * (image[0].length-pattern[0].length+1);
+		SimilarityBasedSearch.similarityMatrix(pattern, image, 1); //warm-up
+		double reference = 0;
+		for(int threads = 1; threads <= 16; threads *= 2) {
+			long start = System.nanoTime();
+			SimilarityBasedSearch.similarityMatrix(pattern, image, threads);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			if(threads == 1) {
+				reference = seconds;
+			}
+			System.out.printf("%-24s %2d threads : %8.1f ms, %8.2f Mwindows/s, speedup x%.2f%n",
+					label, threads, seconds*1000, windows/seconds/1e6, reference/seconds);
+		}
+	}
+
+	/*
+	 * Pyramid search
+	 */
+
+	/**
+	 * Speed and hit rate of PyramidSearch compared to the exhaustive search, for both engines,
+	 * on the bundled images and on 20 patterns cut from a synthetic 1024x768 image.
+	 * A hit is a pyramid best match at the same position as the exhaustive best match.
+	 */
+	public static void pyramid() {
+		System.out.println("Benchmark pyramid (3 levels, 8 candidates)");
+		int[][] food = Helper.read("images/food.png");
+		int[][] image = Helper.read("images/image.png");
+		int[][] pattern = Helper.read("images/pattern.png");
+		pyramid("food.png / onions.png", new int[][][] {Helper.read("images/onions.png")}, food);
+		pyramid("image.png / pattern.png", new int[][][] {pattern}, image);
+		pyramid("image-dark.png / pattern.png", new int[][][] {pattern}, Helper.read("images/image-dark.png"));
+		pyramid("image-light.png / pattern.png", new int[][][] {pattern}, Helper.read("images/image-light.png"));
+
+		int[][] synthetic = syntheticImage(1024, 768, 7);
+		Random random = new Random(7);
+		int[][][] crops = new int[20][][];
+		for(int k = 0; k < crops.length; k++) {
+			crops[k] = crop(synthetic, random.nextInt(768-48), random.nextInt(1024-48), 48, 48);
+		}
+		pyramid("synthetic 1024x768 / 20 crops", crops, synthetic);
+	}
+
+	private static void pyramid(String label, int[][][] patterns, int[][] image) {
+		double[][] grayImage = ImageProcessing.toGray(image);
+		long[] times = new long[4];
+		int[] hits = new int[2];
+		for(int[][] pattern : patterns) {
+			double[][] grayPattern = ImageProcessing.toGray(pattern);
+
+			long start = System.nanoTime();
+			int[] exhaustive = Collector.findBest(DistanceBasedSearch.distanceMatrix(pattern, image), true);
+			times[0] += System.nanoTime() - start;
+			start = System.nanoTime();
+			int[] coarseToFine = PyramidSearch.distanceSearch(1, pattern, image, 3, 8)[0];
+			times[1] += System.nanoTime() - start;
+			hits[0] += exhaustive[0] == coarseToFine[0] && exhaustive[1] == coarseToFine[1] ? 1 : 0;
+
+			start = System.nanoTime();
+			exhaustive = Collector.findBest(SimilarityBasedSearch.similarityMatrix(grayPattern, grayImage), false);
+			times[2] += System.nanoTime() - start;
+			start = System.nanoTime();
+			coarseToFine = PyramidSearch.similaritySearch(1, grayPattern, grayImage, 3, 8)[0];
+			times[3] += System.nanoTime() - start;
+			hits[1] += exhaustive[0] == coarseToFine[0] && exhaustive[1] == coarseToFine[1] ? 1 : 0;
+		}
+		System.out.printf("%-32s distance : exhaustive %8.1f ms, pyramid %7.1f ms, hits %d/%d%n",
+				label, times[0]/1e6, times[1]/1e6, hits[0], patterns.length);
+		System.out.printf("%-32s similarity : exhaustive %6.1f ms, pyramid %7.1f ms, hits %d/%d%n",
+				"", times[2]/1e6, times[3]/1e6, hits[1], patterns.length);
+	}
+
+	/*
+	 * Collector
+	 */
+
+	/**
+	 * Collector.findNBest (bounded heap) against Collector.findNBestQuickSort (quick select),
+	 * for n from 1 to 10 000, on a random 4K (3840x2160) matrix
+	 */
+	public static void nBest() {
+		System.out.println("Benchmark nBest (3840x2160 matrix)");
+		Random random = new Random(10);
+		double[][] matrix = new double[2160][3840];
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[0].length; j++) {
+				matrix[i][j] = random.nextDouble() * 255;
+			}
+		}
+		Collector.findNBest(100, matrix, true); //warm-up
+		Collector.findNBestQuickSort(100, matrix, true);
+		for(int n = 1; n <= 10000; n *= 10) {
+			long start = System.nanoTime();
+			int[][] heap = Collector.findNBest(n, matrix, true);
+			long heapTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			int[][] select = Collector.findNBestQuickSort(n, matrix, true);
+			long selectTime = System.nanoTime() - start;
+			System.out.printf("n = %5d : findNBest %8.1f ms, findNBestQuickSort %8.1f ms, same result : %b%n",
+					n, heapTime/1e6, selectTime/1e6, Arrays.deepEquals(heap, select));
+		}
+	}
+
+	/*
+	 * Single precision
+	 */
+
+	/**
+	 * Accuracy, memory and time of the float path compared to the double path, on the bundled images :
+	 * biggest difference between the matrices, and whether the best match is at the same position
+	 */
+	public static void floatPrecision() {
+		System.out.println("Benchmark floatPrecision");
+		int[][] pattern = Helper.read("images/pattern.png");
+		floatPrecision(null, pattern, Helper.read("images/image.png")); //warm-up
+		floatPrecision("food.png / onions.png", Helper.read("images/onions.png"), Helper.read("images/food.png"));
+		floatPrecision("image.png / pattern.png", pattern, Helper.read("images/image.png"));
+		floatPrecision("image-dark.png / pattern.png", pattern, Helper.read("images/image-dark.png"));
+		floatPrecision("image-light.png / pattern.png", pattern, Helper.read("images/image-light.png"));
+	}
+
+	//Prints nothing when label is null
+	private static void floatPrecision(String label, int[][] pattern, int[][] image) {
+		long start = System.nanoTime();
+		double[][] distance = DistanceBasedSearch.distanceMatrix(pattern, image, SadKernel.SCALAR);
+		long distanceTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		float[][] distanceFloat = DistanceBasedSearch.distanceMatrixFloat(pattern, image);
+		long distanceFloatTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		double[][] gray = ImageProcessing.toGray(image);
+		double[][] similarity = SimilarityBasedSearch.similarityMatrix(ImageProcessing.toGray(pattern), gray);
+		long similarityTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		float[][] grayFloat = ImageProcessing.toGrayFloat(image);
+		float[][] similarityFloat = SimilarityBasedSearch.similarityMatrix(ImageProcessing.toGrayFloat(pattern), grayFloat);
+		long similarityFloatTime = System.nanoTime() - start;
+
+		double distanceError = 0;
+		double similarityError = 0;
+		for(int i = 0; i < distance.length; i++) {
+			for(int j = 0; j < distance[0].length; j++) {
+				distanceError = Math.max(distanceError, Math.abs(distance[i][j] - distanceFloat[i][j]));
+				similarityError = Math.max(similarityError, Math.abs(similarity[i][j] - similarityFloat[i][j]));
+			}
+		}
+		boolean sameDistanceBest = Arrays.equals(Collector.findBest(distance, true), Collector.findBest(distanceFloat, true));
+		boolean sameSimilarityBest = Arrays.equals(Collector.findBest(similarity, false), Collector.findBest(similarityFloat, false));
+		//Gray image + result matrix, 8 bytes per double and 4 per float (ignoring the per-row array headers)
+		long doubleBytes = 8L * (gray.length*gray[0].length + similarity.length*similarity[0].length);
+
+		if(label == null) {
+			return;
+		}
+		System.out.printf("%-32s distance : max error %.2e, same best %b, %7.1f ms -> %7.1f ms%n",
+				label, distanceError, sameDistanceBest, distanceTime/1e6, distanceFloatTime/1e6);
+		System.out.printf("%-32s similarity : max error %.2e, same best %b, %7.1f ms -> %7.1f ms, memory %d kB -> %d kB%n",
+				"", similarityError, sameSimilarityBest, similarityTime/1e6, similarityFloatTime/1e6,
+				doubleBytes/1024, doubleBytes/2048);
+	}
+
+	/*
+	 * Compact gray planes
+	 */
+	
+	/**
+	 * Gray conversion and similarityMatrix on double gray-scale images against GrayPlane (integer sums),
+	 * on the bundled images : time, memory of the gray image and biggest difference between the matrices.
+	 * The conversions (of the image and of the pattern) and the similarity are timed separately.
+	 */
+	public static void grayPlane() {
+		System.out.println("Benchmark grayPlane");
+		int[][] pattern = Helper.read("images/pattern.png");
+		grayPlane(null, pattern, Helper.read("images/image.png")); //warm-up
+		grayPlane("food.png / onions.png", Helper.read("images/onions.png"), Helper.read("images/food.png"));
+		grayPlane("image.png / pattern.png", pattern, Helper.read("images/image.png"));
+		grayPlane("image-dark.png / pattern.png", pattern, Helper.read("images/image-dark.png"));
+		grayPlane("image-light.png / pattern.png", pattern, Helper.read("images/image-light.png"));
+	}
+	
+	//Prints nothing when label is null
+	private static void grayPlane(String label, int[][] pattern, int[][] image) {
+		long start = System.nanoTime();
+		double[][] gray = ImageProcessing.toGray(image);
+		double[][] grayPattern = ImageProcessing.toGray(pattern);
+		long grayTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		double[][] similarity = SimilarityBasedSearch.similarityMatrix(grayPattern, gray);
+		long similarityTime = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		GrayPlane plane = ImageProcessing.toGrayPlane(image);
+		GrayPlane planePattern = ImageProcessing.toGrayPlane(pattern);
+		long planeTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		double[][] planeSimilarity = SimilarityBasedSearch.similarityMatrix(planePattern, plane);
+		long planeSimilarityTime = System.nanoTime() - start;
+		
+		double error = 0;
+		for(int i = 0; i < similarity.length; i++) {
+			for(int j = 0; j < similarity[0].length; j++) {
+				error = Math.max(error, Math.abs(similarity[i][j] - planeSimilarity[i][j]));
+			}
+		}
+		
+		if(label == null) {
+			return;
+		}
+		System.out.printf("%-32s toGray %6.1f ms -> %6.1f ms, memory %d kB -> %d kB%n",
+				label, grayTime/1e6, planeTime/1e6, 8L*gray.length*gray[0].length/1024, 2L*gray.length*gray[0].length/1024);
+		System.out.printf("%-32s similarity %7.1f ms -> %7.1f ms, max error %.2e%n",
+				"", similarityTime/1e6, planeSimilarityTime/1e6, error);
+	}
+	
+	/*
+	 * RGB planes
+	 */
+	
+	/**
+	 * distanceMatrix on packed colors (SadKernel.SCALAR) against distanceMatrix on RgbPlanes,
+	 * on the bundled images (the planes time includes unpacking the image)
+	 */
+	public static void rgbPlanes() {
+		System.out.println("Benchmark rgbPlanes");
+		int[][] pattern = Helper.read("images/pattern.png");
+		rgbPlanes(null, pattern, Helper.read("images/image.png")); //warm-up
+		rgbPlanes("food.png / onions.png", Helper.read("images/onions.png"), Helper.read("images/food.png"));
+		rgbPlanes("image.png / pattern.png", pattern, Helper.read("images/image.png"));
+		rgbPlanes("image-dark.png / pattern.png", pattern, Helper.read("images/image-dark.png"));
+		rgbPlanes("image-light.png / pattern.png", pattern, Helper.read("images/image-light.png"));
+	}
+	
+	//Prints nothing when label is null
+	private static void rgbPlanes(String label, int[][] pattern, int[][] image) {
+		long start = System.nanoTime();
+		double[][] packed = DistanceBasedSearch.distanceMatrix(pattern, image, SadKernel.SCALAR);
+		long packedTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		double[][] planes = DistanceBasedSearch.distanceMatrix(ImageProcessing.toRgbPlanes(pattern),
+				ImageProcessing.toRgbPlanes(image));
+		long planesTime = System.nanoTime() - start;
+		
+		if(label == null) {
+			return;
+		}
+		System.out.printf("%-32s packed %8.1f ms, planes %8.1f ms, speedup x%.2f, same result %b%n",
+				label, packedTime/1e6, planesTime/1e6, (double) packedTime/planesTime, Arrays.deepEquals(packed, planes));
+	}
+	
+	/*
+	 * Raw pixel cache
+	 */
+	
+	/**
+	 * Loading time of food.png and of a synthetic 100 megapixels (12000x8334) PNG : decoding the PNG (Helper.readPacked)
+	 * against opening the raw image of a PixelCache, the first time (decoding + writing the raw image) and the
+	 * next times (mapping only, then reading every pixel once). The synthetic PNG is kept in the temporary
+	 * directory for the next runs. Needs about 3 GB of heap (-Xmx3g).
+	 */
+	public static void pixelCache() {
+		System.out.println("Benchmark pixelCache");
+		Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "where-is-waldo-benchmark");
+		try {
+			Files.createDirectories(directory);
+			Path big = directory.resolve("synthetic-100mp.png");
+			if(!Files.exists(big)) {
+				Helper.write(big.toString(), syntheticImage(12000, 8334, 100));
+			}
+			PixelCache cache = new PixelCache(directory.resolve("cache"));
+			pixelCache("food.png", "images/food.png", cache);
+			pixelCache("synthetic 100 Mpixels", big.toString(), cache);
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+	}
+	
+	private static void pixelCache(String label, String path, PixelCache cache) throws IOException {
+		long start = System.nanoTime();
+		PackedImage decoded = Helper.readPacked(path);
+		long decodeTime = System.nanoTime() - start;
+		
+		cache.remove(path);
+		start = System.nanoTime();
+		cache.open(path);
+		long firstTime = System.nanoTime() - start;
+		
+		start = System.nanoTime();
+		MappedImage mapped = cache.open(path);
+		long mapTime = System.nanoTime() - start;
+		//Reading every pixel once (first touch of the pages)
+		long checksum = 0;
+		for(int i = 0; i < mapped.height(); i++) {
+			for(int j = 0; j < mapped.width(); j++) {
+				checksum += mapped.get(i, j) & 0xffffff;
+			}
+		}
+		long readTime = System.nanoTime() - start;
+		
+		long expected = 0;
+		for(int i = 0; i < decoded.height(); i++) {
+			for(int j = 0; j < decoded.width(); j++) {
+				expected += decoded.get(i, j) & 0xffffff;
+			}
+		}
+		System.out.printf("%-24s decode %8.1f ms, first cached open %8.1f ms, next opens %6.2f ms (%7.1f ms reading all pixels), same pixels %b%n",
+				label, decodeTime/1e6, firstTime/1e6, mapTime/1e6, readTime/1e6, checksum == expected);
+	}
+	
+	/*
+	 * Tiled search
+	 */
+	
+	/**
+	 * TiledSearch on food.png (against the streaming search of the whole image) and on the synthetic 100 megapixels
+	 * PNG of the pixelCache benchmark (which must have been run once), for a pattern cut from the middle of it.
+	 * Run with a small heap (-Xmx256m) : the 100 megapixels image alone would need 400 MB as an int[][].
+	 */
+	public static void tiled() {
+		System.out.println("Benchmark tiled (max heap " + Runtime.getRuntime().maxMemory()/(1024*1024) + " MB)");
+		try {
+			int[][] onions = Helper.read("images/onions.png");
+			long start = System.nanoTime();
+			TopK whole = DistanceBasedSearch.nBest(5, onions, Helper.read("images/food.png"), Double.POSITIVE_INFINITY);
+			long wholeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			TopK tiled = TiledSearch.distanceSearch(5, onions, "images/food.png", 256);
+			long tiledTime = System.nanoTime() - start;
+			System.out.printf("%-24s whole image %8.1f ms, tiles of 256 %8.1f ms, same result %b%n", "food.png / onions.png",
+					wholeTime/1e6, tiledTime/1e6, Arrays.deepEquals(whole.coordinates(), tiled.coordinates()));
+			
+			Path big = Paths.get(System.getProperty("java.io.tmpdir"), "where-is-waldo-benchmark", "synthetic-100mp.png");
+			if(!Files.exists(big)) {
+				System.out.println("Run the pixelCache benchmark first, to create " + big);
+				return;
+			}
+			//The pattern is read like a tile, the image is never loaded as a whole
+			int[][] pattern = regionOf(big.toString(), 4000, 6000, 48, 48);
+			start = System.nanoTime();
+			TopK found = TiledSearch.distanceSearch(1, pattern, big.toString(), 1024);
+			long time = System.nanoTime() - start;
+			int[] best = found.coordinates()[0];
+			System.out.printf("%-24s tiles of 1024 %10.1f ms, best (%d, %d) distance %.1f, heap used %d MB%n",
+					"synthetic 100 Mpixels", time/1e6, best[0], best[1], found.scores()[0],
+					(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())/(1024*1024));
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+	}
+	
+	private static int[][] regionOf(String path, int row, int col, int width, int height) throws IOException {
+		ImageInputStream stream = ImageIO.createImageInputStream(new File(path));
+		ImageReader reader = ImageIO.getImageReaders(stream).next();
+		try {
+			reader.setInput(stream);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(col, row, width, height));
+			ImageView region = Helper.view(reader.read(0, param));
+			int[][] pixels = new int[height][width];
+			for(int i = 0; i < height; i++) {
+				for(int j = 0; j < width; j++) {
+					pixels[i][j] = region.get(i, j);
+				}
+			}
+			return pixels;
+		} finally {
+			reader.dispose();
+			stream.close();
+		}
+	}
+	
+	/*
+	 * Pipelined search
+	 */
+	
+	/**
+	 * Decoding then searching (Helper.readView, then distanceMatrix(ImageView, ImageView)) against PipelinedSearch,
+	 * with 1 worker and with one worker per core, on food.png and on a synthetic 12 megapixels (4000x3000) PNG,
+	 * for small patterns cut from the images (the search then takes about as long as the decoding).
+	 * The synthetic PNG is kept in the temporary directory for the next runs.
+	 */
+	public static void pipelined() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("Benchmark pipelined (" + cores + " cores)");
+		try {
+			Path big = Paths.get(System.getProperty("java.io.tmpdir"), "where-is-waldo-benchmark", "synthetic-12mp.png");
+			if(!Files.exists(big)) {
+				Files.createDirectories(big.getParent());
+				Helper.write(big.toString(), syntheticImage(4000, 3000, 12));
+			}
+			pipelined("food.png / 12x12", "images/food.png", 100, 200, 12, cores);
+			pipelined("synthetic 12 Mpixels / 6x6", big.toString(), 1500, 2000, 6, cores);
+		} catch (IOException e) {
+			System.out.println(e);
+		}
+	}
+	
+	private static void pipelined(String label, String path, int row, int col, int size, int cores) throws IOException {
+		int[][] pattern = regionOf(path, row, col, size, size);
+		PipelinedSearch.distanceMatrix(pattern, path, 1); //warm-up
+		
+		long start = System.nanoTime();
+		ImageView image = Helper.readView(path);
+		long decodeTime = System.nanoTime() - start;
+		double[][] reference = DistanceBasedSearch.distanceMatrix(PackedImage.fromArray(pattern), image);
+		long sequentialTime = System.nanoTime() - start;
+		System.out.printf("%-28s sequential %8.1f ms (decode %.1f ms, search %.1f ms)%n",
+				label, sequentialTime/1e6, decodeTime/1e6, (sequentialTime - decodeTime)/1e6);
+		for(int workers : new int[] {1, cores}) {
+			PipelinedSearch.Result result = PipelinedSearch.distanceMatrix(pattern, path, workers);
+			System.out.printf("%-28s pipelined, %2d workers : %s, same matrix %b%n",
+					label, workers, result, Arrays.deepEquals(reference, result.matrix()));
+			if(cores == 1) {
+				break;
+			}
+		}
+	}
+	
+	/*
+	 * Multi-pattern search
+	 */
+	
+	/**
+	 * MultiPatternSearch of 24 patterns of 3 sizes (12x12, 16x16 and 24x16) cut from a synthetic 1024x768 image,
+	 * against one search per pattern (similarityMatrix(GrayPlane, GrayPlane) and DistanceBasedSearch.nBest, after
+	 * converting the image for each pattern as a caller searching the patterns one by one does)
+	 */
+	public static void multiPattern() {
+		System.out.println("Benchmark multiPattern");
+		int[][] image = syntheticImage(1024, 768, 24);
+		Random random = new Random(24);
+		int[][] sizes = {{12, 12}, {16, 16}, {24, 16}};
+		List<int[][]> patterns = new ArrayList<>();
+		for(int k = 0; k < 24; k++) {
+			int[] size = sizes[k % sizes.length];
+			patterns.add(crop(image, random.nextInt(768-size[1]), random.nextInt(1024-size[0]), size[0], size[1]));
+		}
+		MultiPatternSearch.similaritySearch(5, patterns, image); //warm-up
+		
+		long start = System.nanoTime();
+		for(int[][] pattern : patterns) {
+			double[][] matrix = SimilarityBasedSearch.similarityMatrix(ImageProcessing.toGrayPlane(pattern),
+					ImageProcessing.toGrayPlane(image));
+			TopK best = new TopK(5, false);
+			for(int i = 0; i < matrix.length; i++) {
+				for(int j = 0; j < matrix[0].length; j++) {
+					best.offer(matrix[i][j], i, j);
+				}
+			}
+		}
+		long oneByOne = System.nanoTime() - start;
+		start = System.nanoTime();
+		MultiPatternSearch.similaritySearch(5, patterns, image);
+		long batch = System.nanoTime() - start;
+		System.out.printf("%-24s one by one %8.1f ms, batch %8.1f ms, speedup x%.2f%n",
+				"similarity, 24 patterns", oneByOne/1e6, batch/1e6, (double) oneByOne/batch);
+		
+		start = System.nanoTime();
+		for(int[][] pattern : patterns) {
+			DistanceBasedSearch.nBest(5, pattern, image, Double.POSITIVE_INFINITY);
+		}
+		oneByOne = System.nanoTime() - start;
+		start = System.nanoTime();
+		MultiPatternSearch.distanceSearch(5, patterns, image);
+		batch = System.nanoTime() - start;
+		System.out.printf("%-24s one by one %8.1f ms, batch %8.1f ms, speedup x%.2f%n",
+				"distance, 24 patterns", oneByOne/1e6, batch/1e6, (double) oneByOne/batch);
+	}
+	
+	/*
+	 * Compiled pattern
+	 */
+	
+	/**
+	 * A 48x48 pattern searched in 500 small (96x96) images, prepared for each search (gray conversion of the pattern,
+	 * then similarityMatrix / distanceMatrix) or compiled once (CompiledPattern), and normalizedCrossCorrelation at
+	 * 20000 positions of a 512x512 image, with the pattern as a gray-scale array or compiled
+	 */
+	public static void compiledPattern() {
+		System.out.println("Benchmark compiledPattern");
+		int[][] source = syntheticImage(512, 512, 21);
+		int[][] pattern = crop(source, 100, 100, 48, 48);
+		int[][][] images = new int[500][][];
+		double[][][] grays = new double[images.length][][];
+		for(int k = 0; k < images.length; k++) {
+			images[k] = crop(source, (k*7) % 400, (k*13) % 400, 96, 96);
+			grays[k] = ImageProcessing.toGray(images[k]);
+		}
+		
+		for(int run = 0; run < 2; run++) { //the first run is the warm-up
+			long start = System.nanoTime();
+			for(double[][] gray : grays) {
+				SimilarityBasedSearch.similarityMatrix(ImageProcessing.toGray(pattern), gray);
+			}
+			long prepared = System.nanoTime() - start;
+			start = System.nanoTime();
+			CompiledPattern compiled = new CompiledPattern(pattern);
+			for(double[][] gray : grays) {
+				SimilarityBasedSearch.similarityMatrix(compiled, gray);
+			}
+			long once = System.nanoTime() - start;
+			if(run == 1) {
+				System.out.printf("%-32s prepared each time %8.1f ms, compiled once %8.1f ms%n",
+						"similarity, 500 images", prepared/1e6, once/1e6);
+			}
+			
+			start = System.nanoTime();
+			for(int[][] image : images) {
+				DistanceBasedSearch.distanceMatrix((ImageView) PackedImage.fromArray(pattern), PackedImage.fromArray(image));
+			}
+			prepared = System.nanoTime() - start;
+			start = System.nanoTime();
+			compiled = new CompiledPattern(pattern);
+			for(int[][] image : images) {
+				DistanceBasedSearch.distanceMatrix(compiled, PackedImage.fromArray(image));
+			}
+			once = System.nanoTime() - start;
+			if(run == 1) {
+				System.out.printf("%-32s prepared each time %8.1f ms, compiled once %8.1f ms%n",
+						"distance, 500 images", prepared/1e6, once/1e6);
+			}
+		}
+		
+		double[][] gray = ImageProcessing.toGray(source);
+		double[][] grayPattern = ImageProcessing.toGray(pattern);
+		CompiledPattern compiled = new CompiledPattern(pattern);
+		Random random = new Random(21);
+		int[][] positions = new int[20000][2];
+		for(int[] position : positions) {
+			position[0] = random.nextInt(512-48);
+			position[1] = random.nextInt(512-48);
+		}
+		long start = System.nanoTime();
+		for(int[] position : positions) {
+			SimilarityBasedSearch.normalizedCrossCorrelation(position[0], position[1], grayPattern, gray);
+		}
+		long plain = System.nanoTime() - start;
+		start = System.nanoTime();
+		for(int[] position : positions) {
+			SimilarityBasedSearch.normalizedCrossCorrelation(position[0], position[1], compiled, gray);
+		}
+		long once = System.nanoTime() - start;
+		System.out.printf("%-32s gray-scale pattern %8.1f ms, compiled pattern %8.1f ms%n",
+				"20000 normalizedCrossCorrelation", plain/1e6, once/1e6);
+	}
+	
+	/*
+	 * Directory search
+	 */
+	
+	/**
+	 * DirectorySearch of pattern.png in 200 images (the PNG files of the images directory, again and again), against
+	 * decoding and searching them one after the other on the calling thread. DirectorySearch runs with 1, 2, 4...
+	 * search threads, up to the number of cores (at least 2).
+	 */
+	public static void directorySearch() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("Benchmark directorySearch (" + cores + " cores)");
+		try {
+			List<Path> files = DirectorySearch.listImages(Arrays.asList("images"));
+			List<Path> images = new ArrayList<>();
+			for(int k = 0; k < 200; k++) {
+				images.add(files.get(k % files.size()));
+			}
+			Map<String, CompiledPattern> patterns = new LinkedHashMap<>();
+			patterns.put("pattern.png", new CompiledPattern(Helper.read("images/pattern.png")));
+			List<CompiledPattern> compiled = new ArrayList<>(patterns.values());
+			
+			for(Path path : images.subList(0, 20)) { //warm-up
+				Metric.DISTANCE.search(1, compiled, Helper.readView(path.toString()));
+			}
+			long start = System.nanoTime();
+			for(Path path : images) {
+				Metric.DISTANCE.search(1, compiled, Helper.readView(path.toString()));
+			}
+			double sequential = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%-24s one after the other %6.1f images/s%n", "200 images", images.size()/sequential);
+			for(int threads = 1; threads <= Math.max(cores, 2); threads *= 2) {
+				DirectorySearch.Summary summary = DirectorySearch.search(images, patterns, Metric.DISTANCE, 1, threads,
+						DirectorySearch.Format.CSV, Writer.nullWriter());
+				System.out.printf("%-24s DirectorySearch, %2d threads %6.1f images/s%n", "200 images", threads,
+						summary.searched() / (summary.nanos() / 1e9));
+			}
+		} catch (IOException e) {
+			System.out.println(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/*
+	 * SearchStats
+	 */
+
+	/**
+	 * Phases of the original search (Helper.read, toGray, similarityMatrix, findNBest) on food.png / onions.png, and
+	 * cost of the instrumentation : Metric.search without SearchStats, with SearchStats.DISABLED and with a SearchStats,
+	 * best of 5 runs on a synthetic 1024x768 image
+	 */
+	public static void searchStats() {
+		System.out.println("Benchmark searchStats");
+		SearchStats stats = new SearchStats();
+		stats.begin(SearchStats.Phase.DECODE);
+		int[][] image = Helper.read("images/food.png");
+		int[][] pattern = Helper.read("images/onions.png");
+		stats.end(SearchStats.Phase.DECODE);
+		stats.begin(SearchStats.Phase.GRAY);
+		double[][] grayImage = ImageProcessing.toGray(image);
+		double[][] grayPattern = ImageProcessing.toGray(pattern);
+		stats.end(SearchStats.Phase.GRAY);
+		stats.begin(SearchStats.Phase.SCORE);
+		double[][] similarity = SimilarityBasedSearch.similarityMatrix(grayPattern, grayImage);
+		stats.end(SearchStats.Phase.SCORE);
+		//similarityMatrix compares every pixel of every window
+		long windows = (long) similarity.length*similarity[0].length;
+		stats.count(windows, windows*pattern.length*pattern[0].length, 0);
+		Collector.findNBest(1, similarity, false, stats);
+		System.out.println(stats);
+
+		int[][] source = syntheticImage(1024, 768, 25);
+		ImageView synthetic = PackedImage.fromArray(source);
+		List<CompiledPattern> patterns = List.of(new CompiledPattern(crop(source, 300, 500, 48, 48)));
+		for(Metric metric : Metric.values()) {
+			long plain = Long.MAX_VALUE;
+			long disabled = Long.MAX_VALUE;
+			long enabled = Long.MAX_VALUE;
+			for(int run = 0; run < 5; run++) {
+				long start = System.nanoTime();
+				metric.search(5, patterns, synthetic);
+				plain = Math.min(plain, System.nanoTime() - start);
+				start = System.nanoTime();
+				metric.search(5, patterns, synthetic, SearchStats.DISABLED);
+				disabled = Math.min(disabled, System.nanoTime() - start);
+				start = System.nanoTime();
+				metric.search(5, patterns, synthetic, new SearchStats());
+				enabled = Math.min(enabled, System.nanoTime() - start);
+			}
+			System.out.printf("%-24s without %8.1f ms, disabled %8.1f ms, enabled %8.1f ms%n",
+					metric.name().toLowerCase(Locale.ROOT), plain/1e6, disabled/1e6, enabled/1e6);
+		}
+	}
+
+	/*
+	 * Utilities
+	 */
+
+	/**
+	 * Generates a reproducible RGB image made of random blocks and noise, so that any window is distinctive
+	 * @param width : an integer, the width of the image
+	 * @param height : an integer, the height of the image
+	 * @param seed : a long, the seed of the pseudo-random generator
+	 * @return a HxW integer array of packed RGB colors
+	 */
+	public static int[][] syntheticImage(int width, int height, long seed) {
+		Random random = new Random(seed);
+		int block = 16;
+		int[][] colors = new int[height/block + 1][width/block + 1];
+		for(int i = 0; i < colors.length; i++) {
+			for(int j = 0; j < colors[0].length; j++) {
+				colors[i][j] = random.nextInt(1 << 24);
+			}
+		}
+		int[][] image = new int[height][width];
+		for(int i = 0; i < height; i++) {
+			for(int j = 0; j < width; j++) {
+				int color = colors[i/block][j/block];
+				int noise = random.nextInt(32) - 16;
+				image[i][j] = ImageProcessing.getRGB(ImageProcessing.getRed(color) + noise,
+						ImageProcessing.getGreen(color) + noise, ImageProcessing.getBlue(color) + noise);
+			}
+		}
+		return image;
+	}
+
+	static double[][] crop(double[][] matrix, int row, int col, int width, int height) {
+		double[][] cropped = new double[height][];
+		for(int i = 0; i < height; i++) {
+			cropped[i] = Arrays.copyOfRange(matrix[row+i], col, col+width);
+		}
+		return cropped;
+	}
+
+	static int[][] crop(int[][] image, int row, int col, int width, int height) {
+		int[][] cropped = new int[height][];
+		for(int i = 0; i < height; i++) {
+			cropped[i] = Arrays.copyOfRange(image[row+i], col, col+width);
+		}
+		return cropped;
+	}
+}
@@ -0,0 +1,142 @@
+package main;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How the pixels beyond the right and bottom borders of an image are defined, when the pattern
+ * is allowed to go partially out of the image (one position per pixel of the image).
+ * Instead of testing the borders for every pixel read, the strategy is applied once by pad,
+ * which builds an image big enough for all the positions : the plain search then runs over it.
+ */
+public enum BorderStrategy {
+
+	/**
+	 * The image is periodic : pixel n is pixel 0, n+1 is 1...
+	 */
+	WRAP,
+
+	/**
+	 * The image is reflected around its last pixel, which is not repeated : pixel n is n-2, n+1 is n-3...
+	 * and once pixel 0 is reached, the reflection goes forward again (period 2n-2)
+	 */
+	MIRROR,
+
+	/**
+	 * The last pixel is repeated : pixel n, n+1... are all pixel n-1
+	 */
+	CLAMP,
+
+	/**
+	 * The pixels beyond the borders are black (0)
+	 */
+	CONSTANT;
+
+	/**
+	 * @param i : a positive integer, the index of a pixel on one axis (may be beyond the border)
+	 * @param n : an integer, the size of the image on this axis
+	 * @return an integer, the index in [0, n-1] of the pixel of the image it stands for,
+	 * or -1 for a CONSTANT pixel beyond the border
+	 */
+	public int index(int i, int n) {
+		//Requirement : valid index and image size
+		assert i >= 0;
+		assert n > 0;
+
+		if(i < n) {
+			return i;
+		}
+		switch(this) {
+		case WRAP:
+			return i % n;
+		case MIRROR:
+			if(n == 1) {
+				return 0;
+			}
+			int period = 2*n - 2;
+			int m = i % period;
+			return m < n ? m : period - m;
+		case CLAMP:
+			return n - 1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * Builds the image extended by the strategy beyond its right and bottom borders
+	 * @param image : a HxW integer array of packed RGB colors
+	 * @param extraRows : a positive integer, the number of rows to add (pattern height - 1)
+	 * @param extraCols : a positive integer, the number of columns to add (pattern width - 1)
+	 * @return a (H+extraRows)x(W+extraCols) integer array, whose HxW upper left part is the image
+	 */
+	public int[][] pad(int[][] image, int extraRows, int extraCols) {
+		//Requirement : image should contain at least 1 pixel
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		assert extraRows >= 0 && extraCols >= 0;
+
+		int height = image.length;
+		int width = image[0].length;
+		int[][] padded = new int[height + extraRows][width + extraCols];
+		for(int i = 0; i < padded.length; i++) {
+			int source = index(i, height);
+			if(source < 0) {
+				continue; //black row
+			}
+			System.arraycopy(image[source], 0, padded[i], 0, width);
+			for(int j = width; j < padded[i].length; j++) {
+				int col = index(j, width);
+				padded[i][j] = col < 0 ? 0 : image[source][col];
+			}
+		}
+		return padded;
+	}
+
+	/**
+	 * Builds the gray-scale image extended by the strategy beyond its right and bottom borders
+	 * @param image : a HxW double array
+	 * @param extraRows : a positive integer, the number of rows to add (pattern height - 1)
+	 * @param extraCols : a positive integer, the number of columns to add (pattern width - 1)
+	 * @return a (H+extraRows)x(W+extraCols) double array, whose HxW upper left part is the image
+	 */
+	public double[][] pad(double[][] image, int extraRows, int extraCols) {
+		//Requirement : image should contain at least 1 pixel
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		assert extraRows >= 0 && extraCols >= 0;
+
+		int height = image.length;
+		int width = image[0].length;
+		double[][] padded = new double[height + extraRows][width + extraCols];
+		for(int i = 0; i < padded.length; i++) {
+			int source = index(i, height);
+			if(source < 0) {
+				continue; //black row
+			}
+			System.arraycopy(image[source], 0, padded[i], 0, width);
+			for(int j = width; j < padded[i].length; j++) {
+				int col = index(j, width);
+				padded[i][j] = col < 0 ? 0 : image[source][col];
+			}
+		}
+		return padded;
+	}
+
+	/**
+	 * Reads a strategy from its name, whatever the case ("wrap", "mirror", "clamp" or "constant")
+	 * @param name : a String
+	 * @return the BorderStrategy of that name
+	 * @throws IllegalArgumentException if there is no strategy of that name
+	 */
+	public static BorderStrategy fromName(String name) {
+		try {
+			return valueOf(name.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown border strategy : " + name
+					+ ", expected one of " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+		}
+	}
+}
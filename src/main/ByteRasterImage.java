@@ -0,0 +1,120 @@
+package main;
+
+/**
+ * A RGB image read straight from an interleaved byte raster, as decoded by ImageIO for most
+ * PNG and JPEG files (BufferedImage.TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR...), without any copy.
+ * Pixel (row, col) starts at index offset + row*scanlineStride + col*pixelStride of the array,
+ * and its channels are at redOffset, greenOffset, blueOffset (and alphaOffset, if any) from there.
+ * See Helper.view.
+ */
+public final class ByteRasterImage implements ImageView {
+
+	private final byte[] data;
+	private final int offset;
+	private final int width;
+	private final int height;
+	private final int scanlineStride;
+	private final int pixelStride;
+	private final int redOffset;
+	private final int greenOffset;
+	private final int blueOffset;
+	private final int alphaOffset;
+
+	/**
+	 * Creates a view over the given raster array (no copy)
+	 * @param data : an array of bytes, the samples of the raster
+	 * @param offset : an integer, the index of the first sample of pixel (0, 0) in data
+	 * @param width : an integer, the width of the image
+	 * @param height : an integer, the height of the image
+	 * @param scanlineStride : an integer, the distance in data between two vertically adjacent pixels
+	 * @param pixelStride : an integer, the distance in data between two horizontally adjacent pixels
+	 * @param redOffset : an integer, the index of the red sample of a pixel from its first sample
+	 * @param greenOffset : an integer, the index of the green sample of a pixel from its first sample
+	 * @param blueOffset : an integer, the index of the blue sample of a pixel from its first sample
+	 * @param alphaOffset : an integer, the index of the alpha sample of a pixel from its first sample,
+	 * or -1 if the image is opaque
+	 */
+	public ByteRasterImage(byte[] data, int offset, int width, int height, int scanlineStride, int pixelStride,
+			int redOffset, int greenOffset, int blueOffset, int alphaOffset) {
+		//Requirement : image should contain at least 1 pixel, and fit in data
+		assert data != null;
+		assert width > 0 && height > 0;
+		assert pixelStride >= 3 && scanlineStride >= width*pixelStride;
+		assert offset >= 0 && offset + (height-1)*scanlineStride + width*pixelStride <= data.length;
+
+		this.data = data;
+		this.offset = offset;
+		this.width = width;
+		this.height = height;
+		this.scanlineStride = scanlineStride;
+		this.pixelStride = pixelStride;
+		this.redOffset = redOffset;
+		this.greenOffset = greenOffset;
+		this.blueOffset = blueOffset;
+		this.alphaOffset = alphaOffset;
+	}
+
+	/**
+	 * @return a 32-bits ARGB color, the same value as BufferedImage.getRGB (alpha is 255 for an opaque image)
+	 */
+	@Override
+	public int get(int row, int col) {
+		return argb(index(row, col));
+	}
+
+	@Override
+	public void readChannels(int row, int[] red, int[] green, int[] blue, int start) {
+		int n = index(row, 0);
+		for(int j = 0; j < width; j++) {
+			red[start + j] = data[n + redOffset] & 0xff;
+			green[start + j] = data[n + greenOffset] & 0xff;
+			blue[start + j] = data[n + blueOffset] & 0xff;
+			n += pixelStride;
+		}
+	}
+
+	/**
+	 * Copies the image into a new packed image
+	 * @return a PackedImage of the same size, containing the same values as BufferedImage.getRGB
+	 */
+	public PackedImage toPackedImage() {
+		PackedImage packed = new PackedImage(width, height);
+		int[] pixels = packed.data();
+		for(int i = 0; i < height; i++) {
+			int n = index(i, 0);
+			int to = i*width;
+			for(int j = 0; j < width; j++) {
+				pixels[to + j] = argb(n);
+				n += pixelStride;
+			}
+		}
+		return packed;
+	}
+
+	private int argb(int n) {
+		int alpha = alphaOffset < 0 ? 0xff : data[n + alphaOffset] & 0xff;
+		return alpha << 24 | (data[n + redOffset] & 0xff) << 16 | (data[n + greenOffset] & 0xff) << 8
+				| (data[n + blueOffset] & 0xff);
+	}
+
+	/**
+	 * @return an integer, the index in the raster array of the first sample of pixel (row, col)
+	 */
+	public int index(int row, int col) {
+		//Requirement : pixel is inside the image
+		assert row >= 0 && row < height;
+		assert col >= 0 && col < width;
+
+		return offset + row*scanlineStride + col*pixelStride;
+	}
+
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+}
@@ -0,0 +1,179 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Command line search of a pattern in an image, for servers without display : unlike Main (Program), it never opens
+ * a window, and runs with java.awt.headless=true without ever loading Swing (see Display).
+ * Usage :
+ * Cli --image IMAGE --pattern PATTERN [--metric distance|similarity] [--n K] [--threshold T] [--format text|json]
+ * [--output ANNOTATED] [--stats]
+ * The n best positions are printed (text : one "rank row col score" line per position, json : a single object),
+ * then the time taken, from the start of the JVM and from the start of main. With --threshold, positions worse than
+ * the threshold (a maximal distance, or a minimal similarity) are left out. With --output, a copy of the image with
+ * a box around each position is written (see Helper.write, the format is given by the extension). With --stats, the
+ * time of each phase and the work of the search are given as well (see SearchStats).
+ * Exit codes : 0 on success, 1 if a file cannot be read or written, 2 for wrong arguments.
+ */
+public final class Cli {
+
+	public static void main(String[] args) {
+		long start = System.nanoTime();
+		//Before any AWT class is loaded (ImageIO uses some)
+		System.setProperty("java.awt.headless", "true");
+
+		String imagePath = null;
+		String patternPath = null;
+		Metric metric = Metric.DISTANCE;
+		int n = 1;
+		Double threshold = null;
+		boolean json = false;
+		String output = null;
+		SearchStats stats = SearchStats.DISABLED;
+		try {
+			for(int k = 0; k < args.length; k++) {
+				switch(args[k]) {
+				case "--image":
+					imagePath = value(args, ++k);
+					break;
+				case "--pattern":
+					patternPath = value(args, ++k);
+					break;
+				case "--metric":
+					metric = Metric.fromName(value(args, ++k));
+					break;
+				case "--n":
+					n = Integer.parseInt(value(args, ++k));
+					break;
+				case "--threshold":
+					threshold = Double.parseDouble(value(args, ++k));
+					break;
+				case "--format":
+					String format = value(args, ++k).toLowerCase(Locale.ROOT);
+					if(!format.equals("text") && !format.equals("json")) {
+						throw new IllegalArgumentException("Unknown format : " + format + ", expected text or json");
+					}
+					json = format.equals("json");
+					break;
+				case "--output":
+					output = value(args, ++k);
+					break;
+				case "--stats":
+					stats = new SearchStats();
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument : " + args[k]);
+				}
+			}
+			if(imagePath == null || patternPath == null || n < 1) {
+				throw new IllegalArgumentException("an image, a pattern and n >= 1 are needed");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage : Cli --image IMAGE --pattern PATTERN [--metric distance|similarity] [--n K]"
+					+ " [--threshold T] [--format text|json] [--output ANNOTATED] [--stats]");
+			System.exit(2);
+			return;
+		}
+
+		try {
+			stats.begin(SearchStats.Phase.DECODE);
+			ImageView image = Helper.view(decode(imagePath));
+			ImageView patternImage = Helper.view(decode(patternPath));
+			stats.end(SearchStats.Phase.DECODE);
+			CompiledPattern pattern = new CompiledPattern(patternImage);
+			TopK found = metric.search(n, List.of(pattern), image, stats).get(0);
+			int[][] coordinates = found.coordinates();
+			double[] scores = found.scores();
+			//The positions are sorted from the best : the ones beyond the threshold are at the end
+			int kept = 0;
+			while(kept < scores.length && (threshold == null
+					|| (metric.smallestFirst() ? scores[kept] <= threshold : scores[kept] >= threshold))) {
+				kept++;
+			}
+
+			if(output != null && !annotate(image, pattern, coordinates, kept, output)) {
+				throw new IOException("Cannot write " + output);
+			}
+			double millis = (System.nanoTime() - start) / 1e6;
+			//Time since the start of the JVM : includes its startup and the loading of the classes before main
+			long sinceStart = System.currentTimeMillis()
+					- ProcessHandle.current().info().startInstant().map(instant -> instant.toEpochMilli()).orElse(0L);
+			print(imagePath, patternPath, metric, coordinates, scores, kept, json, millis, sinceStart, stats);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static String value(String[] args, int k) {
+		if(k >= args.length) {
+			throw new IllegalArgumentException("Missing value after " + args[k-1]);
+		}
+		return args[k];
+	}
+
+	private static BufferedImage decode(String path) throws IOException {
+		BufferedImage image;
+		try {
+			image = ImageIO.read(new File(path));
+		} catch (IOException e) {
+			throw new IOException("Cannot read " + path + " : " + e.getMessage(), e);
+		}
+		if(image == null) {
+			throw new IOException("Unknown image format : " + path);
+		}
+		return image;
+	}
+
+	// Writes a copy of the image with a box around the kept positions
+	private static boolean annotate(ImageView image, CompiledPattern pattern, int[][] coordinates, int kept, String output) {
+		int[][] pixels = new int[image.height()][image.width()];
+		for(int i = 0; i < pixels.length; i++) {
+			for(int j = 0; j < pixels[0].length; j++) {
+				pixels[i][j] = image.get(i, j);
+			}
+		}
+		for(int k = 0; k < kept; k++) {
+			Helper.drawBox(coordinates[k][0], coordinates[k][1], pattern.width(), pattern.height(), pixels);
+		}
+		return Helper.write(output, pixels);
+	}
+
+	private static void print(String imagePath, String patternPath, Metric metric, int[][] coordinates, double[] scores,
+			int kept, boolean json, double millis, long sinceStart, SearchStats stats) {
+		StringBuilder out = new StringBuilder();
+		if(json) {
+			out.append("{\"image\":").append(DirectorySearch.json(imagePath))
+					.append(",\"pattern\":").append(DirectorySearch.json(patternPath))
+					.append(",\"metric\":\"").append(metric.name().toLowerCase(Locale.ROOT)).append("\",\"results\":[");
+			for(int k = 0; k < kept; k++) {
+				out.append(k == 0 ? "" : ",").append("{\"rank\":").append(k+1).append(",\"row\":").append(coordinates[k][0])
+						.append(",\"col\":").append(coordinates[k][1]).append(",\"score\":").append(scores[k]).append('}');
+			}
+			out.append("],\"millis\":").append(String.format(Locale.ROOT, "%.1f", millis))
+					.append(",\"millisSinceJvmStart\":").append(sinceStart);
+			if(stats.isEnabled()) {
+				out.append(",\"stats\":").append(stats.toJson());
+			}
+			out.append("}\n");
+		}
+		else {
+			for(int k = 0; k < kept; k++) {
+				out.append(k+1).append(' ').append(coordinates[k][0]).append(' ').append(coordinates[k][1]).append(' ')
+						.append(scores[k]).append('\n');
+			}
+			out.append(String.format(Locale.ROOT, "# %d found in %.1f ms (%d ms since JVM start)%n", kept, millis, sinceStart));
+			if(stats.isEnabled()) {
+				out.append("# ").append(stats.toString().replace("\n", "\n# ")).append('\n');
+			}
+		}
+		System.out.print(out);
+	}
+}
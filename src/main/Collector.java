@@ -53,40 +53,139 @@ public class Collector {
 	 * @return an array of size n containing row, column-coordinate pairs
 	 */
 	public static int[][] findNBest(int n, double[][] matrix, boolean smallestFirst) {
-		//First make a copy of matrix, to avoid modifying it
-		//Because each row has the same length, we can do it this way
-		//See commented code block below for a more universal way of copying a given 2d array
-		double[][] matrixCopy = new double[matrix.length][matrix[0].length];
+		//A single pass over the matrix, keeping the n best elements seen so far in a bounded heap (see TopK) :
+		//O(H*W*log(n)) time, and nothing is copied nor modified. Among equal elements, the first one in
+		//row-major order comes first, which is the order in which findBest would find them.
+		if(n <= 0) {
+			return nCoordinates(0, null);
+		}
+		TopK best = new TopK(n, smallestFirst);
 		for(int i = 0; i < matrix.length; i++) {
-			for(int j = 0; j < matrix[0].length; j++) {
-				matrixCopy[i][j] = matrix[i][j];
+			for(int j = 0; j < matrix[i].length; j++) {
+				best.offer(matrix[i][j], i, j);
 			}
 		}
-		
-//		double[][] matrixCopy = new double[matrix.length][];
-//		for(int i = 0; i < matrix.length; i++) {
-//			matrixCopy[i] = matrix[i].clone();
-//		}
-		
-		double best = 0;
+		return nCoordinates(n, best);
+	}
+	
+	//Coordinates kept by best, completed up to n pairs with (0, 0) when the matrix has fewer than n elements
+	//(what repeated calls to findBest would return)
+	private static int[][] nCoordinates(int n, TopK best) {
+		if(best == null) {
+			return new int[0][2];
+		}
+		int[][] found = best.coordinates();
+		if(found.length == n) {
+			return found;
+		}
 		int[][] coordsOfNBest = new int[n][2];
-		int found = 0; //number of found best values
-		
-		while (found < n) {
-			int[] nextBestCoords = findBest(matrixCopy, smallestFirst);
-			coordsOfNBest[found] = nextBestCoords;
-			if(smallestFirst) {
-				matrixCopy[nextBestCoords[0]][nextBestCoords[1]] = Double.POSITIVE_INFINITY;
+		System.arraycopy(found, 0, coordsOfNBest, 0, found.length);
+		return coordsOfNBest;
+	}
+	
+	/**
+	 * Version of findNBest measuring its time as the SELECT phase of a SearchStats
+	 * @param n : an integer, the number of best elements we want to find 
+	 * @param matrix : an 2D array of doubles
+	 * @param smallestFirst : a boolean,  indicates if the smallest element is the best or not (biggest is the best)
+	 * @param stats : the SearchStats where the selection is added
+	 * @return an array of size n containing row, column-coordinate pairs
+	 */
+	public static int[][] findNBest(int n, double[][] matrix, boolean smallestFirst, SearchStats stats) {
+		stats.begin(SearchStats.Phase.SELECT);
+		int[][] coordsOfNBest = findNBest(n, matrix, smallestFirst);
+		stats.end(SearchStats.Phase.SELECT);
+		return coordsOfNBest;
+	}
+	
+
+	/**
+	 * Single precision version of findBest
+	 * @param matrix : an 2D array of floats
+	 * @param smallestFirst : a boolean, indicates if the smallest element is the best or not (biggest is then the best)
+	 * @return an array of two integer coordinates, row first and then column
+	 */
+	public static int[] findBest(float[][] matrix, boolean smallestFirst) {
+		float best = matrix[0][0];
+		int[] coordsOfBest = {0, 0};
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[i].length; j++) {
+				if(smallestFirst ? matrix[i][j] < best : matrix[i][j] > best) {
+					best = matrix[i][j];
+					coordsOfBest[0] = i;
+					coordsOfBest[1] = j;
+				}
 			}
-			else {
-				matrixCopy[nextBestCoords[0]][nextBestCoords[1]] = Double.NEGATIVE_INFINITY;
+		}
+		return coordsOfBest;
+	}
+	
+	/**
+	 * Single precision version of findNBest (floats are exactly represented by the doubles of TopK)
+	 * @param n : an integer, the number of best elements we want to find 
+	 * @param matrix : an 2D array of floats
+	 * @param smallestFirst : a boolean,  indicates if the smallest element is the best or not (biggest is the best)
+	 * @return an array of size n containing row, column-coordinate pairs
+	 */
+	public static int[][] findNBest(int n, float[][] matrix, boolean smallestFirst) {
+		if(n <= 0) {
+			return nCoordinates(0, null);
+		}
+		TopK best = new TopK(n, smallestFirst);
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[i].length; j++) {
+				best.offer(matrix[i][j], i, j);
 			}
-			found++;
 		}
-		return coordsOfNBest;
+		return nCoordinates(n, best);
 	}
 	
+	/**
+	 * Packed version of findBest
+	 * @param matrix : a PackedMatrix
+	 * @param smallestFirst : a boolean, indicates if the smallest element is the best or not (biggest is then the best)
+	 * @return an array of two integer coordinates, row first and then column
+	 */
+	public static int[] findBest(PackedMatrix matrix, boolean smallestFirst) {
+		double[] values = matrix.data();
+		double best = values[matrix.index(0, 0)];
+		int[] coordsOfBest = {0, 0};
+		for(int i = 0; i < matrix.height(); i++) {
+			int start = matrix.index(i, 0);
+			for(int j = 0; j < matrix.width(); j++) {
+				double value = values[start + j];
+				if(smallestFirst ? value < best : value > best) {
+					best = value;
+					coordsOfBest[0] = i;
+					coordsOfBest[1] = j;
+				}
+			}
+		}
+		return coordsOfBest;
+	}
 	
+	/**
+	 * Packed version of findNBest
+	 * @param n : an integer, the number of best elements we want to find 
+	 * @param matrix : a PackedMatrix
+	 * @param smallestFirst : a boolean,  indicates if the smallest element is the best or not (biggest is the best)
+	 * @return an array of size n containing row, column-coordinate pairs
+	 */
+	public static int[][] findNBest(int n, PackedMatrix matrix, boolean smallestFirst) {
+		//Same single pass as findNBest on a 2D array
+		if(n <= 0) {
+			return nCoordinates(0, null);
+		}
+		TopK best = new TopK(n, smallestFirst);
+		double[] values = matrix.data();
+		for(int i = 0; i < matrix.height(); i++) {
+			int start = matrix.index(i, 0);
+			for(int j = 0; j < matrix.width(); j++) {
+				best.offer(values[start + j], i, j);
+			}
+		}
+		return nCoordinates(n, best);
+	}
 
 	/**
 	 * BONUS 
@@ -95,12 +194,27 @@ public class Collector {
 	 * Sorts all the row, column coordinates based on their pixel value
 	 * Hint : Use recursion !
 	 * @param matrix : an 2D array of doubles
-	 * @return A list of points, each point is an array of length 2.
+	 * @return A list of points, each point is an array of length 2, from the smallest to the biggest value
+	 * (coordinates of equal values in row-major order).
 	 */
 	public static ArrayList<int[]> quicksortPixelCoordinates(double[][] matrix) {
-
-		// TODO implement me correctly for "underpriced" bonus!
-		return new ArrayList<int[]>();
+		//Requirement : matrix should contain at least 1 element, all rows having the same length
+		assert matrix != null;
+		assert matrix.length > 0;
+		assert matrix[0].length > 0;
+		
+		//Instead of sorting a list of boxed coordinates (one object per element, and a lookup in the matrix
+		//at each comparison), the values are sorted as primitive keys, together with their row-major index
+		int width = matrix[0].length;
+		long[] keys = sortKeys(matrix, true);
+		int[] indices = indices(keys.length);
+		quicksort(keys, indices, 0, keys.length - 1);
+		
+		ArrayList<int[]> coordinates = new ArrayList<int[]>(keys.length);
+		for(int k = 0; k < keys.length; k++) {
+			coordinates.add(new int[] {indices[k] / width, indices[k] % width});
+		}
+		return coordinates;
 	}
 
 	
@@ -113,11 +227,173 @@ public class Collector {
 	 * @param n : an integer, the number of best elements we want to find 
 	 * @param matrix : an 2D array of doubles
 	 * @param smallestFirst : a boolean, indicate if the smallest element is the best or not (biggest is the best)
-	 * @return an array of size n containing row, column-coordinate pairs
+	 * @return an array of size n containing row, column-coordinate pairs, in the same order as findNBest
 	 */
 	public static int[][] findNBestQuickSort(int n, double[][] matrix, boolean smallestFirst) {
-
-    	// TODO implement me correctly for underpriced bonus!
-		return new int[][]{};
+		//Requirement : matrix should contain at least 1 element, all rows having the same length
+		assert matrix != null;
+		assert matrix.length > 0;
+		assert matrix[0].length > 0;
+		
+		//Sorting everything is not needed : a quick select first moves the n best elements to the
+		//beginning of the arrays in expected linear time, then only those n elements are sorted.
+		//Keys are built so that the best elements are always the smallest keys.
+		int width = matrix[0].length;
+		long[] keys = sortKeys(matrix, smallestFirst);
+		int[] indices = indices(keys.length);
+		int found = Math.max(0, Math.min(n, keys.length));
+		if(found > 0 && found < keys.length) {
+			quickselect(keys, indices, found);
+		}
+		quicksort(keys, indices, 0, found - 1);
+		
+		//Like findNBest, always return n pairs, even if the matrix has fewer elements than that
+		int[][] coordsOfNBest = new int[Math.max(n, 0)][2];
+		for(int k = 0; k < found; k++) {
+			coordsOfNBest[k][0] = indices[k] / width;
+			coordsOfNBest[k][1] = indices[k] % width;
+		}
+		return coordsOfNBest;
+	}
+	
+	//Below this size, ranges are sorted by insertion, faster than partitioning on small ranges
+	private static final int INSERTION_SORT_SIZE = 16;
+	
+	//Keys whose signed order is the order of the values (ascending, or descending if !ascending) :
+	//the bits of a double compare like the double itself once the bits of negative values are flipped
+	private static long[] sortKeys(double[][] matrix, boolean ascending) {
+		int width = matrix[0].length;
+		long[] keys = new long[matrix.length * width];
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < width; j++) {
+				long bits = Double.doubleToLongBits(matrix[i][j] + 0.0); //+0.0 turns -0.0 into 0.0
+				long key = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+				keys[i*width + j] = ascending ? key : ~key;
+			}
+		}
+		return keys;
+	}
+	
+	private static int[] indices(int length) {
+		int[] indices = new int[length];
+		for(int k = 0; k < length; k++) {
+			indices[k] = k;
+		}
+		return indices;
+	}
+	
+	//Order of the (key, index) pairs : by key, then by row-major index. All pairs are distinct.
+	private static boolean less(long[] keys, int[] indices, int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && indices[a] < indices[b]);
+	}
+	
+	private static void swap(long[] keys, int[] indices, int a, int b) {
+		long key = keys[a];
+		keys[a] = keys[b];
+		keys[b] = key;
+		int index = indices[a];
+		indices[a] = indices[b];
+		indices[b] = index;
+	}
+	
+	//Sorts the pairs in [from, to] (inclusive)
+	private static void quicksort(long[] keys, int[] indices, int from, int to) {
+		while(to - from >= INSERTION_SORT_SIZE) {
+			int pivot = partition(keys, indices, from, to);
+			//Recursion on the smaller part, loop on the bigger one : the stack depth stays in O(log n)
+			if(pivot - from < to - pivot) {
+				quicksort(keys, indices, from, pivot - 1);
+				from = pivot + 1;
+			}
+			else {
+				quicksort(keys, indices, pivot + 1, to);
+				to = pivot - 1;
+			}
+		}
+		insertionSort(keys, indices, from, to);
+	}
+	
+	//Introselect : moves the n smallest pairs to [0, n), in any order. Quick select is expected linear,
+	//but when the partitions are too unbalanced (depth limit reached), the remaining range is sorted instead,
+	//which bounds the worst case to O(N log N)
+	private static void quickselect(long[] keys, int[] indices, int n) {
+		int from = 0;
+		int to = keys.length - 1;
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(keys.length));
+		while(to - from >= INSERTION_SORT_SIZE) {
+			if(depthLimit-- == 0) {
+				heapsort(keys, indices, from, to);
+				return;
+			}
+			int pivot = partition(keys, indices, from, to);
+			if(pivot == n || pivot == n - 1) {
+				return;
+			}
+			if(pivot < n) {
+				from = pivot + 1;
+			}
+			else {
+				to = pivot - 1;
+			}
+		}
+		insertionSort(keys, indices, from, to);
+	}
+	
+	//Partitions [from, to] around the median of the first, middle and last pairs
+	//and returns the final position of the pivot
+	private static int partition(long[] keys, int[] indices, int from, int to) {
+		int middle = (from + to) >>> 1;
+		if(less(keys, indices, middle, from)) swap(keys, indices, middle, from);
+		if(less(keys, indices, to, from)) swap(keys, indices, to, from);
+		if(less(keys, indices, to, middle)) swap(keys, indices, to, middle);
+		//Now from <= middle <= to : the pivot (median) is put aside just before the last pair
+		swap(keys, indices, middle, to - 1);
+		int pivot = to - 1;
+		int i = from;
+		int j = to - 1;
+		while(true) {
+			while(less(keys, indices, ++i, pivot));
+			while(less(keys, indices, pivot, --j));
+			if(i >= j) {
+				break;
+			}
+			swap(keys, indices, i, j);
+		}
+		swap(keys, indices, i, to - 1);
+		return i;
+	}
+	
+	private static void insertionSort(long[] keys, int[] indices, int from, int to) {
+		for(int i = from + 1; i <= to; i++) {
+			for(int j = i; j > from && less(keys, indices, j, j - 1); j--) {
+				swap(keys, indices, j, j - 1);
+			}
+		}
+	}
+	
+	private static void heapsort(long[] keys, int[] indices, int from, int to) {
+		int size = to - from + 1;
+		for(int k = size/2 - 1; k >= 0; k--) {
+			siftDown(keys, indices, from, k, size);
+		}
+		for(int last = size - 1; last > 0; last--) {
+			swap(keys, indices, from, from + last);
+			siftDown(keys, indices, from, 0, last);
+		}
+	}
+	
+	//Max-heap stored in [from, from+size)
+	private static void siftDown(long[] keys, int[] indices, int from, int k, int size) {
+		while(2*k + 1 < size) {
+			int child = 2*k + 1;
+			if(child + 1 < size && less(keys, indices, from + child, from + child + 1)) {
+				child++;
+			}
+			if(!less(keys, indices, from + k, from + child)) {
+				return;
+			}
+			swap(keys, indices, from + k, from + child);
+			k = child;
+		}
 	}
 }
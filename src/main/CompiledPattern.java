@@ -0,0 +1,171 @@
+package main;
+
+/**
+ * A RGB pattern prepared once for all the searches made with it : everything the search engines compute from the
+ * pattern alone (its channels, its zero-mean gray levels and their norm...) is computed here, when the pattern is
+ * compiled, instead of at each search (or, for the per-position functions, at each position).
+ * A pattern searched in many images thus only pays for its preparation once.
+ * Values are stored row after row in flat arrays : value (row, col) is at index row*width + col.
+ * The arrays returned are not copies, and must not be modified.
+ */
+public final class CompiledPattern {
+
+	private final int width;
+	private final int height;
+	//Channels of the pixels, between 0 and 255
+	private final int[] red;
+	private final int[] green;
+	private final int[] blue;
+	private final long[] channelSums = new long[3];
+	//Gray levels minus their mean, and the sum of their squares
+	private final double[] centered;
+	private final double deviation;
+	//Sums red + green + blue of the pixels (3 times the gray levels, see GrayPlane), their sum and
+	//pixels * sum of squares - sum^2 (the exact integer deviation used with GrayPlane images)
+	private final int[] graySums;
+	private final long graySum;
+	private final double grayDeviation;
+
+	/**
+	 * Compiles a pattern
+	 * @param pattern : an 2D array of integers, the RGB pattern
+	 */
+	public CompiledPattern(int[][] pattern) {
+		this(PackedImage.fromArray(pattern));
+	}
+
+	/**
+	 * Compiles a pattern
+	 * @param pattern : an ImageView, the RGB pattern
+	 */
+	public CompiledPattern(ImageView pattern) {
+		//Requirement : pattern should contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.width() > 0 && pattern.height() > 0;
+
+		width = pattern.width();
+		height = pattern.height();
+		int pixels = width*height;
+		red = new int[pixels];
+		green = new int[pixels];
+		blue = new int[pixels];
+		for(int i = 0; i < height; i++) {
+			pattern.readChannels(i, red, green, blue, i*width);
+		}
+		for(int k = 0; k < pixels; k++) {
+			channelSums[0] += red[k];
+			channelSums[1] += green[k];
+			channelSums[2] += blue[k];
+		}
+
+		graySums = new int[pixels];
+		long graySum = 0;
+		long graySquareSum = 0;
+		double[][] gray = new double[height][width];
+		for(int k = 0; k < pixels; k++) {
+			graySums[k] = red[k] + green[k] + blue[k];
+			graySum += graySums[k];
+			graySquareSum += graySums[k]*graySums[k];
+			gray[k / width][k % width] = ImageProcessing.sumToGray(graySums[k]);
+		}
+		this.graySum = graySum;
+		//Would overflow for bigger patterns, which the integer engines refuse (see SimilarityBasedSearch.checkIntegerSums)
+		this.grayDeviation = pixels <= SimilarityBasedSearch.MAX_INTEGER_PIXELS
+				? pixels*graySquareSum - graySum*graySum : Double.NaN;
+		//The same values as for a pattern given to the engines as ImageProcessing.toGray(pattern)
+		centered = SimilarityBasedSearch.centeredPattern(gray);
+		deviation = SimilarityBasedSearch.squaredDeviation(centered);
+	}
+
+	/**
+	 * @return an integer, the width of the pattern
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * @return an integer, the height of the pattern
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * @return an integer, the number of pixels of the pattern
+	 */
+	public int pixels() {
+		return width*height;
+	}
+
+	/**
+	 * @return the red channel of the pixels (between 0 and 255)
+	 */
+	public int[] red() {
+		return red;
+	}
+
+	/**
+	 * @return the green channel of the pixels (between 0 and 255)
+	 */
+	public int[] green() {
+		return green;
+	}
+
+	/**
+	 * @return the blue channel of the pixels (between 0 and 255)
+	 */
+	public int[] blue() {
+		return blue;
+	}
+
+	/**
+	 * @return the sums of the red, green and blue channels over the pattern
+	 */
+	long[] channelSums() {
+		return channelSums;
+	}
+
+	/**
+	 * @return the gray levels of the pixels (see ImageProcessing.getGray) minus their mean : they sum to 0
+	 */
+	public double[] centered() {
+		return centered;
+	}
+
+	/**
+	 * @return a double, the sum of the squares of the centered gray levels
+	 */
+	public double deviation() {
+		return deviation;
+	}
+
+	/**
+	 * @return a double, the norm of the centered gray levels (square root of deviation())
+	 */
+	public double norm() {
+		return Math.sqrt(deviation);
+	}
+
+	/**
+	 * @return the sums red + green + blue of the pixels, as in a GrayPlane
+	 */
+	int[] graySums() {
+		return graySums;
+	}
+
+	/**
+	 * @return a long, the sum of graySums()
+	 */
+	long graySum() {
+		return graySum;
+	}
+
+	/**
+	 * @return a double, pixels() * (sum of the squares of graySums()) - graySum()^2, computed exactly
+	 * (NaN for patterns too big for the integer engines)
+	 */
+	double grayDeviation() {
+		return grayDeviation;
+	}
+}
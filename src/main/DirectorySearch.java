@@ -0,0 +1,428 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Search of the same patterns in many image files ("find these patterns in each of these 50 000 images").
+ * Image files are decoded by virtual threads (one per image, when the JVM has them, Java 21 and later, otherwise by a
+ * pool of platform threads) : decoding is mostly waiting for the disk. The search, which only needs the CPU, runs on a
+ * pool of one platform thread per core. A semaphore bounds the number of images between the start of their decoding
+ * and the end of their search, so that decoded images never pile up in memory when decoding is faster than searching.
+ * The best positions of each pattern in each image are written (as CSV or JSON lines) as soon as the image is searched :
+ * the lines of an image are written together, but the images come in the order their searches end.
+ * Can also be run from the command line, see main.
+ */
+public final class DirectorySearch {
+
+	//File extensions of the images searched in a directory
+	private static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp", ".gif"};
+
+	/**
+	 * Output formats of the results : one line per position found, with the path of the image, the name of the pattern,
+	 * the rank of the position (1 is the best), its row and column and its score
+	 */
+	public enum Format {
+		/**
+		 * Comma-separated values, after a header line : path,pattern,rank,row,col,score
+		 */
+		CSV,
+		/**
+		 * One JSON object per line : {"path":...,"pattern":...,"rank":...,"row":...,"col":...,"score":...}
+		 */
+		JSONL
+	}
+
+	/**
+	 * What a batch search did
+	 */
+	public static final class Summary {
+		private final int searched;
+		private final int failed;
+		private final long nanos;
+
+		private Summary(int searched, int failed, long nanos) {
+			this.searched = searched;
+			this.failed = failed;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return an integer, the number of images searched
+		 */
+		public int searched() {
+			return searched;
+		}
+
+		/**
+		 * @return an integer, the number of images which could not be decoded or searched
+		 */
+		public int failed() {
+			return failed;
+		}
+
+		/**
+		 * @return a long, the duration of the search in nanoseconds
+		 */
+		public long nanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = nanos / 1e9;
+			return String.format(Locale.ROOT, "%d images searched, %d failed, in %.1f s (%.1f images/s)",
+					searched, failed, seconds, searched / seconds);
+		}
+	}
+
+	/**
+	 * Searches patterns in image files
+	 * @param images : a List of Path, the image files
+	 * @param patterns : a Map from the names of the patterns (as written in the results) to the patterns
+	 * @param metric : the Metric scoring the positions
+	 * @param n : an integer, the number of positions to find per pattern and per image
+	 * @param threads : an integer, the number of search threads (and of images being decoded or searched at once,
+	 * twice this number)
+	 * @param format : the Format of the results
+	 * @param out : a Writer, where the results are written (it is flushed after each image, not closed)
+	 * @return a Summary of the search. The images which cannot be decoded or searched are reported on System.err.
+	 * @throws IOException if the results cannot be written
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for the searches
+	 */
+	public static Summary search(List<Path> images, Map<String, CompiledPattern> patterns, Metric metric, int n,
+			int threads, Format format, Writer out) throws IOException, InterruptedException {
+		return search(images, patterns, metric, n, threads, format, out, SearchStats.DISABLED);
+	}
+
+	/**
+	 * Version of search measuring the phases and counting the work of the images searched (not the ones which failed).
+	 * Each image gets its own SearchStats, added to stats once the image is searched : the times are summed over the
+	 * threads, and the decoding on virtual threads has no CPU time nor allocated bytes (see SearchStats).
+	 * @param images : a List of Path, the image files
+	 * @param patterns : a Map from the names of the patterns (as written in the results) to the patterns
+	 * @param metric : the Metric scoring the positions
+	 * @param n : an integer, the number of positions to find per pattern and per image
+	 * @param threads : an integer, the number of search threads (and of images being decoded or searched at once,
+	 * twice this number)
+	 * @param format : the Format of the results
+	 * @param out : a Writer, where the results are written (it is flushed after each image, not closed)
+	 * @param stats : the SearchStats where the phases and the work of the images are added
+	 * @return a Summary of the search. The images which cannot be decoded or searched are reported on System.err.
+	 * @throws IOException if the results cannot be written
+	 * @throws InterruptedException if the calling thread is interrupted while waiting for the searches
+	 */
+	public static Summary search(List<Path> images, Map<String, CompiledPattern> patterns, Metric metric, int n,
+			int threads, Format format, Writer out, SearchStats stats) throws IOException, InterruptedException {
+		//Requirement : at least one pattern, one position and one thread
+		assert images != null && patterns != null && !patterns.isEmpty();
+		assert metric != null && format != null && out != null && stats != null;
+		assert n > 0 && threads > 0;
+
+		long start = System.nanoTime();
+		List<String> names = new ArrayList<>(patterns.keySet());
+		List<CompiledPattern> compiled = new ArrayList<>(patterns.values());
+		int inFlight = 2*threads;
+		Semaphore permits = new Semaphore(inFlight);
+		AtomicInteger searched = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		//The first failure to write the results, which stops the search
+		IOException[] writeFailure = new IOException[1];
+
+		if(format == Format.CSV) {
+			//Flushed now, for the case of no image at all
+			out.write("path,pattern,rank,row,col,score\n");
+			out.flush();
+		}
+		ExecutorService decoders = perTaskExecutor(inFlight);
+		ExecutorService searchers = Executors.newFixedThreadPool(threads);
+		try {
+			for(Path path : images) {
+				permits.acquire();
+				synchronized(writeFailure) {
+					if(writeFailure[0] != null) {
+						permits.release();
+						break;
+					}
+				}
+				decoders.execute(() -> {
+					//The permit goes with the image to its search, otherwise it is released here, even after an Error
+					//(OutOfMemoryError...) : a lost permit would block the final acquire forever
+					boolean handedOver = false;
+					try {
+						SearchStats imageStats = stats.isEnabled() ? new SearchStats() : SearchStats.DISABLED;
+						imageStats.begin(SearchStats.Phase.DECODE);
+						ImageView image = decode(path);
+						imageStats.end(SearchStats.Phase.DECODE);
+						searchers.execute(() -> {
+							try {
+								List<TopK> found = metric.search(n, compiled, image, imageStats);
+								String lines = format(path.toString(), names, found, format);
+								synchronized(writeFailure) {
+									if(writeFailure[0] == null) {
+										out.write(lines);
+										out.flush();
+									}
+								}
+								synchronized(stats) {
+									stats.add(imageStats);
+								}
+								searched.incrementAndGet();
+							} catch (IOException e) {
+								synchronized(writeFailure) {
+									writeFailure[0] = e;
+								}
+							} catch (RuntimeException e) {
+								failed.incrementAndGet();
+								System.err.println("Cannot search " + path + " : " + e);
+							} finally {
+								permits.release();
+							}
+						});
+						handedOver = true;
+					} catch (IOException | RuntimeException e) {
+						failed.incrementAndGet();
+						System.err.println("Cannot read " + path + " : " + e);
+					} finally {
+						if(!handedOver) {
+							permits.release();
+						}
+					}
+				});
+			}
+			//All the permits are back once every image is searched
+			permits.acquire(inFlight);
+		} finally {
+			decoders.shutdownNow();
+			searchers.shutdownNow();
+			decoders.awaitTermination(1, TimeUnit.MINUTES);
+			searchers.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		if(writeFailure[0] != null) {
+			throw writeFailure[0];
+		}
+		return new Summary(searched.get(), failed.get(), System.nanoTime() - start);
+	}
+
+	// A virtual thread per task when the JVM has them (Java 21 and later, found by reflection so that the code still
+	// compiles and runs on Java 17), otherwise a pool of platform threads. Also used by SearchServer.
+	static ExecutorService perTaskExecutor(int platformThreads) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newFixedThreadPool(platformThreads);
+		}
+	}
+
+	// Decodes an image file, see Helper.view (Helper.read would end the program on the first bad file)
+	private static ImageView decode(Path path) throws IOException {
+		BufferedImage image = ImageIO.read(path.toFile());
+		if(image == null) {
+			throw new IOException("Unknown image format");
+		}
+		return Helper.view(image);
+	}
+
+	// The lines of the results of an image
+	private static String format(String path, List<String> names, List<TopK> found, Format format) {
+		StringBuilder lines = new StringBuilder();
+		for(int p = 0; p < names.size(); p++) {
+			int[][] coordinates = found.get(p).coordinates();
+			double[] scores = found.get(p).scores();
+			for(int k = 0; k < coordinates.length; k++) {
+				if(format == Format.CSV) {
+					lines.append(csv(path)).append(',').append(csv(names.get(p))).append(',').append(k+1).append(',')
+							.append(coordinates[k][0]).append(',').append(coordinates[k][1]).append(',')
+							.append(scores[k]).append('\n');
+				}
+				else {
+					lines.append("{\"path\":").append(json(path)).append(",\"pattern\":").append(json(names.get(p)))
+							.append(",\"rank\":").append(k+1).append(",\"row\":").append(coordinates[k][0])
+							.append(",\"col\":").append(coordinates[k][1]).append(",\"score\":").append(scores[k])
+							.append("}\n");
+				}
+			}
+		}
+		return lines.toString();
+	}
+
+	// A CSV field, quoted if needed
+	private static String csv(String value) {
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	// A JSON string
+	static String json(String value) {
+		StringBuilder json = new StringBuilder("\"");
+		for(int k = 0; k < value.length(); k++) {
+			char c = value.charAt(k);
+			if(c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			}
+			else if(c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				json.append(c);
+			}
+		}
+		return json.append('"').toString();
+	}
+
+	/**
+	 * Lists image files : the files with an image extension (png, jpg, jpeg, bmp, gif) of the given directories and
+	 * their sub-directories, the given files, and the files listed (one path per line) in the given list files,
+	 * whose names start with @
+	 * @param sources : the directories, files and @lists
+	 * @return a List of Path, the image files, sorted by path within each directory
+	 * @throws IOException if a directory or a list cannot be read
+	 */
+	public static List<Path> listImages(List<String> sources) throws IOException {
+		List<Path> images = new ArrayList<>();
+		for(String source : sources) {
+			if(source.startsWith("@")) {
+				try(Stream<String> lines = Files.lines(Paths.get(source.substring(1)), StandardCharsets.UTF_8)) {
+					lines.map(String::trim).filter(line -> !line.isEmpty()).map(Paths::get).forEach(images::add);
+				}
+			}
+			else if(Files.isDirectory(Paths.get(source))) {
+				try(Stream<Path> files = Files.walk(Paths.get(source))) {
+					images.addAll(files.filter(Files::isRegularFile).filter(DirectorySearch::isImage).sorted()
+							.collect(Collectors.toList()));
+				} catch (UncheckedIOException e) {
+					throw e.getCause();
+				}
+			}
+			else {
+				images.add(Paths.get(source));
+			}
+		}
+		return images;
+	}
+
+	private static boolean isImage(Path file) {
+		String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+		for(String extension : EXTENSIONS) {
+			if(name.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Command line search :
+	 * DirectorySearch [--metric distance|similarity] [--n K] [--threads T] [--format csv|jsonl] [--output FILE]
+	 * [--stats] --pattern PATTERN [--pattern PATTERN...] SOURCE...
+	 * where each SOURCE is a directory (searched with its sub-directories), an image file, or @FILE, a file listing
+	 * image paths (one per line). Results go to standard output by default, the summary to the standard error, with
+	 * the time of each phase and the work of the search after it with --stats (see SearchStats).
+	 * Defaults : distance, 1 position, one thread per core, csv.
+	 * @param args : the arguments described above
+	 */
+	public static void main(String[] args) {
+		Metric metric = Metric.DISTANCE;
+		int n = 1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Format format = Format.CSV;
+		String output = null;
+		SearchStats stats = SearchStats.DISABLED;
+		Map<String, CompiledPattern> patterns = new LinkedHashMap<>();
+		List<String> sources = new ArrayList<>();
+		try {
+			for(int k = 0; k < args.length; k++) {
+				switch(args[k]) {
+				case "--metric":
+					metric = Metric.fromName(value(args, ++k));
+					break;
+				case "--n":
+					n = Integer.parseInt(value(args, ++k));
+					break;
+				case "--threads":
+					threads = Integer.parseInt(value(args, ++k));
+					break;
+				case "--format":
+					format = Format.valueOf(value(args, ++k).toUpperCase(Locale.ROOT));
+					break;
+				case "--output":
+					output = value(args, ++k);
+					break;
+				case "--stats":
+					stats = new SearchStats();
+					break;
+				case "--pattern":
+					String pattern = value(args, ++k);
+					patterns.put(pattern, new CompiledPattern(Helper.readView(pattern)));
+					break;
+				default:
+					sources.add(args[k]);
+				}
+			}
+			if(patterns.isEmpty() || sources.isEmpty() || n < 1 || threads < 1) {
+				throw new IllegalArgumentException("at least one pattern and one source are needed");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage : DirectorySearch [--metric distance|similarity] [--n K] [--threads T]"
+					+ " [--format csv|jsonl] [--output FILE] [--stats] --pattern PATTERN [--pattern PATTERN...] SOURCE...");
+			System.exit(2);
+			return;
+		}
+
+		try {
+			List<Path> images = listImages(sources);
+			Summary summary;
+			if(output == null) {
+				Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+				summary = search(images, patterns, metric, n, threads, format, out, stats);
+			}
+			else {
+				try(Writer out = Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8)) {
+					summary = search(images, patterns, metric, n, threads, format, out, stats);
+				}
+			}
+			System.err.println(summary);
+			if(stats.isEnabled()) {
+				System.err.println(stats);
+			}
+		} catch (IOException e) {
+			System.err.println(e);
+			System.exit(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.exit(1);
+		}
+	}
+
+	private static String value(String[] args, int k) {
+		if(k >= args.length) {
+			throw new IllegalArgumentException("Missing value after " + args[k-1]);
+		}
+		return args[k];
+	}
+}
@@ -0,0 +1,64 @@
+package main;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+
+/**
+ * Shows pictures in windows (Swing). Kept apart from Helper : loading (and verifying) a class that creates
+ * windows loads Swing, which the headless tools (Cli, DirectorySearch...) must never do.
+ */
+final class Display {
+
+	/**
+	 * Shows specified image in a window, and waits until it is closed.
+	 * @param image : a BufferedImage
+	 * @param title : a String, the title to be displayed
+	 */
+	static void show(final BufferedImage image, String title) {
+
+		// Create a panel to render this image
+		@SuppressWarnings("serial")
+		JPanel panel = new JPanel() {
+			@Override
+			protected void paintComponent(Graphics g) {
+				super.paintComponent(g);
+				g.drawImage(image, 0, 0, Math.max(getWidth(), 100), Math.max(getHeight(), 100), null, null);
+			}
+		};
+
+		// Create a frame to hold this panel
+		final JFrame frame = new JFrame(title);
+		frame.add(panel);
+        frame.getContentPane().setPreferredSize(new Dimension(Math.max(image.getWidth(), 300), Math.max(image.getHeight(), 300)));
+		frame.pack();
+
+		// Register closing event
+		frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+		frame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				frame.setVisible(false);
+				synchronized (frame) {
+					frame.notifyAll();
+				}
+			}
+		});
+
+		// Show this frame
+		frame.setVisible(true);
+
+		// Wait for close operation
+		try {
+			synchronized (frame) {
+				while (frame.isVisible())
+					frame.wait();
+			}
+		} catch (InterruptedException e) {
+			// Empty on purpose
+		}
+		frame.dispose();
+	}
+
+}
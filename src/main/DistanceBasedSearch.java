@@ -1,5 +1,8 @@
 package main;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 public class DistanceBasedSearch {
 
 	/**
@@ -119,8 +122,23 @@ public class DistanceBasedSearch {
 	/**
 	 * BONUS
 	 * distanceMatrix with wrapping and mirroring strategies
+	 * @param strategy : a String, the name of a BorderStrategy ("wrap", "mirror", "clamp" or "constant")
+	 * @see #distanceMatrix(int[][], int[][], BorderStrategy)
 	 **/
 	public static double[][] distanceMatrix(int[][] pattern, int[][] image, String strategy) {
+		return distanceMatrix(pattern, image, BorderStrategy.fromName(strategy));
+	}
+	
+	/**
+	 * distanceMatrix where the pattern may go beyond the right and bottom borders of the image,
+	 * the missing pixels being given by the strategy. The strategy is applied once, by padding the image,
+	 * then the plain distanceMatrix runs over the padded image, without any modulo or branch per pixel.
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param strategy : the BorderStrategy defining the pixels beyond the borders
+	 * @return a 2D array of doubles of the size of the image, containing the distance of each position
+	 */
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, BorderStrategy strategy) {
 		//Requirement : pattern and image should both contain at least 1 pixel
 		assert pattern != null;
 		assert pattern.length > 0;
@@ -129,37 +147,765 @@ public class DistanceBasedSearch {
 		assert image != null;
 		assert image.length > 0;
 		assert image[0].length > 0;
+		assert strategy != null;
 		
 		//Notice that here, it is not required anymore that the pattern fits entirely in the image
 		//Although it doesn't make much sense to search for a pattern bigger than the image itself
 		//the program (and algorithm) would work.
+		return distanceMatrix(pattern, strategy.pad(image, pattern.length-1, pattern[0].length-1));
+	}
+	
+	/**
+	 * Packed version of meanAbsoluteError
+	 * @param row : a integer, the row-coordinate of the upper left corner of the pattern in the image.
+	 * @param col : a integer, the column-coordinate of the upper left corner of the pattern in the image.
+	 * @param pattern : a PackedImage, the RGB pattern to find
+	 * @param image : a PackedImage, the RGB image where to look for the pattern
+	 * @return a double, the mean absolute error (same value as the 2D array version)
+	 */
+	public static double meanAbsoluteError(int row, int col, PackedImage pattern, PackedImage image) {
+		//Requirement : pattern fits entirely in the image given its position (row, col)
+		assert pattern.height() <= (image.height() - row);
+		assert pattern.width() <= (image.width() - col);
 		
-		//Requirement : user must have chosen a strategy. Either "wrap" or "mirror"
-		assert (strategy.equals("wrap") || strategy.equals("mirror"));
+		int patternHeight = pattern.height();
+		int patternWidth = pattern.width();
+		int[] patternPixels = pattern.data();
+		int[] imagePixels = image.data();
 		
-		int imageHeight = image.length;
+		double meanAbsErr = 0;
+		for(int i = 0; i < patternHeight; i++) {
+			int p = pattern.index(i, 0);
+			int q = image.index(row+i, col);
+			for(int j = 0; j < patternWidth; j++) {
+				meanAbsErr += pixelAbsoluteError(patternPixels[p+j], imagePixels[q+j]);
+			}
+		}
+		
+		meanAbsErr /= patternHeight*patternWidth;
+		return meanAbsErr;
+	}
+	
+	/**
+	 * Packed version of distanceMatrix
+	 * @param pattern : a PackedImage, the RGB pattern to find
+	 * @param image : a PackedImage, the RGB image where to look for the pattern
+	 * @return a PackedMatrix, containing the same values as distanceMatrix on the 2D arrays
+	 */
+	public static PackedMatrix distanceMatrix(PackedImage pattern, PackedImage image) {
+		//Requirement : pattern and image must exist
+		assert pattern != null;
+		assert image != null;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.height() <= image.height();
+		assert pattern.width() <= image.width();
+		
+		PackedMatrix matrix = new PackedMatrix(image.width()-pattern.width()+1, image.height()-pattern.height()+1);
+		for(int i = 0; i < matrix.height(); i++) {
+			for(int j = 0; j < matrix.width(); j++) {
+				matrix.set(i, j, meanAbsoluteError(i, j, pattern, image));
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * meanAbsoluteError of a compiled pattern : its channels are not unpacked again. The differences of the channels
+	 * are summed as integers, and only divided once, as with a SadKernel (see
+	 * meanAbsoluteError(int, int, PackedImage, PackedImage, SadKernel)).
+	 * @param row : a integer, the row-coordinate of the upper left corner of the pattern in the image.
+	 * @param col : a integer, the column-coordinate of the upper left corner of the pattern in the image.
+	 * @param pattern : a CompiledPattern, the pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @return a double, the mean absolute error
+	 */
+	public static double meanAbsoluteError(int row, int col, CompiledPattern pattern, int[][] image) {
+		//Requirement : pattern fits entirely in the image given its position (row, col)
+		assert pattern != null && image != null;
+		assert pattern.height() <= (image.length - row);
+		assert pattern.width() <= (image[0].length - col);
+		
+		int patternWidth = pattern.width();
+		int[] red = pattern.red();
+		int[] green = pattern.green();
+		int[] blue = pattern.blue();
+		long sad = 0;
+		for(int i = 0; i < pattern.height(); i++) {
+			int[] imageRow = image[row+i];
+			int offset = i*patternWidth;
+			for(int j = 0; j < patternWidth; j++) {
+				int rgb = imageRow[col+j];
+				sad += Math.abs(red[offset+j] - ImageProcessing.getRed(rgb))
+						+ Math.abs(green[offset+j] - ImageProcessing.getGreen(rgb))
+						+ Math.abs(blue[offset+j] - ImageProcessing.getBlue(rgb));
+			}
+		}
+		return sad / (3.0*pattern.pixels());
+	}
+	
+	/**
+	 * meanAbsoluteError computed by a SadKernel : the channel differences of each row of the pattern
+	 * are summed as integers, and the division only happens once for the whole window.
+	 * The value is the exactly rounded mean absolute error, as there is a single division. It is not always the same
+	 * as meanAbsoluteError(int, int, int[][], int[][]), which adds up the error of each pixel divided by 3 : the two
+	 * differ by rounding errors, below 1e-12, which can change the order of windows at almost the same distance.
+	 * @param row : a integer, the row-coordinate of the upper left corner of the pattern in the image.
+	 * @param col : a integer, the column-coordinate of the upper left corner of the pattern in the image.
+	 * @param pattern : a PackedImage, the RGB pattern to find
+	 * @param image : a PackedImage, the RGB image where to look for the pattern
+	 * @param kernel : the SadKernel to use, SadKernel.SCALAR or SadKernel.vector()
+	 * @return a double, the mean absolute error
+	 */
+	public static double meanAbsoluteError(int row, int col, PackedImage pattern, PackedImage image, SadKernel kernel) {
+		//Requirement : pattern fits entirely in the image given its position (row, col)
+		assert pattern.height() <= (image.height() - row);
+		assert pattern.width() <= (image.width() - col);
+		
+		long sad = 0;
+		for(int i = 0; i < pattern.height(); i++) {
+			sad += kernel.rowSad(pattern.data(), pattern.index(i, 0), image.data(), image.index(row+i, col), pattern.width());
+		}
+		return sad / (3.0*pattern.height()*pattern.width());
+	}
+	
+	/**
+	 * distanceMatrix computed by a SadKernel, see meanAbsoluteError(int, int, PackedImage, PackedImage, SadKernel)
+	 * @param pattern : a PackedImage, the RGB pattern to find
+	 * @param image : a PackedImage, the RGB image where to look for the pattern
+	 * @param kernel : the SadKernel to use, SadKernel.SCALAR or SadKernel.vector()
+	 * @return a PackedMatrix, containing the distance for each position of the pattern
+	 */
+	public static PackedMatrix distanceMatrix(PackedImage pattern, PackedImage image, SadKernel kernel) {
+		//Requirement : pattern and image must exist
+		assert pattern != null;
+		assert image != null;
+		assert kernel != null;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.height() <= image.height();
+		assert pattern.width() <= image.width();
+		
+		PackedMatrix matrix = new PackedMatrix(image.width()-pattern.width()+1, image.height()-pattern.height()+1);
+		for(int i = 0; i < matrix.height(); i++) {
+			for(int j = 0; j < matrix.width(); j++) {
+				matrix.set(i, j, meanAbsoluteError(i, j, pattern, image, kernel));
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * distanceMatrix on 2D arrays computed by a SadKernel (each row of a 2D array is a contiguous array).
+	 * The values are the ones of meanAbsoluteError(int, int, PackedImage, PackedImage, SadKernel), not always
+	 * bit-identical to distanceMatrix(int[][], int[][]).
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param kernel : the SadKernel to use, SadKernel.SCALAR or SadKernel.vector()
+	 * @return a 2D array of doubles, see distanceMatrix
+	 */
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, SadKernel kernel) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		assert kernel != null;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
+		double count = 3.0*patternHeight*patternWidth;
+		double[][] matrix = new double[image.length-patternHeight+1][image[0].length-patternWidth+1];
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[0].length; j++) {
+				long sad = 0;
+				for(int k = 0; k < patternHeight; k++) {
+					sad += kernel.rowSad(pattern[k], 0, image[i+k], j, patternWidth);
+				}
+				matrix[i][j] = sad / count;
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Single precision version of distanceMatrix : half the memory of the double matrix.
+	 * Errors are summed exactly as integers (see SadKernel) and divided once, so each value
+	 * is the float nearest to the exact mean absolute error.
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @return a 2D array of floats, see distanceMatrix
+	 */
+	public static float[][] distanceMatrixFloat(int[][] pattern, int[][] image) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
+		double count = 3.0*patternHeight*patternWidth;
+		float[][] matrix = new float[image.length-patternHeight+1][image[0].length-patternWidth+1];
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[0].length; j++) {
+				long sad = 0;
+				for(int k = 0; k < patternHeight; k++) {
+					sad += SadKernel.SCALAR.rowSad(pattern[k], 0, image[i+k], j, patternWidth);
+				}
+				matrix[i][j] = (float) (sad / count);
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Version of distanceMatrix on channel planes : no color is unpacked during the search.
+	 * See distanceMatrix(ImageView, ImageView) : the result is exactly the same as with a SadKernel, not always as
+	 * distanceMatrix(int[][], int[][]).
+	 * @param pattern : a RgbPlanes, the RGB pattern to find
+	 * @param image : a RgbPlanes, the RGB image where to look for the pattern
+	 * @return a 2D array of doubles, see distanceMatrix
+	 */
+	public static double[][] distanceMatrix(RgbPlanes pattern, RgbPlanes image) {
+		return distanceMatrix((ImageView) pattern, (ImageView) image);
+	}
+	
+	/**
+	 * Version of distanceMatrix reading the pixels straight from the storage of the images (for instance the
+	 * raster of a BufferedImage, see Helper.view), without converting them first.
+	 * Each row of the image is unpacked once, when it enters the rows covered by the current output row,
+	 * into ints (the JIT vectorizes int loops, not mixed byte / int ones). The absolute differences of the three
+	 * channels are summed exactly as integers : the result is exactly the same as with a SadKernel (see
+	 * meanAbsoluteError(int, int, PackedImage, PackedImage, SadKernel)). It is not always the same as
+	 * distanceMatrix(int[][], int[][]), which adds up the error of each pixel (divided by 3) as a double : the two
+	 * differ by rounding errors (up to about 1e-13 on large patterns), which can change the order of windows at
+	 * almost the same distance.
+	 * @param pattern : an ImageView, the RGB pattern to find
+	 * @param image : an ImageView, the RGB image where to look for the pattern
+	 * @return a 2D array of doubles, see distanceMatrix
+	 */
+	public static double[][] distanceMatrix(ImageView pattern, ImageView image) {
+		//Requirement : pattern and image must exist
+		assert pattern != null;
+		assert image != null;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.height() <= image.height();
+		assert pattern.width() <= image.width();
+		
+		return distanceMatrix(new CompiledPattern(pattern), image);
+	}
+	
+	/**
+	 * distanceMatrix(ImageView, ImageView) of a compiled pattern, without any preparation of the pattern
+	 * @param pattern : a CompiledPattern, the pattern to find
+	 * @param image : an ImageView, the RGB image where to look for the pattern
+	 * @return a 2D array of doubles, see distanceMatrix
+	 */
+	public static double[][] distanceMatrix(CompiledPattern pattern, ImageView image) {
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern != null && image != null;
+		assert pattern.height() <= image.height();
+		assert pattern.width() <= image.width();
+		
+		double[][] matrix = new double[image.height()-pattern.height()+1][image.width()-pattern.width()+1];
+		distanceRows(pattern, image, matrix, 0, matrix.length);
+		return matrix;
+	}
+	
+	// Computes rows [fromRow, toRow) of the distance matrix of distanceMatrix(CompiledPattern, ImageView) :
+	// only image rows [fromRow, toRow + pattern height - 1) are read
+	static void distanceRows(CompiledPattern pattern, ImageView image, double[][] matrix, int fromRow, int toRow) {
+		int patternHeight = pattern.height();
+		int patternWidth = pattern.width();
+		int imageWidth = image.width();
+		double count = 3.0*patternHeight*patternWidth;
+		int[] patternRed = pattern.red();
+		int[] patternGreen = pattern.green();
+		int[] patternBlue = pattern.blue();
+		
+		//rows[c][r % patternHeight] contains the values of channel c of image row r, for the
+		//patternHeight rows covered by the current output row
+		int[][][] rows = new int[3][patternHeight][imageWidth];
+		for(int i = fromRow; i < fromRow + patternHeight - 1; i++) {
+			int ring = i % patternHeight;
+			image.readChannels(i, rows[0][ring], rows[1][ring], rows[2][ring], 0);
+		}
+		
+		for(int row = fromRow; row < toRow; row++) {
+			int entering = (row+patternHeight-1) % patternHeight;
+			image.readChannels(row+patternHeight-1, rows[0][entering], rows[1][entering], rows[2][entering], 0);
+			for(int col = 0; col < matrix[0].length; col++) {
+				long sad = 0;
+				for(int i = 0; i < patternHeight; i++) {
+					int ring = (row+i) % patternHeight;
+					sad += rowSad(rows[0][ring], rows[1][ring], rows[2][ring], col,
+							patternRed, patternGreen, patternBlue, i*patternWidth, patternWidth);
+				}
+				matrix[row][col] = sad / count;
+			}
+		}
+	}
+	
+	// Sum of the absolute differences of length values of the three channels at once, so that
+	// the loop is as long as the pattern row (255 * 3 * length fits in an int)
+	static int rowSad(int[] red, int[] green, int[] blue, int imageStart,
+			int[] patternRed, int[] patternGreen, int[] patternBlue, int patternStart, int length) {
+		int sad = 0;
+		for(int j = 0; j < length; j++) {
+			sad += Math.abs(red[imageStart+j] - patternRed[patternStart+j])
+					+ Math.abs(green[imageStart+j] - patternGreen[patternStart+j])
+					+ Math.abs(blue[imageStart+j] - patternBlue[patternStart+j]);
+		}
+		return sad;
+	}
+	
+	/**
+	 * Finds the position of the pattern with the smallest distance in the image, without building the distance matrix.
+	 * See findNBest(int, int[][], int[][]).
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @return an array of two integer coordinates, row first and then column
+	 */
+	public static int[] findBest(int[][] pattern, int[][] image) {
+		return findNBest(1, pattern, image)[0];
+	}
+	
+	/**
+	 * Finds the n positions of the pattern with the smallest distance in the image, without building
+	 * the distance matrix. Gives the same positions, in the same order, as
+	 * Collector.findNBest(n, distanceMatrix(pattern, image, SadKernel.SCALAR), true)
+	 * (and as with distanceMatrix(pattern, image), except between windows whose distances only differ by rounding errors).
+	 * 
+	 * Most windows are clearly worse than the n-th best one found so far, so :
+	 * - a window is skipped entirely when a lower bound of its error is already too big.
+	 * The bound is the successive elimination one : for each channel, |sum(P) - sum(I)| <= sum(|P - I|),
+	 * with the window sums obtained from running column sums of the channels ;
+	 * - the error of the other windows stops being summed as soon as it is too big (early abandon) ;
+	 * the most distinctive pattern pixels (farthest from the mean color of the pattern) are summed first,
+	 * so that bad windows are abandoned as early as possible.
+	 * @param n : an integer, the number of best positions we want to find
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @return an array of size n containing row, column-coordinate pairs, best first
+	 */
+	public static int[][] findNBest(int n, int[][] pattern, int[][] image) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		int[][] found = nBest(n, pattern, image).coordinates();
+		//Like Collector.findNBest, always return n pairs, even if there are fewer positions than that
+		int[][] coordsOfNBest = new int[n][2];
+		System.arraycopy(found, 0, coordsOfNBest, 0, found.length);
+		return coordsOfNBest;
+	}
+	
+	/**
+	 * Streaming search : every window distance goes straight into a bounded collector, the distance matrix
+	 * is never built. Beyond the image itself, the memory used is O(n + W + h*w), whatever the size of the image.
+	 * Uses the same early abandon and successive elimination as findNBest.
+	 * @param n : an integer, the maximal number of positions to keep
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param maxDistance : a double, windows with a bigger distance are ignored (Double.POSITIVE_INFINITY to keep everything)
+	 * @return a TopK containing the (at most n) positions of smallest distance, with their distances
+	 */
+	public static TopK nBest(int n, int[][] pattern, int[][] image, double maxDistance) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
 		int imageWidth = image[0].length;
+		int pixels = patternHeight*patternWidth;
+		double count = 3.0*pixels;
 		
-		//Here, we are going to move the pattern over the whole image,
-		//including when the pattern goes partially beyond the limits of the image itself
-		double[][] matrix = new double[imageHeight][imageWidth];
+		//Pattern pixels sorted by decreasing distinctiveness, with their coordinates and channels
+		int[] order = distinctiveOrder(pattern);
+		int[] rows = new int[pixels];
+		int[] cols = new int[pixels];
+		int[] reds = new int[pixels];
+		int[] greens = new int[pixels];
+		int[] blues = new int[pixels];
+		long[] patternSums = new long[3];
+		for(int k = 0; k < pixels; k++) {
+			rows[k] = order[k] / patternWidth;
+			cols[k] = order[k] % patternWidth;
+			int rgb = pattern[rows[k]][cols[k]];
+			reds[k] = ImageProcessing.getRed(rgb);
+			greens[k] = ImageProcessing.getGreen(rgb);
+			blues[k] = ImageProcessing.getBlue(rgb);
+			patternSums[0] += reds[k];
+			patternSums[1] += greens[k];
+			patternSums[2] += blues[k];
+		}
+		
+		//columnSums[c][x] : sum of channel c over the patternHeight image rows of the current output row, at column x
+		long[][] columnSums = new long[3][imageWidth];
+		for(int i = 0; i < patternHeight; i++) {
+			addRow(columnSums, image[i], 1);
+		}
+		long[] windowSums = new long[3];
 		
-		if(strategy.equals("wrap")) {
-			for(int i = 0; i < imageHeight; i++) {
-				for(int j = 0; j < imageWidth; j++) {
-					matrix[i][j] += meanAbsoluteErrorWrap(i, j, pattern, image); //see implementation just below
+		TopK best = new TopK(n, true);
+		//A window can only be kept if its SAD is strictly smaller than limit : first because of maxDistance, then
+		//because of the worst kept window, since windows are visited in row-major order and the first one wins
+		//in case of equality. Distances are summed as integer SAD (see SadKernel), and only divided when a
+		//window is kept, so that comparisons with the limit are exact.
+		long limit = maxDistance*count < Long.MAX_VALUE ? (long) Math.floor(maxDistance*count) + 1 : Long.MAX_VALUE;
+		for(int i = 0; i < image.length-patternHeight+1; i++) {
+			if(i > 0) {
+				addRow(columnSums, image[i-1], -1);
+				addRow(columnSums, image[i+patternHeight-1], 1);
+			}
+			for(int c = 0; c < 3; c++) {
+				windowSums[c] = 0;
+				for(int x = 0; x < patternWidth-1; x++) {
+					windowSums[c] += columnSums[c][x];
+				}
+			}
+			for(int j = 0; j < imageWidth-patternWidth+1; j++) {
+				long bound = 0;
+				for(int c = 0; c < 3; c++) {
+					windowSums[c] += columnSums[c][j+patternWidth-1];
+					bound += Math.abs(windowSums[c] - patternSums[c]);
 				}
+				if(bound < limit) {
+					long sad = 0;
+					//The limit is only checked once per block of pixels, to keep the inner loop simple
+					for(int start = 0; start < pixels && sad < limit; start += ABANDON_BLOCK) {
+						int end = Math.min(pixels, start + ABANDON_BLOCK);
+						for(int k = start; k < end; k++) {
+							int rgb = image[i+rows[k]][j+cols[k]];
+							sad += Math.abs(reds[k] - ImageProcessing.getRed(rgb))
+									+ Math.abs(greens[k] - ImageProcessing.getGreen(rgb))
+									+ Math.abs(blues[k] - ImageProcessing.getBlue(rgb));
+						}
+					}
+					if(sad < limit && best.offer(sad / count, i, j) && best.isFull()) {
+						limit = Math.min(limit, Math.round(best.worst() * count));
+					}
+				}
+				for(int c = 0; c < 3; c++) {
+					windowSums[c] -= columnSums[c][j];
+				}
+			}
+		}
+		return best;
+	}
+	
+	//Early abandon search without distance limit, see findNBest
+	static TopK nBest(int n, int[][] pattern, int[][] image) {
+		return nBest(n, pattern, image, Double.POSITIVE_INFINITY);
+	}
+	
+	//Adds (sign = 1) or removes (sign = -1) the channels of an image row to the column sums
+	private static void addRow(long[][] columnSums, int[] row, int sign) {
+		for(int x = 0; x < row.length; x++) {
+			columnSums[0][x] += sign * ImageProcessing.getRed(row[x]);
+			columnSums[1][x] += sign * ImageProcessing.getGreen(row[x]);
+			columnSums[2][x] += sign * ImageProcessing.getBlue(row[x]);
+		}
+	}
+	
+	//Number of pattern pixels summed between two checks of the early abandon threshold
+	private static final int ABANDON_BLOCK = 16;
+	
+	//Indices (row*width + col) of the pattern pixels, sorted by decreasing distance to the mean color of the pattern
+	private static int[] distinctiveOrder(int[][] pattern) {
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
+		double[] mean = new double[3];
+		for(int i = 0; i < patternHeight; i++) {
+			for(int j = 0; j < patternWidth; j++) {
+				mean[0] += ImageProcessing.getRed(pattern[i][j]);
+				mean[1] += ImageProcessing.getGreen(pattern[i][j]);
+				mean[2] += ImageProcessing.getBlue(pattern[i][j]);
 			}
 		}
-		else { // strategy.equals("mirror")
-			for(int i = 0; i < imageHeight; i++) {
-				for(int j = 0; j < imageWidth; j++) {
-					matrix[i][j] += meanAbsoluteErrorMirror(i, j, pattern, image);
+		for(int c = 0; c < 3; c++) {
+			mean[c] /= patternHeight*patternWidth;
+		}
+		
+		//Sort keys : distinctiveness in the high bits, index in the low ones, so that a plain sort of primitives is enough
+		long[] keys = new long[patternHeight*patternWidth];
+		for(int i = 0; i < patternHeight; i++) {
+			for(int j = 0; j < patternWidth; j++) {
+				int rgb = pattern[i][j];
+				long distinctiveness = Math.round(Math.abs(ImageProcessing.getRed(rgb) - mean[0])
+						+ Math.abs(ImageProcessing.getGreen(rgb) - mean[1])
+						+ Math.abs(ImageProcessing.getBlue(rgb) - mean[2]));
+				keys[i*patternWidth + j] = ((765 - distinctiveness) << 32) | (i*patternWidth + j);
+			}
+		}
+		Arrays.sort(keys);
+		int[] order = new int[keys.length];
+		for(int k = 0; k < keys.length; k++) {
+			order[k] = (int) keys[k];
+		}
+		return order;
+	}
+	
+	/**
+	 * Parallel version of distanceMatrix : the rows of the matrix are split into bands computed
+	 * by a new pool of the given number of threads. The result is exactly the same as distanceMatrix.
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param parallelism : an integer, the number of threads to use (at least 1)
+	 * @return a 2D array of doubles, see distanceMatrix
+	 */
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, int parallelism) {
+		return parallelDistanceMatrix(pattern, image, null, null, parallelism);
+	}
+	
+	/**
+	 * Parallel version of distanceMatrix, running in a pool supplied (and owned) by the caller.
+	 * The result is exactly the same as distanceMatrix.
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param pool : the ForkJoinPool to run in
+	 * @return a 2D array of doubles, see distanceMatrix
+	 */
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, ForkJoinPool pool) {
+		return parallelDistanceMatrix(pattern, image, null, pool, 0);
+	}
+	
+	/**
+	 * BONUS
+	 * Parallel version of distanceMatrix with wrapping and mirroring strategies, using the given number of threads
+	 * @see #distanceMatrix(int[][], int[][], BorderStrategy, int)
+	 **/
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, String strategy, int parallelism) {
+		return distanceMatrix(pattern, image, BorderStrategy.fromName(strategy), parallelism);
+	}
+	
+	/**
+	 * BONUS
+	 * Parallel version of distanceMatrix with wrapping and mirroring strategies, running in the given pool
+	 * @see #distanceMatrix(int[][], int[][], BorderStrategy, ForkJoinPool)
+	 **/
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, String strategy, ForkJoinPool pool) {
+		return distanceMatrix(pattern, image, BorderStrategy.fromName(strategy), pool);
+	}
+	
+	/**
+	 * Parallel version of distanceMatrix with a border strategy, using the given number of threads.
+	 * The result is exactly the same as distanceMatrix(int[][], int[][], BorderStrategy).
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param strategy : the BorderStrategy defining the pixels beyond the borders
+	 * @param parallelism : an integer, the number of threads to use (at least 1)
+	 * @return a 2D array of doubles of the size of the image
+	 */
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, BorderStrategy strategy, int parallelism) {
+		return parallelDistanceMatrix(pattern, image, strategy, null, parallelism);
+	}
+	
+	/**
+	 * Parallel version of distanceMatrix with a border strategy, running in a pool supplied (and owned) by the caller.
+	 * The result is exactly the same as distanceMatrix(int[][], int[][], BorderStrategy).
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param strategy : the BorderStrategy defining the pixels beyond the borders
+	 * @param pool : the ForkJoinPool to run in
+	 * @return a 2D array of doubles of the size of the image
+	 */
+	public static double[][] distanceMatrix(int[][] pattern, int[][] image, BorderStrategy strategy, ForkJoinPool pool) {
+		return parallelDistanceMatrix(pattern, image, strategy, pool, 0);
+	}
+	
+	//strategy is null for the plain search, pool is null when a pool of parallelism threads has to be created
+	private static double[][] parallelDistanceMatrix(int[][] pattern, int[][] image, BorderStrategy strategy,
+			ForkJoinPool pool, int parallelism) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : without strategy, pattern must entirely fit at least once into the image
+		assert strategy != null || pattern.length <= image.length;
+		assert strategy != null || pattern[0].length <= image[0].length;
+		
+		//With a strategy, the plain search runs over the padded image, as in the sequential version
+		int[][] searched = strategy == null ? image : strategy.pad(image, pattern.length-1, pattern[0].length-1);
+		int height = searched.length-pattern.length+1;
+		int width = searched[0].length-pattern[0].length+1;
+		double[][] matrix = new double[height][width];
+		
+		//Each cell is computed by the same method as the sequential versions, hence the identical result
+		RowBands.Band band = (fromRow, toRow) -> {
+			for(int i = fromRow; i < toRow; i++) {
+				for(int j = 0; j < width; j++) {
+					matrix[i][j] = meanAbsoluteError(i, j, pattern, searched);
 				}
 			}
+		};
+		
+		if(pool != null) {
+			RowBands.run(height, band, pool);
+		}
+		else {
+			RowBands.run(height, band, parallelism);
 		}
+		return matrix;
+	}
+	
+	/**
+	 * Compute the mean squared error between a RGB pattern and every window of a RGB image
+	 * where the pattern fits entirely, using FFT correlations (see FourierCorrelation).
+	 * Unlike distanceMatrix, the cost does not depend on the size of the pattern,
+	 * which makes it the better choice for big patterns.
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @return a 2D array of doubles, containing for each position the mean (over the pixels of the
+	 * pattern) of the squared channel differences, averaged over the three channels (a double in [0, 255*255])
+	 */
+	public static double[][] squaredDistanceMatrix(int[][] pattern, int[][] image) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
 		
-		return matrix; 
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		double[][] correlation = FourierCorrelation.correlate(patternChannels(pattern), imageChannels(image));
+		return squaredDistances(correlation, pattern);
+	}
+	
+	/**
+	 * BONUS
+	 * squaredDistanceMatrix with a border strategy
+	 * @param strategy : a String, the name of a BorderStrategy ("wrap", "mirror", "clamp" or "constant")
+	 * @see #squaredDistanceMatrix(int[][], int[][], BorderStrategy)
+	 */
+	public static double[][] squaredDistanceMatrix(int[][] pattern, int[][] image, String strategy) {
+		return squaredDistanceMatrix(pattern, image, BorderStrategy.fromName(strategy));
+	}
+	
+	/**
+	 * squaredDistanceMatrix where the pattern may go beyond the right and bottom borders of the image.
+	 * With the wrapping strategy, the image is considered as periodic, which is exactly what the circular
+	 * FFT correlation computes : no padding is needed. The other strategies pad the image (see BorderStrategy).
+	 * @param pattern : an 2D array of integers, the RGB pattern to find (may be bigger than the image)
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param strategy : the BorderStrategy defining the pixels beyond the borders
+	 * @return a 2D array of doubles of the size of the image, see squaredDistanceMatrix
+	 */
+	public static double[][] squaredDistanceMatrix(int[][] pattern, int[][] image, BorderStrategy strategy) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		assert strategy != null;
+		
+		if(strategy != BorderStrategy.WRAP) {
+			return squaredDistanceMatrix(pattern, strategy.pad(image, pattern.length-1, pattern[0].length-1));
+		}
+		double[][] correlation = FourierCorrelation.correlateWrap(patternChannels(pattern), imageChannels(image));
+		return squaredDistances(correlation, pattern);
+	}
+	
+	//For each channel, sum((P - I)^2) = sum(P^2) + sum(I^2) - 2*sum(P*I). Both terms depending on the
+	//window are correlations : the pattern channels (times -2) with the image channels, and a pattern of ones
+	//with the sum of the squared image channels. They are all computed by a single FFT correlation.
+	private static double[][][] patternChannels(int[][] pattern) {
+		double[][][] channels = new double[4][pattern.length][pattern[0].length];
+		for(int i = 0; i < pattern.length; i++) {
+			for(int j = 0; j < pattern[0].length; j++) {
+				channels[0][i][j] = -2*ImageProcessing.getRed(pattern[i][j]);
+				channels[1][i][j] = -2*ImageProcessing.getGreen(pattern[i][j]);
+				channels[2][i][j] = -2*ImageProcessing.getBlue(pattern[i][j]);
+				channels[3][i][j] = 1;
+			}
+		}
+		return channels;
+	}
+	
+	private static double[][][] imageChannels(int[][] image) {
+		double[][][] channels = new double[4][image.length][image[0].length];
+		for(int i = 0; i < image.length; i++) {
+			for(int j = 0; j < image[0].length; j++) {
+				int red = ImageProcessing.getRed(image[i][j]);
+				int green = ImageProcessing.getGreen(image[i][j]);
+				int blue = ImageProcessing.getBlue(image[i][j]);
+				channels[0][i][j] = red;
+				channels[1][i][j] = green;
+				channels[2][i][j] = blue;
+				channels[3][i][j] = red*red + green*green + blue*blue;
+			}
+		}
+		return channels;
+	}
+	
+	//Adds the constant sum(P^2) to the correlation, and divides by the number of channel values
+	private static double[][] squaredDistances(double[][] correlation, int[][] pattern) {
+		double patternSquareSum = 0;
+		for(int i = 0; i < pattern.length; i++) {
+			for(int j = 0; j < pattern[0].length; j++) {
+				int red = ImageProcessing.getRed(pattern[i][j]);
+				int green = ImageProcessing.getGreen(pattern[i][j]);
+				int blue = ImageProcessing.getBlue(pattern[i][j]);
+				patternSquareSum += red*red + green*green + blue*blue;
+			}
+		}
+		double count = 3.0 * pattern.length * pattern[0].length;
+		for(int i = 0; i < correlation.length; i++) {
+			for(int j = 0; j < correlation[0].length; j++) {
+				double error = (correlation[i][j] + patternSquareSum) / count;
+				//FFT rounding errors can make a perfect match slightly negative
+				correlation[i][j] = error > 0 ? error : 0;
+			}
+		}
+		return correlation;
 	}
 	
 	//This method is very similar to meanAbsoluteError, just notice the modulo operator when calling pixelAbsoluteError
@@ -208,35 +954,12 @@ public class DistanceBasedSearch {
 		
 		double meanAbsErr = 0;
 		
-		//Each case of exceeding the image boundaries is assessed, because the formula given
-		// i' = n-2-(i%n) is valid only if i>=n
-		//(when inside of the boundaries, we just access the pixels at their normal indexes,
-		// using i+row or j+col)
+		//The given formula i' = n-2-(i%n) only holds for n <= i < 2n-1 : beyond, it gives wrong
+		//(even negative) indexes. BorderStrategy.MIRROR keeps on reflecting, whatever the overhang
 		for(int i = 0; i < patternHeight; i++) {
-			if(i+row < imageHeight) {
-				//pattern fits vertically in the image
-				for(int j = 0; j < patternWidth; j++){
-					if(j+col < imageWidth) {
-						//pattern fits horizontally in the image
-						meanAbsErr += pixelAbsoluteError(pattern[i][j], image[i+row][j+col]);
-					}
-					else {
-						//pattern exceeds image in width
-						meanAbsErr += pixelAbsoluteError(pattern[i][j], image[i+row][imageWidth-2-(j+col)%imageWidth]);
-					}
-				}
-			}
-			else {
-				//pattern exceeds image height
-				for(int j = 0; j < patternWidth; j++) {
-					if(j+col < imageWidth) {
-						//pattern fits horizontally in the image
-						meanAbsErr += pixelAbsoluteError(pattern[i][j], image[imageHeight-2-(i+row)%imageHeight][j+col]);
-					}
-					else {
-						meanAbsErr += pixelAbsoluteError(pattern[i][j], image[imageHeight-2-(i+row)%imageHeight][imageWidth-2-(j+col)%imageWidth]);
-					}
-				}
+			int[] imageRow = image[BorderStrategy.MIRROR.index(i+row, imageHeight)];
+			for(int j = 0; j < patternWidth; j++) {
+				meanAbsErr += pixelAbsoluteError(pattern[i][j], imageRow[BorderStrategy.MIRROR.index(j+col, imageWidth)]);
 			}
 		}
 		
@@ -0,0 +1,240 @@
+package main;
+
+/**
+ * Cross-correlation of a pattern with an image using the Fast Fourier Transform.
+ * The correlation sum(P(i, j)*I(r+i, c+j)) is computed for every offset (r, c) at once,
+ * in O(HW log HW) instead of O(HW*hw) : the bigger the pattern, the bigger the gain.
+ * Everything is written in plain Java (iterative radix-2 transform), sizes are padded to powers of two.
+ */
+public final class FourierCorrelation {
+
+	/**
+	 * Computes, for each position (r, c) where the pattern fits entirely in the image,
+	 * the correlation sum(P(i, j)*I(r+i, c+j)) over the whole pattern
+	 * @param pattern : a 2D array of doubles
+	 * @param image : a 2D array of doubles, at least as big as the pattern
+	 * @return a 2D array of doubles of size (H-h+1)x(W-w+1)
+	 */
+	public static double[][] correlate(double[][] pattern, double[][] image) {
+		return correlate(new double[][][] {pattern}, new double[][][] {image});
+	}
+
+	/**
+	 * Multi-channel version of correlate : computes for each position the sum over all channels k
+	 * of sum(patterns[k](i, j)*images[k](r+i, c+j)).
+	 * The products are summed in the frequency domain, so only one inverse transform is needed.
+	 * @param patterns : an array of 2D arrays of doubles, all of the same size
+	 * @param images : an array of 2D arrays of doubles, all of the same size, one per pattern channel
+	 * @return a 2D array of doubles of size (H-h+1)x(W-w+1)
+	 */
+	public static double[][] correlate(double[][][] patterns, double[][][] images) {
+		//Requirement : one image channel per pattern channel
+		assert patterns != null && images != null;
+		assert patterns.length > 0;
+		assert patterns.length == images.length;
+
+		int patternHeight = patterns[0].length;
+		int patternWidth = patterns[0][0].length;
+		int imageHeight = images[0].length;
+		int imageWidth = images[0][0].length;
+
+		//Requirement : pattern must entirely fit at least once into the image
+		assert patternHeight <= imageHeight;
+		assert patternWidth <= imageWidth;
+
+		//The transform is circular : with a size at least as big as the image, the offsets where
+		//the pattern fits entirely never wrap around, so they hold the plain (linear) correlation
+		int rows = nextPowerOfTwo(imageHeight);
+		int cols = nextPowerOfTwo(imageWidth);
+
+		double[] sumRe = new double[rows*cols];
+		double[] sumIm = new double[rows*cols];
+		for(int k = 0; k < patterns.length; k++) {
+			double[] imageRe = embed(images[k], rows, cols);
+			double[] imageIm = new double[rows*cols];
+			double[] patternRe = embed(patterns[k], rows, cols);
+			double[] patternIm = new double[rows*cols];
+			transform(imageRe, imageIm, rows, cols, false);
+			transform(patternRe, patternIm, rows, cols, false);
+
+			//Correlation theorem : FFT(corr(P, I)) = FFT(I) * conj(FFT(P))
+			for(int n = 0; n < rows*cols; n++) {
+				sumRe[n] += imageRe[n]*patternRe[n] + imageIm[n]*patternIm[n];
+				sumIm[n] += imageIm[n]*patternRe[n] - imageRe[n]*patternIm[n];
+			}
+		}
+		transform(sumRe, sumIm, rows, cols, true);
+
+		double[][] correlation = new double[imageHeight-patternHeight+1][imageWidth-patternWidth+1];
+		for(int r = 0; r < correlation.length; r++) {
+			for(int c = 0; c < correlation[0].length; c++) {
+				correlation[r][c] = sumRe[r*cols + c];
+			}
+		}
+		return correlation;
+	}
+
+	/**
+	 * Circular version of correlate : the image is considered as periodic, so the result
+	 * contains sum(P(i, j)*I((r+i)%H, (c+j)%W)) for every pixel (r, c) of the image.
+	 * The pattern may be bigger than the image.
+	 * @param patterns : an array of 2D arrays of doubles, all of the same size
+	 * @param images : an array of 2D arrays of doubles, all of the same size, one per pattern channel
+	 * @return a 2D array of doubles of size HxW
+	 */
+	public static double[][] correlateWrap(double[][][] patterns, double[][][] images) {
+		//Requirement : one image channel per pattern channel
+		assert patterns != null && images != null;
+		assert patterns.length > 0;
+		assert patterns.length == images.length;
+
+		int imageHeight = images[0].length;
+		int imageWidth = images[0][0].length;
+
+		//A pattern bigger than the image is first folded onto an image-sized grid (values landing on the
+		//same pixel are added), then the image is extended periodically so that a plain correlation
+		//over the extended image gives the circular correlation.
+		double[][][] folded = new double[patterns.length][][];
+		double[][][] extended = new double[images.length][][];
+		for(int k = 0; k < patterns.length; k++) {
+			folded[k] = fold(patterns[k], imageHeight, imageWidth);
+			extended[k] = wrapExtend(images[k], folded[k].length - 1, folded[k][0].length - 1);
+		}
+		return correlate(folded, extended);
+	}
+
+	/**
+	 * Folds a matrix onto a grid of at most maxHeight x maxWidth, adding values at positions
+	 * that are equal modulo the grid size
+	 */
+	static double[][] fold(double[][] matrix, int maxHeight, int maxWidth) {
+		int height = Math.min(matrix.length, maxHeight);
+		int width = Math.min(matrix[0].length, maxWidth);
+		if(height == matrix.length && width == matrix[0].length) {
+			return matrix;
+		}
+		double[][] folded = new double[height][width];
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[0].length; j++) {
+				folded[i % height][j % width] += matrix[i][j];
+			}
+		}
+		return folded;
+	}
+
+	/**
+	 * Extends a matrix periodically by the given number of rows (at the bottom) and columns (on the right)
+	 */
+	static double[][] wrapExtend(double[][] matrix, int extraRows, int extraCols) {
+		int height = matrix.length;
+		int width = matrix[0].length;
+		double[][] extended = new double[height + extraRows][width + extraCols];
+		for(int i = 0; i < extended.length; i++) {
+			double[] source = matrix[i % height];
+			for(int j = 0; j < extended[0].length; j++) {
+				extended[i][j] = source[j % width];
+			}
+		}
+		return extended;
+	}
+
+	// Copies the matrix in the upper left corner of a rows x cols zero-filled flat array
+	private static double[] embed(double[][] matrix, int rows, int cols) {
+		double[] flat = new double[rows*cols];
+		for(int i = 0; i < matrix.length; i++) {
+			System.arraycopy(matrix[i], 0, flat, i*cols, matrix[i].length);
+		}
+		return flat;
+	}
+
+	static int nextPowerOfTwo(int n) {
+		int power = 1;
+		while(power < n) {
+			power <<= 1;
+		}
+		return power;
+	}
+
+	// 2D transform in place : every row, then every column
+	private static void transform(double[] re, double[] im, int rows, int cols, boolean inverse) {
+		double[][] rowTwiddles = twiddles(cols, inverse);
+		double[][] colTwiddles = twiddles(rows, inverse);
+		double[] rowRe = new double[cols];
+		double[] rowIm = new double[cols];
+		for(int i = 0; i < rows; i++) {
+			System.arraycopy(re, i*cols, rowRe, 0, cols);
+			System.arraycopy(im, i*cols, rowIm, 0, cols);
+			fft(rowRe, rowIm, rowTwiddles);
+			System.arraycopy(rowRe, 0, re, i*cols, cols);
+			System.arraycopy(rowIm, 0, im, i*cols, cols);
+		}
+		double[] colRe = new double[rows];
+		double[] colIm = new double[rows];
+		for(int j = 0; j < cols; j++) {
+			for(int i = 0; i < rows; i++) {
+				colRe[i] = re[i*cols + j];
+				colIm[i] = im[i*cols + j];
+			}
+			fft(colRe, colIm, colTwiddles);
+			for(int i = 0; i < rows; i++) {
+				re[i*cols + j] = colRe[i];
+				im[i*cols + j] = colIm[i];
+			}
+		}
+		if(inverse) {
+			double scale = 1.0 / (rows*cols);
+			for(int n = 0; n < rows*cols; n++) {
+				re[n] *= scale;
+				im[n] *= scale;
+			}
+		}
+	}
+
+	// Twiddle factors exp(-+2*pi*i*k/n) for k < n/2, computed directly rather than by recurrence
+	// to keep the rounding errors low. twiddles[0] holds the cosines, twiddles[1] the sines
+	private static double[][] twiddles(int n, boolean inverse) {
+		double[][] twiddles = new double[2][Math.max(n/2, 1)];
+		for(int k = 0; k < n/2; k++) {
+			twiddles[0][k] = Math.cos(2*Math.PI*k/n);
+			twiddles[1][k] = (inverse ? 1 : -1) * Math.sin(2*Math.PI*k/n);
+		}
+		return twiddles;
+	}
+
+	// Iterative in-place radix-2 Cooley-Tukey transform (length must be a power of two), not normalized
+	private static void fft(double[] re, double[] im, double[][] twiddles) {
+		double[] cos = twiddles[0];
+		double[] sin = twiddles[1];
+		int n = re.length;
+		//Bit reversal permutation
+		for(int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for(; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if(i < j) {
+				double t = re[i]; re[i] = re[j]; re[j] = t;
+				t = im[i]; im[i] = im[j]; im[j] = t;
+			}
+		}
+		//Butterflies
+		for(int length = 2; length <= n; length <<= 1) {
+			int step = n/length;
+			for(int start = 0; start < n; start += length) {
+				for(int k = 0; k < length/2; k++) {
+					int a = start + k;
+					int b = a + length/2;
+					double wRe = cos[k*step];
+					double wIm = sin[k*step];
+					double bRe = re[b]*wRe - im[b]*wIm;
+					double bIm = re[b]*wIm + im[b]*wRe;
+					re[b] = re[a] - bRe;
+					im[b] = im[a] - bIm;
+					re[a] += bRe;
+					im[a] += bIm;
+				}
+			}
+		}
+	}
+}
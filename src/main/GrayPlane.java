@@ -0,0 +1,108 @@
+package main;
+
+/**
+ * A compact gray-scale image : each pixel is stored as the integer sum red + green + blue (between 0 and 765)
+ * in a short, that is 3 times its gray level as given by ImageProcessing.getGray.
+ * Nothing is lost compared to a double gray-scale image (the gray level is exactly sum / 3),
+ * but a pixel takes 2 bytes instead of 8, and sums of pixels or of products of pixels are exact integers.
+ * Pixels are stored row after row in a single array, as in PackedImage.
+ */
+public final class GrayPlane {
+
+	//Biggest value of a pixel (3*255)
+	public static final int MAX_SUM = 765;
+
+	private final short[] data;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Creates a new black plane
+	 * @param width : an integer, the width of the plane
+	 * @param height : an integer, the height of the plane
+	 */
+	public GrayPlane(int width, int height) {
+		//Requirement : plane should contain at least 1 pixel
+		assert width > 0 && height > 0;
+
+		this.data = new short[width*height];
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * @param row : an integer, the row-coordinate of the pixel
+	 * @param col : an integer, the column-coordinate of the pixel
+	 * @return an integer between 0 and MAX_SUM, the sum red + green + blue of the pixel
+	 */
+	public int get(int row, int col) {
+		return data[index(row, col)];
+	}
+
+	/**
+	 * @param row : an integer, the row-coordinate of the pixel
+	 * @param col : an integer, the column-coordinate of the pixel
+	 * @param sum : an integer between 0 and MAX_SUM, the sum red + green + blue of the pixel
+	 */
+	public void set(int row, int col, int sum) {
+		assert sum >= 0 && sum <= MAX_SUM;
+		data[index(row, col)] = (short) sum;
+	}
+
+	/**
+	 * @param row : an integer, the row-coordinate of the pixel
+	 * @param col : an integer, the column-coordinate of the pixel
+	 * @return a double between 0 and 255, the gray level of the pixel (same value as ImageProcessing.getGray)
+	 */
+	public double gray(int row, int col) {
+		return ImageProcessing.sumToGray(get(row, col));
+	}
+
+	/**
+	 * Converts the plane to a double gray-scale image
+	 * @return a HxW double array, the same as ImageProcessing.toGray on the original image
+	 */
+	public double[][] toArray() {
+		double[][] gray = new double[height][width];
+		for(int i = 0; i < height; i++) {
+			for(int j = 0; j < width; j++) {
+				gray[i][j] = ImageProcessing.sumToGray(data[i*width + j]);
+			}
+		}
+		return gray;
+	}
+
+	/**
+	 * @param row : an integer, the row-coordinate of the pixel
+	 * @param col : an integer, the column-coordinate of the pixel
+	 * @return an integer, the index of the pixel in data()
+	 */
+	public int index(int row, int col) {
+		//Requirement : pixel is inside the plane
+		assert row >= 0 && row < height;
+		assert col >= 0 && col < width;
+
+		return row*width + col;
+	}
+
+	/**
+	 * @return the backing array (not a copy), pixel (row, col) being at index row*width + col
+	 */
+	public short[] data() {
+		return data;
+	}
+
+	/**
+	 * @return an integer, the width of the plane
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * @return an integer, the height of the plane
+	 */
+	public int height() {
+		return height;
+	}
+}
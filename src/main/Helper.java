@@ -1,10 +1,11 @@
 package main;
 import javax.imageio.ImageIO;
-import javax.swing.*;
-import java.awt.*;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.IOException;
 
@@ -48,31 +49,145 @@ public final class Helper {
 	}
 
 	// Convert specified BufferedImage into an array
+	// The pixels are read from the raster in bulk (see view) : getRGB(col, row) goes through the
+	// color model for every pixel, and decoding took longer than the search on big images
 	private static int[][] fromBufferedImage(BufferedImage image) {
 		int width = image.getWidth();
 		int height = image.getHeight();
 		int[][] array = new int[height][width];
-		for (int row = 0; row < height; ++row) {
-			for (int col = 0; col < width; ++col) {
-				array[row][col] = image.getRGB(col, row) & 0xffffffff;
+		ImageView view = view(image);
+		if (view instanceof PackedImage) {
+			PackedImage packed = (PackedImage) view;
+			//TYPE_INT_RGB stores no alpha, getRGB returns it opaque
+			int alpha = image.getType() == BufferedImage.TYPE_INT_RGB ? 0xff000000 : 0;
+			for (int row = 0; row < height; ++row) {
+				System.arraycopy(packed.data(), packed.index(row, 0), array[row], 0, width);
+				if (alpha != 0) {
+					for (int col = 0; col < width; ++col) {
+						array[row][col] |= alpha;
+					}
+				}
+			}
+		}
+		else {
+			for (int row = 0; row < height; ++row) {
+				for (int col = 0; col < width; ++col) {
+					array[row][col] = view.get(row, col);
+				}
 			}
 		}
 		return array;
 	}
 
 	// Convert specified array into a BufferedImage
+	// The rows are copied in bulk into the int raster of a TYPE_INT_RGB image (which ignores the alpha bits)
 	private static BufferedImage toBufferedImage(int[][] array) {
 		int width = array[0].length;
 		int height = array.length;
 		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 		for (int row = 0; row < height; ++row) {
-			for (int col = 0; col < width; ++col) {
-				image.setRGB(col, row, array[row][col] | 0xff000000);
+			System.arraycopy(array[row], 0, pixels, row*width, width);
+		}
+		return image;
+	}
+
+	// Convert specified BufferedImage into a packed image
+	// The values are the ones of getRGB : the rows of an int raster are copied in bulk, opaque for TYPE_INT_RGB
+	private static PackedImage toPackedImage(BufferedImage image) {
+		ImageView view = view(image);
+		if (view instanceof PackedImage) {
+			PackedImage raster = (PackedImage) view;
+			PackedImage packed = new PackedImage(raster.width(), raster.height());
+			int alpha = image.getType() == BufferedImage.TYPE_INT_RGB ? 0xff000000 : 0;
+			int[] pixels = packed.data();
+			for (int row = 0; row < raster.height(); ++row) {
+				System.arraycopy(raster.data(), raster.index(row, 0), pixels, row*raster.width(), raster.width());
+				if (alpha != 0) {
+					for (int n = row*raster.width(); n < (row+1)*raster.width(); ++n) {
+						pixels[n] |= alpha;
+					}
+				}
 			}
+			return packed;
+		}
+		if (view instanceof ByteRasterImage) {
+			return ((ByteRasterImage) view).toPackedImage();
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		PackedImage packed = new PackedImage(width, height);
+		image.getRGB(0, 0, width, height, packed.data(), 0, width);
+		return packed;
+	}
+
+	// Convert specified packed image into a BufferedImage
+	private static BufferedImage toBufferedImage(PackedImage packed) {
+		BufferedImage image = new BufferedImage(packed.width(), packed.height(), BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		for (int row = 0; row < packed.height(); ++row) {
+			System.arraycopy(packed.data(), packed.index(row, 0), pixels, row*packed.width(), packed.width());
 		}
 		return image;
 	}
 
+	/**
+	 * Gives read access to the pixels of a BufferedImage, straight from its raster when possible (no copy) :
+	 * a PackedImage over the int array of TYPE_INT_RGB / TYPE_INT_ARGB images (the alpha bits of TYPE_INT_RGB
+	 * are 0, not 255 as with getRGB), a ByteRasterImage over the byte array of TYPE_3BYTE_BGR / TYPE_4BYTE_ABGR
+	 * images (what ImageIO gives for most PNG and JPEG files). Other types are copied with a bulk getRGB.
+	 * Writing into the image changes the view, and the other way round for a PackedImage.
+	 * @param image : a BufferedImage
+	 * @return an ImageView of the image
+	 */
+	public static ImageView view(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Raster raster = image.getRaster();
+		switch (hasView(image) ? image.getType() : BufferedImage.TYPE_CUSTOM) {
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB: {
+			DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+			SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+			return new PackedImage(buffer.getData(), buffer.getOffset(), width, height, model.getScanlineStride());
+		}
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR: {
+			DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+			ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+			int[] bands = model.getBandOffsets();
+			return new ByteRasterImage(buffer.getData(), buffer.getOffset(), width, height,
+					model.getScanlineStride(), model.getPixelStride(), bands[0], bands[1], bands[2],
+					bands.length > 3 ? bands[3] : -1);
+		}
+		default:
+			PackedImage packed = new PackedImage(width, height);
+			image.getRGB(0, 0, width, height, packed.data(), 0, width);
+			return packed;
+		}
+	}
+
+	/**
+	 * @param image : a BufferedImage
+	 * @return a boolean, true if view(image) reads the raster of the image itself, false if it is a copy
+	 */
+	public static boolean hasView(BufferedImage image) {
+		Raster raster = image.getRaster();
+		//A raster translated inside a bigger one (sub-image) is not handled
+		if(raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+			return false;
+		}
+		switch (image.getType()) {
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	/**
 	 * Reads specified image from disk.
 	 * @param path : a String, the Input file path
@@ -91,6 +206,61 @@ public final class Helper {
 		}
 	}
 
+	/**
+	 * Reads specified image from disk into a packed image.
+	 * @param path : a String, the Input file path
+	 * @return a PackedImage of packed RGB colors, or <code>null</code> on failure
+	 * @see #read
+	 */
+	public static PackedImage readPacked(String path) {
+		try {
+			BufferedImage image = ImageIO.read(new File(path));
+			return toPackedImage(image);
+		} catch (IOException e) {
+			System.out.println(e);
+			System.out.println("Path: " + path);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads specified image from disk, and gives access to its pixels without converting them (see view).
+	 * @param path : a String, the Input file path
+	 * @return an ImageView of the decoded image, or <code>null</code> on failure
+	 * @see #read
+	 */
+	public static ImageView readView(String path) {
+		try {
+			BufferedImage image = ImageIO.read(new File(path));
+			return view(image);
+		} catch (IOException e) {
+			System.out.println(e);
+			System.out.println("Path: " + path);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads specified image through the default PixelCache : the image is decoded on the first call only,
+	 * later calls (even from other runs) map its raw pixels in memory, which is almost instant.
+	 * @param path : a String, the Input file path
+	 * @return a MappedImage of packed RGB colors, or <code>null</code> on failure
+	 * @see #read
+	 * @see PixelCache
+	 */
+	public static MappedImage readCached(String path) {
+		try {
+			return PixelCache.defaultCache().open(path);
+		} catch (IOException e) {
+			System.out.println(e);
+			System.out.println("Path: " + path);
+			System.exit(1);
+			return null;
+		}
+	}
+
 	/**
 	 * Writes specified image to disk.
 	 * @param path : a String, the Output file path
@@ -118,57 +288,33 @@ public final class Helper {
 
 	}
 
+	/**
+	 * Writes specified packed image to disk.
+	 * @param path : a String, the Output file path
+	 * @param image : a PackedImage of packed RGB colors
+	 * @return {@code true} if write operation was successful, {@code false} otherwise
+	 * @see #readPacked
+	 */
+	public static boolean write(String path, PackedImage image) {
+		int index = path.lastIndexOf('.');
+		if (index < 0)
+			return false;
+		String extension = path.substring(index + 1);
+		try {
+			return ImageIO.write(toBufferedImage(image), extension, new File(path));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Shows specified image in a window.
+	 * The window itself is made by Display, so that reading and writing images never loads Swing.
 	 * @param array : a HxW integer array of packed RGB colors
 	 * @param title : a String, the title to be displayed
 	 */
 	public static void show(int[][] array, String title) {
-
-		// Convert array to Java image
-		final BufferedImage image = toBufferedImage(array);
-
-		// Create a panel to render this image
-		@SuppressWarnings("serial")
-		JPanel panel = new JPanel() {
-			@Override
-			protected void paintComponent(Graphics g) {
-				super.paintComponent(g);
-				g.drawImage(image, 0, 0, Math.max(getWidth(), 100), Math.max(getHeight(), 100), null, null);
-			}
-		};
-
-		// Create a frame to hold this panel
-		final JFrame frame = new JFrame(title);
-		frame.add(panel);
-        frame.getContentPane().setPreferredSize(new Dimension(Math.max(image.getWidth(), 300), Math.max(image.getHeight(), 300)));
-		frame.pack();
-
-		// Register closing event
-		frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-		frame.addWindowListener(new WindowAdapter() {
-			@Override
-			public void windowClosing(WindowEvent e) {
-				frame.setVisible(false);
-				synchronized (frame) {
-					frame.notifyAll();
-				}
-			}
-		});
-
-		// Show this frame
-		frame.setVisible(true);
-
-		// Wait for close operation
-		try {
-			synchronized (frame) {
-				while (frame.isVisible())
-					frame.wait();
-			}
-		} catch (InterruptedException e) {
-			// Empty on purpose
-		}
-		frame.dispose();
+		Display.show(toBufferedImage(array), title);
 	}
 
 }
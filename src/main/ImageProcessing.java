@@ -1,6 +1,15 @@
 package main;
 public final class ImageProcessing {
 	
+	//GRAY_LEVELS[sum] = sum/3.0 for every possible sum red + green + blue (0 to 765) :
+	//converting a pixel to gray is then a table lookup instead of a division
+	private static final double[] GRAY_LEVELS = new double[GrayPlane.MAX_SUM + 1];
+	static {
+		for(int sum = 0; sum < GRAY_LEVELS.length; sum++) {
+			GRAY_LEVELS[sum] = sum/3.0;
+		}
+	}
+	
     /**
      * Returns red component from given packed color.
      * @param rgb : a 32-bits RGB color
@@ -48,11 +57,27 @@ public final class ImageProcessing {
      * @see #getRGB(int)
      */
     public static double getGray(int rgb) {
-    		int red = getRed(rgb);
-		int green = getGreen(rgb);
-		int blue = getBlue(rgb);
-		
-		return ((red + green + blue)/3.0);
+    		return GRAY_LEVELS[getGraySum(rgb)];
+    }
+
+    /**
+     * Returns the sum of red, green and blue components from given packed color, that is 3 times its gray level.
+     * @param rgb : 32-bits RGB color
+     * @return an integer between 0 and 765
+     * @see #getGray(int)
+     */
+    public static int getGraySum(int rgb) {
+		return ((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff);
+    }
+
+    /**
+     * Returns the gray level of a sum of red, green and blue components, as stored in a GrayPlane.
+     * @param sum : an integer between 0 and 765
+     * @return a double between 0 and 255, sum/3 (read from a table)
+     * @see #getGraySum(int)
+     */
+    public static double sumToGray(int sum) {
+		return GRAY_LEVELS[sum];
     }
 
     /**
@@ -162,6 +187,233 @@ public final class ImageProcessing {
     	return normalizedMatrix;
     }
     
+    /**
+     * Single precision version of toGray : half the memory of a double gray-scale image,
+     * for values (multiples of 1/3 between 0 and 255) that do not need more precision.
+     * @param image : a HxW integer array
+     * @return a HxW float array
+     * @see #toGray(int[][])
+     */
+    public static float[][] toGrayFloat(int[][] image) {
+		//Requirement : image should contain at least 1 pixel
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		float[][] grayImage = new float[image.length][image[0].length];
+		for(int i = 0; i < image.length; i++) {
+			for(int j = 0; j < image[i].length; j++) {
+				int rgb = image[i][j];
+				grayImage[i][j] = (getRed(rgb) + getGreen(rgb) + getBlue(rgb)) / 3f;
+			}
+		}
+		return grayImage;
+    }
+
+    /**
+     * Single precision version of matrixToRGBImage
+     * @param matrix : the arbitrary 2D float array to convert into integer
+     * @param min : a double, the minimum value the matrix could theoretically contains
+     * @param max : a double, the maximum value the matrix could theoretically contains
+     * @return an 2D integer array, containing a RGB mapping of the matrix 
+     * @see #matrixToRGBImage(double[][], double, double)
+     */
+    public static int[][] matrixToRGBImage(float[][] matrix, double min, double max) {
+		//Requirement : matrix should contain at least one element
+		assert matrix != null;
+		assert matrix.length > 0;
+		assert matrix[0].length > 0;
+		
+		int[][] image = new int[matrix.length][matrix[0].length];
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[i].length; j++) {
+				image[i][j] = getRGB((int)Math.round(((matrix[i][j] - min)/(max - min))*255));
+			}
+		}
+		return image;
+    }
+
+    /**
+     * Converts packed RGB image to gray-scale packed matrix.
+     * @param image : a PackedImage
+     * @return a PackedMatrix of the same size
+     * @see #toGray(int[][])
+     */
+    public static PackedMatrix toGray(PackedImage image) {
+		assert image != null;
+		
+		PackedMatrix grayImage = new PackedMatrix(image.width(), image.height());
+		int[] pixels = image.data();
+		double[] gray = grayImage.data();
+		for(int i = 0; i < image.height(); i++) {
+			int from = image.index(i, 0);
+			int to = grayImage.index(i, 0);
+			for(int j = 0; j < image.width(); j++) {
+				gray[to + j] = getGray(pixels[from + j]);
+			}
+		}
+		return grayImage;
+    }
+
+    /**
+     * Converts gray-scale packed matrix to packed RGB image.
+     * @param gray : a PackedMatrix
+     * @return a PackedImage of the same size
+     * @see #toRGB(double[][])
+     */
+    public static PackedImage toRGB(PackedMatrix gray) {
+		assert gray != null;
+		
+		PackedImage rgbImage = new PackedImage(gray.width(), gray.height());
+		for(int i = 0; i < gray.height(); i++) {
+			for(int j = 0; j < gray.width(); j++) {
+				rgbImage.set(i, j, getRGB(gray.get(i, j)));
+			}
+		}
+		return rgbImage;
+    }
+
+    /**
+     * Packed version of matrixToRGBImage
+     * @param matrix : the arbitrary PackedMatrix to convert into integer
+     * @param min : a double, the minimum value the matrix could theoretically contains
+     * @param max : a double, the maximum value the matrix could theoretically contains
+     * @return a PackedImage, containing a RGB mapping of the matrix 
+     * @see #matrixToRGBImage(double[][], double, double)
+     */
+    public static PackedImage matrixToRGBImage(PackedMatrix matrix, double min, double max) {
+		assert matrix != null;
+		
+		PackedImage image = new PackedImage(matrix.width(), matrix.height());
+		for(int i = 0; i < matrix.height(); i++) {
+			for(int j = 0; j < matrix.width(); j++) {
+				image.set(i, j, getRGB((int)Math.round(((matrix.get(i, j) - min)/(max - min))*255)));
+			}
+		}
+		return image;
+    }
+    
+    /**
+     * Converts packed RGB image to a compact gray-scale plane (2 bytes per pixel instead of 8, no division).
+     * @param image : a HxW integer array
+     * @return a GrayPlane of the same size
+     * @see #toGray(int[][])
+     */
+    public static GrayPlane toGrayPlane(int[][] image) {
+		//Requirement : image should contain at least 1 pixel
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		GrayPlane plane = new GrayPlane(image[0].length, image.length);
+		short[] sums = plane.data();
+		for(int i = 0; i < image.length; i++) {
+			int[] row = image[i];
+			int start = i*row.length;
+			for(int j = 0; j < row.length; j++) {
+				sums[start + j] = (short) getGraySum(row[j]);
+			}
+		}
+		return plane;
+    }
+
+    /**
+     * Packed version of toGrayPlane
+     * @param image : a PackedImage
+     * @return a GrayPlane of the same size
+     * @see #toGrayPlane(int[][])
+     */
+    public static GrayPlane toGrayPlane(PackedImage image) {
+		assert image != null;
+		
+		GrayPlane plane = new GrayPlane(image.width(), image.height());
+		int[] pixels = image.data();
+		short[] sums = plane.data();
+		for(int i = 0; i < image.height(); i++) {
+			int from = image.index(i, 0);
+			int to = i*image.width();
+			for(int j = 0; j < image.width(); j++) {
+				sums[to + j] = (short) getGraySum(pixels[from + j]);
+			}
+		}
+		return plane;
+    }
+    
+    /**
+     * Version of toGrayPlane for an image of any storage (see ImageView)
+     * @param image : an ImageView
+     * @return a GrayPlane of the same size
+     * @see #toGrayPlane(int[][])
+     */
+    public static GrayPlane toGrayPlane(ImageView image) {
+		assert image != null;
+		
+		int width = image.width();
+		GrayPlane plane = new GrayPlane(width, image.height());
+		short[] sums = plane.data();
+		int[] red = new int[width];
+		int[] green = new int[width];
+		int[] blue = new int[width];
+		for(int i = 0; i < image.height(); i++) {
+			image.readChannels(i, red, green, blue, 0);
+			int to = i*width;
+			for(int j = 0; j < width; j++) {
+				sums[to + j] = (short) (red[j] + green[j] + blue[j]);
+			}
+		}
+		return plane;
+    }
+    
+    /**
+     * Unpacks a packed RGB image into three channel planes, once for all the searches made on it.
+     * @param image : a HxW integer array
+     * @return a RgbPlanes of the same size
+     * @see #getRed
+     * @see #getGreen
+     * @see #getBlue
+     */
+    public static RgbPlanes toRgbPlanes(int[][] image) {
+		//Requirement : image should contain at least 1 pixel
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		RgbPlanes planes = new RgbPlanes(image[0].length, image.length);
+		for(int i = 0; i < image.length; i++) {
+			unpackRow(image[i], 0, planes, i*image[i].length);
+		}
+		return planes;
+    }
+
+    /**
+     * Packed version of toRgbPlanes
+     * @param image : a PackedImage
+     * @return a RgbPlanes of the same size
+     * @see #toRgbPlanes(int[][])
+     */
+    public static RgbPlanes toRgbPlanes(PackedImage image) {
+		assert image != null;
+		
+		RgbPlanes planes = new RgbPlanes(image.width(), image.height());
+		for(int i = 0; i < image.height(); i++) {
+			unpackRow(image.data(), image.index(i, 0), planes, i*image.width());
+		}
+		return planes;
+    }
+
+    // Unpacks planes.width() pixels from pixels[from ..] into the planes, from index to
+    private static void unpackRow(int[] pixels, int from, RgbPlanes planes, int to) {
+		byte[] red = planes.red();
+		byte[] green = planes.green();
+		byte[] blue = planes.blue();
+		for(int j = 0; j < planes.width(); j++) {
+			int rgb = pixels[from + j];
+			red[to + j] = (byte) (rgb >> 16);
+			green[to + j] = (byte) (rgb >> 8);
+			blue[to + j] = (byte) rgb;
+		}
+    }
+    
     public static int sanitizeValue(int x) {
 		if(x < 0) {
 			x = 0;
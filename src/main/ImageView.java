@@ -0,0 +1,37 @@
+package main;
+
+/**
+ * Read access to a RGB image, whatever the way its pixels are stored (packed ints, channel planes,
+ * or the raster of a BufferedImage, see Helper.view). The search engines taking an ImageView
+ * read the pixels straight from the storage of the image, one row at a time, without converting
+ * the whole image first.
+ */
+public interface ImageView {
+
+	/**
+	 * @return an integer, the width of the image
+	 */
+	int width();
+
+	/**
+	 * @return an integer, the height of the image
+	 */
+	int height();
+
+	/**
+	 * @param row : an integer, the row-coordinate of the pixel
+	 * @param col : an integer, the column-coordinate of the pixel
+	 * @return a 32-bits RGB color, the packed color of the pixel (alpha bits are unspecified)
+	 */
+	int get(int row, int col);
+
+	/**
+	 * Unpacks a whole row of the image, channel by channel
+	 * @param row : an integer, the row to read
+	 * @param red : an array of integers, receives the red values (0 to 255) of the row from index start
+	 * @param green : an array of integers, receives the green values of the row from index start
+	 * @param blue : an array of integers, receives the blue values of the row from index start
+	 * @param start : an integer, where to write the value of the first pixel of the row in the arrays
+	 */
+	void readChannels(int row, int[] red, int[] green, int[] blue, int start);
+}
@@ -0,0 +1,206 @@
+package main;
+
+/**
+ * Summed-area table (integral image) of a 2D double matrix, together with the
+ * summed-area table of its squared values.
+ * Once built, the sum, mean and variance of any rectangular window can be
+ * obtained in constant time, whatever the size of the window (except the variance of
+ * flat or nearly flat windows, see squaredDeviation).
+ * The table keeps a reference to the matrix (see squaredDeviation) : the matrix must not be modified afterwards.
+ */
+public final class IntegralImage {
+
+	//sums[(i)*(width+1) + j] contains the sum of all values matrix[r][c] with r < i and c < j
+	//The extra row and column of zeros avoid any special case at the borders
+	private final double[] sums;
+	private final double[] squareSums;
+	private final int width;
+	private final int height;
+	//The matrix the tables were built from (one of the two), for the exact deviations of near-flat windows
+	private final double[][] matrix;
+	private final PackedMatrix packed;
+
+	/**
+	 * Builds the summed-area tables of the given matrix (single pass over the matrix)
+	 * @param matrix : a 2D array of doubles, for instance a gray-scale image
+	 */
+	public IntegralImage(double[][] matrix) {
+		//Requirement : matrix should contain at least 1 pixel
+		assert matrix != null;
+		assert matrix.length > 0;
+		assert matrix[0].length > 0;
+
+		height = matrix.length;
+		width = matrix[0].length;
+		this.matrix = matrix;
+		packed = null;
+		sums = new double[(height + 1) * (width + 1)];
+		squareSums = new double[(height + 1) * (width + 1)];
+		for(int i = 0; i < height; i++) {
+			addRow(i, matrix[i], 0);
+		}
+	}
+
+	/**
+	 * Builds the summed-area tables of the given packed matrix (single pass over the matrix)
+	 * @param matrix : a PackedMatrix, for instance a gray-scale image
+	 */
+	public IntegralImage(PackedMatrix matrix) {
+		assert matrix != null;
+
+		height = matrix.height();
+		width = matrix.width();
+		this.matrix = null;
+		packed = matrix;
+		sums = new double[(height + 1) * (width + 1)];
+		squareSums = new double[(height + 1) * (width + 1)];
+		for(int i = 0; i < height; i++) {
+			addRow(i, matrix.data(), matrix.index(i, 0));
+		}
+	}
+
+	// Fills row i+1 of the tables, the values of row i of the matrix being values[start .. start+width-1]
+	private void addRow(int i, double[] values, int start) {
+		int stride = width + 1;
+		//running sums of the current row, added to the table entry just above
+		double rowSum = 0;
+		double rowSquareSum = 0;
+		int above = i * stride;
+		int current = (i + 1) * stride;
+		for(int j = 0; j < width; j++) {
+			double value = values[start + j];
+			rowSum += value;
+			rowSquareSum += value * value;
+			sums[current + j + 1] = sums[above + j + 1] + rowSum;
+			squareSums[current + j + 1] = squareSums[above + j + 1] + rowSquareSum;
+		}
+	}
+
+	/**
+	 * @return an integer, the width of the matrix the table was built from
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * @return an integer, the height of the matrix the table was built from
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * Sum of the values in a window
+	 * @param row : an integer, the row-coordinate of the upper left corner of the window
+	 * @param col : an integer, the column-coordinate of the upper left corner of the window
+	 * @param width : an integer, the width of the window
+	 * @param height : an integer, the height of the window
+	 * @return a double, the sum of all the values covered by the window
+	 */
+	public double sum(int row, int col, int width, int height) {
+		return rectangle(sums, row, col, width, height);
+	}
+
+	/**
+	 * Sum of the squared values in a window
+	 * @param row : an integer, the row-coordinate of the upper left corner of the window
+	 * @param col : an integer, the column-coordinate of the upper left corner of the window
+	 * @param width : an integer, the width of the window
+	 * @param height : an integer, the height of the window
+	 * @return a double, the sum of the squares of all the values covered by the window
+	 */
+	public double squareSum(int row, int col, int width, int height) {
+		return rectangle(squareSums, row, col, width, height);
+	}
+
+	/**
+	 * Mean of the values in a window (same result as SimilarityBasedSearch.windowMean, in O(1))
+	 * @param row : an integer, the row-coordinate of the upper left corner of the window
+	 * @param col : an integer, the column-coordinate of the upper left corner of the window
+	 * @param width : an integer, the width of the window
+	 * @param height : an integer, the height of the window
+	 * @return a double, the mean value of the window
+	 */
+	public double mean(int row, int col, int width, int height) {
+		return sum(row, col, width, height) / (width * height);
+	}
+
+	/**
+	 * Sum of the squared deviations from the window mean, that is sum((I - mean(I))^2) over the window.
+	 * This is the left part of the normalized cross correlation denominator.
+	 * squareSum - sum^2/n cancels out for (nearly) flat windows, leaving the rounding errors of the tables, which grow
+	 * with the values of the whole matrix : a flat window would get a small positive deviation instead of 0. When the
+	 * result is within these errors, the deviation is computed again from the window itself, as
+	 * SimilarityBasedSearch.normalizedCrossCorrelation does.
+	 * Cost : O(1), but O(width * height) for these flat or nearly flat windows. An image with large flat areas (a
+	 * white background...) thus gets back the cost of the direct computation on the windows inside these areas.
+	 * @param row : an integer, the row-coordinate of the upper left corner of the window
+	 * @param col : an integer, the column-coordinate of the upper left corner of the window
+	 * @param width : an integer, the width of the window
+	 * @param height : an integer, the height of the window
+	 * @return a positive double
+	 */
+	public double squaredDeviation(int row, int col, int width, int height) {
+		int n = width * height;
+		double sum = sum(row, col, width, height);
+		double deviation = squareSum(row, col, width, height) - sum * sum / n;
+		//Bound of the rounding errors, with u = 2^-53 and k = this.width + this.height + 1.
+		//An entry of a table is the sum of the values above and left of it : each value goes through at most
+		//this.width additions in its row sum, this.height in its column, and one rounding for its square. The error
+		//of an entry is thus below k * u * (1 + k * u) * (sum of the absolute values it adds up) [Higham, Accuracy and
+		//Stability of Numerical Algorithms, 4.2], which is below 2 * k * u * sum of the absolute values as long as
+		//k < 2^52. A window combines 4 entries with 3 more roundings, each of a value below twice the biggest entry :
+		//its sums are wrong by at most c * (biggest sum of absolute values of the 4 entries), c = (8 * k + 6) * u.
+		//The squares are positive, so Q, the square sum of the bottom right entry, is the biggest one, and by
+		//Cauchy-Schwarz the sum of the absolute values of an entry covering m <= N values is below sqrt(N * Q),
+		//N being the number of values of the bottom right entry. With S the computed window sum and n its number of
+		//values, squareSum - S^2 / n is then wrong by at most c * Q + (2 * |S| * E + 3 * E^2) / n, E = c * sqrt(N * Q),
+		//plus the roundings of the product, the division and the subtraction (below 3 * u * Q, as S^2 / n and the
+		//window square sum are below Q).
+		int stride = this.width + 1;
+		double q = squareSums[(row + height) * stride + col + width];
+		double c = (8.0 * (this.width + this.height + 1) + 6) * 0x1p-53;
+		double e = c * Math.sqrt((double) (row + height) * (col + width) * q);
+		double error = (c + 3 * 0x1p-53) * q + (2 * Math.abs(sum) * e + 3 * e * e) / n;
+		if(deviation <= error) {
+			return windowDeviation(row, col, width, height);
+		}
+		return deviation;
+	}
+
+	// squaredDeviation computed from the values of the window, in two passes (mean, then deviations)
+	private double windowDeviation(int row, int col, int width, int height) {
+		double mean = 0;
+		for(int i = 0; i < height; i++) {
+			for(int j = 0; j < width; j++) {
+				mean += value(row + i, col + j);
+			}
+		}
+		mean /= (width * height);
+		double deviation = 0;
+		for(int i = 0; i < height; i++) {
+			for(int j = 0; j < width; j++) {
+				double difference = value(row + i, col + j) - mean;
+				deviation += difference * difference;
+			}
+		}
+		return deviation;
+	}
+
+	private double value(int row, int col) {
+		return matrix != null ? matrix[row][col] : packed.get(row, col);
+	}
+
+	private double rectangle(double[] table, int row, int col, int width, int height) {
+		//Requirement : window fits entirely in the matrix
+		assert row >= 0 && col >= 0;
+		assert row + height <= this.height;
+		assert col + width <= this.width;
+
+		int stride = this.width + 1;
+		int top = row * stride;
+		int bottom = (row + height) * stride;
+		return table[bottom + col + width] - table[top + col + width] - table[bottom + col] + table[top + col];
+	}
+}
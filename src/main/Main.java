@@ -1,5 +1,17 @@
 package main;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 /**
  * 
  * @author Tafti Leo
@@ -23,6 +35,15 @@ public final class Main {
 //		testDistanceBasedSearch();
 //	    	testSimilarityBasedSearch();   
 //    		findCharlie();
+//	    	testSimilarityFlatWindows();
+//	    	testDistanceFindNBest();
+//	    	testFindNBestQuickSort();
+//	    	testMultiPatternSearch();
+//	    	testFourier();
+//	    	testSadKernel();
+//	    	testBorderStrategyIndex();
+//	    	testDistanceMirror();
+//	    	testSearchServer();
     		Program.principalProgramm();
     }
     
@@ -65,6 +86,41 @@ public final class Main {
     	}    
     }
 
+    public static void testFindNBestQuickSort() {
+    	System.out.println("Test findNBestQuickSort");
+    	//Few distinct values (negative, zero, positive) : many duplicates, which must come in row-major order
+    	Random random = new Random(10);
+    	boolean passed = true;
+    	for (int test = 0; test < 50; test++) {
+    		double[][] matrix = new double[1 + random.nextInt(20)][1 + random.nextInt(20)];
+    		for (double[] row : matrix) {
+    			for (int j = 0; j < row.length; j++) {
+    				row[j] = random.nextInt(7) - 3 + (random.nextBoolean() ? 0.5 : 0);
+    			}
+    		}
+    		int size = matrix.length * matrix[0].length;
+    		for (int n : new int[] {1, 1 + random.nextInt(size), size}) {
+    			for (boolean smallestFirst : new boolean[] {true, false}) {
+    				if (!Arrays.deepEquals(Collector.findNBestQuickSort(n, matrix, smallestFirst),
+    						Collector.findNBest(n, matrix, smallestFirst))) {
+    					System.out.println("findNBestQuickSort differs for n = " + n + ", smallestFirst = " + smallestFirst);
+    					passed = false;
+    				}
+    			}
+    		}
+    		int[][] sorted = Collector.quicksortPixelCoordinates(matrix).toArray(new int[0][]);
+    		if (!Arrays.deepEquals(sorted, Collector.findNBest(size, matrix, true))) {
+    			System.out.println("quicksortPixelCoordinates differs on a " + matrix.length + "x" + matrix[0].length + " matrix");
+    			passed = false;
+    		}
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+
     //TODO: complete
 
     /*
@@ -85,6 +141,187 @@ public final class Main {
     	Helper.show(food, "Found!");
     }
     
+    public static void testBorderStrategyIndex() {
+    	System.out.println("Test BorderStrategy.index");
+    	//Expected indexes of the pixels 0 to 9, for images of 1 to 4 pixels (so up to 2n-2 and beyond)
+    	int[][][] expected = {
+    		//WRAP
+    		{{0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, {0, 1, 0, 1, 0, 1, 0, 1, 0, 1}, {0, 1, 2, 0, 1, 2, 0, 1, 2, 0}, {0, 1, 2, 3, 0, 1, 2, 3, 0, 1}},
+    		//MIRROR
+    		{{0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, {0, 1, 0, 1, 0, 1, 0, 1, 0, 1}, {0, 1, 2, 1, 0, 1, 2, 1, 0, 1}, {0, 1, 2, 3, 2, 1, 0, 1, 2, 3}},
+    		//CLAMP
+    		{{0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, {0, 1, 1, 1, 1, 1, 1, 1, 1, 1}, {0, 1, 2, 2, 2, 2, 2, 2, 2, 2}, {0, 1, 2, 3, 3, 3, 3, 3, 3, 3}},
+    		//CONSTANT
+    		{{0, -1, -1, -1, -1, -1, -1, -1, -1, -1}, {0, 1, -1, -1, -1, -1, -1, -1, -1, -1}, {0, 1, 2, -1, -1, -1, -1, -1, -1, -1},
+    			{0, 1, 2, 3, -1, -1, -1, -1, -1, -1}}
+    	};
+    	BorderStrategy[] strategies = {BorderStrategy.WRAP, BorderStrategy.MIRROR, BorderStrategy.CLAMP, BorderStrategy.CONSTANT};
+    	boolean passed = true;
+    	for (int s = 0; s < strategies.length; s++) {
+    		for (int n = 1; n <= 4; n++) {
+    			for (int i = 0; i < 10; i++) {
+    				int index = strategies[s].index(i, n);
+    				if (index != expected[s][n-1][i]) {
+    					System.out.println(strategies[s] + " : index(" + i + ", " + n + ") = " + index
+    							+ ", expected " + expected[s][n-1][i]);
+    					passed = false;
+    				}
+    			}
+    		}
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+
+    public static void testDistanceMirror() {
+    	System.out.println("Test distanceMatrix with the mirror strategy");
+    	//A 4x6 pattern on a 3x4 image : the windows go up to 2n-2 and beyond on both axes
+    	Random random = new Random(15);
+    	int[][] image = new int[3][4];
+    	for (int[] row : image) {
+    		for (int j = 0; j < row.length; j++) {
+    			row[j] = random.nextInt(0x1000000);
+    		}
+    	}
+    	int[][] pattern = new int[4][6];
+    	for (int[] row : pattern) {
+    		for (int j = 0; j < row.length; j++) {
+    			row[j] = random.nextInt(0x1000000);
+    		}
+    	}
+    	//The image padded by hand : rows 0 1 2 1 0 1, columns 0 1 2 3 2 1 0 1 2
+    	int[] rows = {0, 1, 2, 1, 0, 1};
+    	int[] cols = {0, 1, 2, 3, 2, 1, 0, 1, 2};
+    	int[][] padded = new int[rows.length][cols.length];
+    	for (int i = 0; i < rows.length; i++) {
+    		for (int j = 0; j < cols.length; j++) {
+    			padded[i][j] = image[rows[i]][cols[j]];
+    		}
+    	}
+    	double[][] expected = DistanceBasedSearch.distanceMatrix(pattern, padded);
+    	double[][] distance = DistanceBasedSearch.distanceMatrix(pattern, image, "mirror");
+    	boolean passed = Arrays.deepEquals(distance, expected);
+    	if (!passed) {
+    		System.out.println("distanceMatrix differs from the hand-padded image");
+    	}
+    	for (int i = 0; i < 3; i++) {
+    		for (int j = 0; j < 4; j++) {
+    			double error = DistanceBasedSearch.meanAbsoluteErrorMirror(i, j, pattern, image);
+    			if (Math.abs(error - expected[i][j]) > 1e-12) {
+    				System.out.println("meanAbsoluteErrorMirror(" + i + ", " + j + ") = " + error + ", expected " + expected[i][j]);
+    				passed = false;
+    			}
+    		}
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+    
+    public static void testDistanceFindNBest() {
+    	System.out.println("Test DistanceBasedSearch.findNBest");
+    	//Few colors, and the pattern copied 3 times : many windows have the same distance (ties)
+    	Random random = new Random(7);
+    	int[] colors = {0x102030, 0x405060, 0xa0b0c0, 0xf0e0d0};
+    	int[][] image = new int[40][50];
+    	for (int[] row : image) {
+    		for (int j = 0; j < row.length; j++) {
+    			row[j] = colors[random.nextInt(colors.length)];
+    		}
+    	}
+    	int[][] pattern = new int[6][5];
+    	for (int i = 0; i < 6; i++) {
+    		for (int j = 0; j < 5; j++) {
+    			pattern[i][j] = image[10+i][20+j];
+    			image[30+i][2+j] = pattern[i][j];
+    			image[2+i][40+j] = pattern[i][j];
+    			image[10+i][30+j] = pattern[i][j];
+    		}
+    	}
+    	//The reference : every window, scanned by Collector
+    	double[][] distance = DistanceBasedSearch.distanceMatrix(pattern, image, SadKernel.SCALAR);
+    	int positions = distance.length * distance[0].length;
+    	boolean passed = Arrays.equals(DistanceBasedSearch.findBest(pattern, image), Collector.findBest(distance, true));
+    	for (int n : new int[] {1, 4, 7, 100, positions}) {
+    		int[][] expected = Collector.findNBest(n, distance, true);
+    		if (!Arrays.deepEquals(DistanceBasedSearch.findNBest(n, pattern, image), expected)) {
+    			System.out.println("findNBest differs for n = " + n);
+    			passed = false;
+    		}
+    		if (!Arrays.deepEquals(DistanceBasedSearch.nBest(n, pattern, image, Double.POSITIVE_INFINITY).coordinates(), expected)) {
+    			System.out.println("nBest differs for n = " + n);
+    			passed = false;
+    		}
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+    
+    public static void testSadKernel() {
+    	System.out.println("Test SadKernel");
+    	//Row lengths from 1 to 40 : below, equal to and not a multiple of the number of lanes of any vector species
+    	SadKernel vector = SadKernel.vector();
+    	System.out.println("Kernel : " + (vector == SadKernel.SCALAR ? "scalar only" : vector.getClass().getSimpleName()));
+    	Random random = new Random(6);
+    	boolean passed = true;
+    	int[] pattern = new int[60];
+    	int[] image = new int[60];
+    	for (int test = 0; test < 2000; test++) {
+    		for (int k = 0; k < 60; k++) {
+    			pattern[k] = random.nextInt();
+    			image[k] = random.nextInt();
+    		}
+    		int length = 1 + random.nextInt(40);
+    		int patternStart = random.nextInt(60 - length + 1);
+    		int imageStart = random.nextInt(60 - length + 1);
+    		if (vector.rowSad(pattern, patternStart, image, imageStart, length)
+    				!= SadKernel.SCALAR.rowSad(pattern, patternStart, image, imageStart, length)) {
+    			System.out.println("rowSad differs for a row of " + length + " pixels");
+    			passed = false;
+    		}
+    	}
+    	int[][] picture = new int[30][50];
+    	for (int[] row : picture) {
+    		for (int j = 0; j < row.length; j++) {
+    			row[j] = random.nextInt(0x1000000);
+    		}
+    	}
+    	for (int width = 1; width <= 40; width += 3) {
+    		int[][] patch = new int[1 + random.nextInt(8)][width];
+    		for (int[] row : patch) {
+    			for (int j = 0; j < row.length; j++) {
+    				row[j] = random.nextInt(0x1000000);
+    			}
+    		}
+    		double[][] scalar = DistanceBasedSearch.distanceMatrix(patch, picture, SadKernel.SCALAR);
+    		if (!Arrays.deepEquals(DistanceBasedSearch.distanceMatrix(patch, picture, vector), scalar)) {
+    			System.out.println("The vector kernel differs for a pattern of width " + width);
+    			passed = false;
+    		}
+    		for (int i = 0; i < scalar.length; i++) {
+    			for (int j = 0; j < scalar[0].length; j++) {
+    				if (Math.abs(scalar[i][j] - DistanceBasedSearch.meanAbsoluteError(i, j, patch, picture)) > 1e-12) {
+    					System.out.println("SCALAR differs from meanAbsoluteError at (" + i + ", " + j + ") for a pattern of width " + width);
+    					passed = false;
+    				}
+    			}
+    		}
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+    
     //TODO: complete
     
     /*
@@ -128,5 +365,303 @@ public final class Main {
     	Helper.show(beach, "Found again!");    	
     }
     
+    public static void testSimilarityFlatWindows() {
+    	System.out.println("Test similarityMatrix on flat windows");
+    	//A flat window has no deviation : its similarity is -1. The summed-area tables are at their biggest
+    	//in the bottom right corner, where their rounding errors could give it a small deviation instead.
+    	Random random = new Random(1);
+    	double[][] image = new double[2000][2000];
+    	for (int i = 0; i < image.length; i++) {
+    		for (int j = 0; j < image[0].length; j++) {
+    			image[i][j] = random.nextInt(766) / 3.0;
+    		}
+    	}
+    	for (int i = 1970; i < 1990; i++) {
+    		for (int j = 1970; j < 1990; j++) {
+    			image[i][j] = 170 / 3.0;
+    		}
+    	}
+    	double[][] pattern = new double[12][12];
+    	for (double[] row : pattern) {
+    		for (int j = 0; j < row.length; j++) {
+    			row[j] = random.nextInt(766) / 3.0;
+    		}
+    	}
+    	double[][] similarity = SimilarityBasedSearch.similarityMatrix(pattern, image);
+    	int wrong = 0;
+    	for (int i = 1970; i <= 1978; i++) {
+    		for (int j = 1970; j <= 1978; j++) {
+    			if (similarity[i][j] != -1) {
+    				wrong++;
+    			}
+    		}
+    	}
+    	if (wrong == 0) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed. " + wrong + " of the 81 flat windows are not -1");
+    	}
+    }
+    
+    public static void testFourier() {
+    	System.out.println("Test similarityMatrixFFT and squaredDistanceMatrix");
+    	int[][] image = Helper.read("images/image.png");
+    	int[][] pattern = Helper.read("images/pattern.png");
+    	boolean passed = true;
+
+    	//FFT rounding errors are relative to the biggest values : about 1e-13 for similarities in [-1, 1]
+    	double[][] grayImage = ImageProcessing.toGray(image);
+    	double[][] grayPattern = ImageProcessing.toGray(pattern);
+    	double[][] similarity = SimilarityBasedSearch.similarityMatrix(grayPattern, grayImage);
+    	double[][] similarityFFT = SimilarityBasedSearch.similarityMatrixFFT(grayPattern, grayImage);
+    	double difference = maxDifference(similarity, similarityFFT);
+    	if (difference > 1e-9 || !Arrays.equals(Collector.findBest(similarity, false), Collector.findBest(similarityFFT, false))) {
+    		System.out.println("similarityMatrixFFT differs by " + difference);
+    		passed = false;
+    	}
+
+    	//The squared distances, in [0, 255*255], computed directly, within the image and wrapped around it
+    	int height = image.length;
+    	int width = image[0].length;
+    	double[][] squared = new double[height - pattern.length + 1][width - pattern[0].length + 1];
+    	double[][] wrapped = new double[height][width];
+    	for (int row = 0; row < height; row++) {
+    		for (int col = 0; col < width; col++) {
+    			double sum = 0;
+    			for (int i = 0; i < pattern.length; i++) {
+    				for (int j = 0; j < pattern[0].length; j++) {
+    					int p = pattern[i][j];
+    					int q = image[(row + i) % height][(col + j) % width];
+    					int red = ImageProcessing.getRed(p) - ImageProcessing.getRed(q);
+    					int green = ImageProcessing.getGreen(p) - ImageProcessing.getGreen(q);
+    					int blue = ImageProcessing.getBlue(p) - ImageProcessing.getBlue(q);
+    					sum += red * red + green * green + blue * blue;
+    				}
+    			}
+    			wrapped[row][col] = sum / (3.0 * pattern.length * pattern[0].length);
+    			if (row < squared.length && col < squared[0].length) {
+    				squared[row][col] = wrapped[row][col];
+    			}
+    		}
+    	}
+    	double[][] squaredFFT = DistanceBasedSearch.squaredDistanceMatrix(pattern, image);
+    	difference = maxDifference(squared, squaredFFT);
+    	if (difference > 1e-6 || !Arrays.equals(Collector.findBest(squared, true), Collector.findBest(squaredFFT, true))) {
+    		System.out.println("squaredDistanceMatrix differs by " + difference);
+    		passed = false;
+    	}
+    	double[][] wrappedFFT = DistanceBasedSearch.squaredDistanceMatrix(pattern, image, BorderStrategy.WRAP);
+    	difference = maxDifference(wrapped, wrappedFFT);
+    	if (difference > 1e-6 || !Arrays.equals(Collector.findBest(wrapped, true), Collector.findBest(wrappedFFT, true))) {
+    		System.out.println("squaredDistanceMatrix with WRAP differs by " + difference);
+    		passed = false;
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+
+    // Biggest absolute difference between two matrices, infinite if their sizes differ
+    private static double maxDifference(double[][] expected, double[][] actual) {
+    	if (expected.length != actual.length || expected[0].length != actual[0].length) {
+    		return Double.POSITIVE_INFINITY;
+    	}
+    	double max = 0;
+    	for (int i = 0; i < expected.length; i++) {
+    		for (int j = 0; j < expected[0].length; j++) {
+    			max = Math.max(max, Math.abs(expected[i][j] - actual[i][j]));
+    		}
+    	}
+    	return max;
+    }
+    
+    /*
+     * Tests for Class MultiPatternSearch
+     */
+
+    public static void testMultiPatternSearch() {
+    	System.out.println("Test MultiPatternSearch");
+    	//Few colors and a flat block : many windows of the same score (ties), flat windows of similarity -1
+    	Random random = new Random(20);
+    	int[] colors = {0x102030, 0x405060, 0xa0b0c0, 0xf0e0d0};
+    	int[][] image = new int[50][60];
+    	for (int[] row : image) {
+    		for (int j = 0; j < row.length; j++) {
+    			row[j] = colors[random.nextInt(colors.length)];
+    		}
+    	}
+    	for (int i = 30; i < 40; i++) {
+    		for (int j = 40; j < 52; j++) {
+    			image[i][j] = colors[2];
+    		}
+    	}
+    	//14 patterns : cut from the image (several of the same height, searched in the same group), random, and flat
+    	int[][] sizes = {{5, 4}, {5, 7}, {5, 4}, {3, 3}, {3, 8}, {8, 3}, {1, 1}, {1, 6}, {6, 1}, {10, 12}, {7, 7}};
+    	List<int[][]> patterns = new ArrayList<>();
+    	for (int p = 0; p < sizes.length; p++) {
+    		int[][] pattern = new int[sizes[p][0]][sizes[p][1]];
+    		int row = random.nextInt(image.length - pattern.length + 1);
+    		int col = random.nextInt(image[0].length - pattern[0].length + 1);
+    		for (int i = 0; i < pattern.length; i++) {
+    			for (int j = 0; j < pattern[0].length; j++) {
+    				pattern[i][j] = p == 10 ? colors[random.nextInt(colors.length)] : image[row+i][col+j];
+    			}
+    		}
+    		patterns.add(pattern);
+    	}
+    	for (int[] flat : new int[][] {{4, 4, colors[2]}, {5, 5, 0}, {1, 1, colors[0]}}) {
+    		int[][] pattern = new int[flat[0]][flat[1]];
+    		for (int[] row : pattern) {
+    			Arrays.fill(row, flat[2]);
+    		}
+    		patterns.add(pattern);
+    	}
+
+    	//The reference : every window of each pattern alone, scanned by Collector
+    	GrayPlane gray = ImageProcessing.toGrayPlane(image);
+    	boolean passed = true;
+    	for (int n : new int[] {1, 6, image.length * image[0].length}) {
+    		List<TopK> similar = MultiPatternSearch.similaritySearch(n, patterns, image);
+    		List<TopK> close = MultiPatternSearch.distanceSearch(n, patterns, image);
+    		for (int p = 0; p < patterns.size(); p++) {
+    			double[][] similarity = SimilarityBasedSearch.similarityMatrix(ImageProcessing.toGrayPlane(patterns.get(p)), gray);
+    			double[][] distance = DistanceBasedSearch.distanceMatrix(patterns.get(p), image, SadKernel.SCALAR);
+    			//A TopK keeps at most all the positions, Collector would complete them with (0, 0)
+    			int kept = Math.min(n, similarity.length * similarity[0].length);
+    			if (!sameBest(similar.get(p), Collector.findNBest(kept, similarity, false), similarity)) {
+    				System.out.println("similaritySearch differs for pattern " + p + ", n = " + n);
+    				passed = false;
+    			}
+    			if (!sameBest(close.get(p), Collector.findNBest(kept, distance, true), distance)) {
+    				System.out.println("distanceSearch differs for pattern " + p + ", n = " + n);
+    				passed = false;
+    			}
+    		}
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+
+    // Whether found has the expected positions, in the same order, with their scores in the matrix
+    private static boolean sameBest(TopK found, int[][] expected, double[][] matrix) {
+    	if (!Arrays.deepEquals(found.coordinates(), expected)) {
+    		return false;
+    	}
+    	double[] scores = found.scores();
+    	for (int k = 0; k < expected.length; k++) {
+    		if (scores[k] != matrix[expected[k][0]][expected[k][1]]) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
+    /*
+     * Tests for Class SearchServer
+     */
+    public static void testSearchServer() {
+    	System.out.println("Test SearchServer");
+    	//Room for image.png (4 bytes per pixel) and pattern.png (24 bytes per pixel), not for a third upload
+    	long cacheBytes = 4 * 276 * 281 + 24 * 92 * 46 + 8000;
+    	SearchServer server;
+    	try {
+    		server = new SearchServer(0, Paths.get("images"), cacheBytes);
+    	} catch (IOException e) {
+    		System.out.println(e);
+    		System.out.println("Test failed");
+    		return;
+    	}
+    	server.start();
+    	String base = "http://127.0.0.1:" + server.port();
+    	HttpClient client = HttpClient.newHttpClient();
+    	boolean passed = true;
+    	try {
+    		String imageId = id(post(client, base + "/images", "images/image.png"));
+    		String patternId = id(post(client, base + "/patterns", "images/pattern.png"));
+
+    		//The same positions and scores as the search of the decoded files
+    		List<CompiledPattern> patterns = List.of(new CompiledPattern(Helper.read("images/pattern.png")));
+    		ImageView image = Helper.readView("images/image.png");
+    		for (Metric metric : Metric.values()) {
+    			HttpResponse<String> answer = get(client, base + "/search?image=" + imageId + "&pattern=" + patternId
+    					+ "&metric=" + metric.name().toLowerCase() + "&n=3");
+    			TopK expected = metric.search(3, patterns, image).get(0);
+    			StringBuilder results = new StringBuilder("\"results\":[");
+    			for (int k = 0; k < expected.coordinates().length; k++) {
+    				results.append(k == 0 ? "" : ",").append("{\"rank\":").append(k + 1)
+    						.append(",\"row\":").append(expected.coordinates()[k][0])
+    						.append(",\"col\":").append(expected.coordinates()[k][1])
+    						.append(",\"score\":").append(expected.scores()[k]).append('}');
+    			}
+    			results.append(']');
+    			if (answer.statusCode() != 200 || !answer.body().contains(results)) {
+    				System.out.println("search with " + metric + " answered " + answer.statusCode() + " " + answer.body()
+    						+ " instead of " + results);
+    				passed = false;
+    			}
+    		}
+
+    		//onions.png does not fit next to the two others : image.png, the least recently used, is dropped
+    		post(client, base + "/images", "images/onions.png");
+    		HttpResponse<String> evicted = get(client, base + "/search?image=" + imageId + "&pattern=" + patternId);
+    		if (evicted.statusCode() != 404) {
+    			System.out.println("search of an evicted image answered " + evicted.statusCode());
+    			passed = false;
+    		}
+
+    		//The file exists, outside of the served directory
+    		HttpResponse<String> outside = get(client, base + "/search?imagePath=../src/main/Main.java&pattern=" + patternId);
+    		if (outside.statusCode() != 403) {
+    			System.out.println("search of a file outside of the root answered " + outside.statusCode());
+    			passed = false;
+    		}
+
+    		//8 requests with this one, the 404 and 403 failed. The cache was looked up 8 times : the uploads of image.png,
+    		//pattern.png and onions.png and the search of the evicted image missed, the two searches hit twice each.
+    		//The latencies are only added once the answer is sent, they are not checked.
+    		String metrics = get(client, base + "/metrics").body();
+    		for (String expected : new String[] {"\"requests\":8,\"failures\":2,",
+    				"\"entries\":2,", "\"hits\":4,\"misses\":4,\"hitRate\":0.5,\"evictions\":1}"}) {
+    			if (!metrics.contains(expected)) {
+    				System.out.println("metrics " + metrics + " do not contain " + expected);
+    				passed = false;
+    			}
+    		}
+    	} catch (IOException | InterruptedException e) {
+    		System.out.println(e);
+    		passed = false;
+    	} finally {
+    		server.stop();
+    	}
+    	if (passed) {
+    		System.out.println("Test passed");
+    	} else {
+    		System.out.println("Test failed");
+    	}
+    }
+
+    private static HttpResponse<String> post(HttpClient client, String uri, String path)
+    		throws IOException, InterruptedException {
+    	HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+    			.POST(HttpRequest.BodyPublishers.ofByteArray(Files.readAllBytes(Paths.get(path)))).build();
+    	return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> get(HttpClient client, String uri) throws IOException, InterruptedException {
+    	return client.send(HttpRequest.newBuilder(URI.create(uri)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // The id of an upload, from its answer {"id":"...",...}
+    private static String id(HttpResponse<String> upload) {
+    	String body = upload.body();
+    	int start = body.indexOf("\"id\":\"") + 6;
+    	return body.substring(start, body.indexOf('"', start));
+    }
+    
     //TODO: complete
 }
@@ -0,0 +1,206 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A RGB image stored in a raw file, and read straight from the file mapped in memory (FileChannel.map) :
+ * opening it costs nothing whatever its size, the operating system loads the pages when they are read
+ * (and keeps them in its cache from one run to the next).
+ * The file is a HEADER_SIZE bytes header followed by the packed RGB colors, row after row, as ints
+ * in the native byte order. The header contains a magic number, the version of the format, the byte order,
+ * the width and height, and the size and modification time of the source image (see PixelCache).
+ * A mapping is limited to 2 GB : the pixels are mapped in chunks of whole rows, so that the image can have
+ * any number of rows, of up to MAX_WIDTH pixels.
+ */
+public final class MappedImage implements ImageView {
+
+	//"WALDORAW" in ASCII
+	private static final long MAGIC = 0x57414c444f524157L;
+	private static final int VERSION = 1;
+	//The pixels start on a 64 bytes boundary
+	static final int HEADER_SIZE = 64;
+	//Bytes of a chunk of rows, at most : a mapping is limited to Integer.MAX_VALUE bytes
+	private static final int CHUNK_BYTES = 1 << 30;
+
+	/**
+	 * The maximal width of a raw image : a row must fit in a chunk
+	 */
+	public static final int MAX_WIDTH = CHUNK_BYTES / 4;
+
+	//The pixels of rows [k*chunkRows, (k+1)*chunkRows) are in chunks[k]
+	private final IntBuffer[] chunks;
+	private final int chunkRows;
+	private final int width;
+	private final int height;
+	private final long sourceSize;
+	private final long sourceModified;
+
+	private MappedImage(IntBuffer[] chunks, int width, int height, long sourceSize, long sourceModified) {
+		this.chunks = chunks;
+		this.chunkRows = chunkRows(width);
+		this.width = width;
+		this.height = height;
+		this.sourceSize = sourceSize;
+		this.sourceModified = sourceModified;
+	}
+
+	/**
+	 * Writes an image in the raw format
+	 * @param file : a Path, the raw file to write (replaced if it exists)
+	 * @param image : an ImageView, the image to write
+	 * @param sourceSize : a long, the size in bytes of the source image file (0 if none)
+	 * @param sourceModified : a long, the modification time in milliseconds of the source image file (0 if none)
+	 * @throws IOException if the file cannot be written, or the image is wider than MAX_WIDTH
+	 */
+	public static void write(Path file, ImageView image, long sourceSize, long sourceModified) throws IOException {
+		int width = image.width();
+		int height = image.height();
+		if(width > MAX_WIDTH) {
+			throw new IOException("Image too wide for a raw image : " + width + " pixels, at most " + MAX_WIDTH);
+		}
+
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			//The header is written last : a file whose writing was interrupted has no valid header
+			int chunkRows = chunkRows(width);
+			int[] row = new int[width];
+			for(int first = 0; first < height; first += chunkRows) {
+				int rows = Math.min(chunkRows, height - first);
+				IntBuffer pixels = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + 4L*width*first, 4L*width*rows)
+						.order(ByteOrder.nativeOrder()).asIntBuffer();
+				for(int i = first; i < first + rows; i++) {
+					for(int j = 0; j < width; j++) {
+						row[j] = image.get(i, j);
+					}
+					pixels.put(row);
+				}
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			buffer.order(ByteOrder.nativeOrder());
+			buffer.putLong(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 1 : 0);
+			buffer.putInt(width);
+			buffer.putInt(height);
+			buffer.putLong(sourceSize);
+			buffer.putLong(sourceModified);
+			buffer.force();
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Maps a raw image file in memory (nothing is read yet)
+	 * @param file : a Path, a raw file written by write
+	 * @return the MappedImage of the file
+	 * @throws IOException if the file cannot be read, or is not a complete raw image of this machine
+	 */
+	public static MappedImage map(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a raw image : " + file);
+			}
+			//The mappings stay valid once the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			buffer.order(ByteOrder.nativeOrder());
+			boolean bigEndian = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+			if(buffer.getLong() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != (bigEndian ? 1 : 0)) {
+				throw new IOException("Not a raw image of this format : " + file);
+			}
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			long sourceSize = buffer.getLong();
+			long sourceModified = buffer.getLong();
+			if(width <= 0 || width > MAX_WIDTH || height <= 0 || channel.size() != HEADER_SIZE + 4L*width*height) {
+				throw new IOException("Truncated raw image : " + file);
+			}
+			int chunkRows = chunkRows(width);
+			IntBuffer[] chunks = new IntBuffer[(height + chunkRows - 1) / chunkRows];
+			for(int k = 0; k < chunks.length; k++) {
+				int rows = Math.min(chunkRows, height - k*chunkRows);
+				chunks[k] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 4L*width*k*chunkRows, 4L*width*rows)
+						.order(ByteOrder.nativeOrder()).asIntBuffer();
+			}
+			return new MappedImage(chunks, width, height, sourceSize, sourceModified);
+		}
+	}
+
+	// Number of rows of a chunk
+	private static int chunkRows(int width) {
+		return CHUNK_BYTES / (4*width);
+	}
+
+	@Override
+	public int get(int row, int col) {
+		return chunks[row / chunkRows].get(index(row, col));
+	}
+
+	@Override
+	public void readChannels(int row, int[] red, int[] green, int[] blue, int start) {
+		IntBuffer pixels = chunks[row / chunkRows];
+		int n = index(row, 0);
+		for(int j = 0; j < width; j++) {
+			int rgb = pixels.get(n + j);
+			red[start + j] = (rgb >> 16) & 0xff;
+			green[start + j] = (rgb >> 8) & 0xff;
+			blue[start + j] = rgb & 0xff;
+		}
+	}
+
+	/**
+	 * Copies the image into a new packed image (a bulk copy per chunk of rows). A PackedImage is a single int array :
+	 * the image must have less than Integer.MAX_VALUE pixels.
+	 * @return a PackedImage of the same size
+	 */
+	public PackedImage toPackedImage() {
+		//Requirement : the pixels fit in an array
+		assert (long) width*height < Integer.MAX_VALUE;
+
+		PackedImage packed = new PackedImage(width, height);
+		for(int k = 0; k < chunks.length; k++) {
+			chunks[k].get(0, packed.data(), k*chunkRows*width, chunks[k].limit());
+		}
+		return packed;
+	}
+
+	/**
+	 * @return an integer, the index of pixel (row, col) in the chunk of rows holding it
+	 */
+	public int index(int row, int col) {
+		//Requirement : pixel is inside the image
+		assert row >= 0 && row < height;
+		assert col >= 0 && col < width;
+
+		return (row % chunkRows)*width + col;
+	}
+
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * @return a long, the size in bytes of the source image file the raw image was made from
+	 */
+	public long sourceSize() {
+		return sourceSize;
+	}
+
+	/**
+	 * @return a long, the modification time in milliseconds of the source image file the raw image was made from
+	 */
+	public long sourceModified() {
+		return sourceModified;
+	}
+}
@@ -0,0 +1,111 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The two ways of scoring a position of a pattern in an image, as used by the batch searches (DirectorySearch...) :
+ * each one runs the multi-pattern search of MultiPatternSearch on an image of any storage.
+ */
+public enum Metric {
+
+	/**
+	 * Mean absolute error of the RGB channels (smaller is better), see DistanceBasedSearch
+	 */
+	DISTANCE {
+		@Override
+		List<TopK> searchAll(int n, List<CompiledPattern> patterns, ImageView image, SearchStats stats) {
+			stats.begin(SearchStats.Phase.SCORE);
+			List<TopK> found = MultiPatternSearch.distanceSearch(n, patterns, image, stats);
+			stats.end(SearchStats.Phase.SCORE);
+			return found;
+		}
+	},
+
+	/**
+	 * Normalized cross correlation of the gray levels (bigger is better), see SimilarityBasedSearch
+	 */
+	SIMILARITY {
+		@Override
+		List<TopK> searchAll(int n, List<CompiledPattern> patterns, ImageView image, SearchStats stats) {
+			stats.begin(SearchStats.Phase.GRAY);
+			GrayPlane gray = ImageProcessing.toGrayPlane(image);
+			stats.end(SearchStats.Phase.GRAY);
+			stats.begin(SearchStats.Phase.SCORE);
+			List<TopK> found = MultiPatternSearch.similaritySearch(n, patterns, gray, stats);
+			stats.end(SearchStats.Phase.SCORE);
+			return found;
+		}
+	};
+
+	abstract List<TopK> searchAll(int n, List<CompiledPattern> patterns, ImageView image, SearchStats stats);
+
+	/**
+	 * @return a boolean, true if the smallest score is the best one
+	 */
+	public boolean smallestFirst() {
+		return this == DISTANCE;
+	}
+
+	/**
+	 * Finds the n best positions of each pattern in an image. Patterns bigger than the image cannot be found in it,
+	 * and get an empty TopK.
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of CompiledPattern, the patterns to find
+	 * @param image : an ImageView, the RGB image where to look for the patterns
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 */
+	public List<TopK> search(int n, List<CompiledPattern> patterns, ImageView image) {
+		return search(n, patterns, image, SearchStats.DISABLED);
+	}
+
+	/**
+	 * Version of search measuring itself : the conversion to gray levels (for the similarity) and the scoring
+	 * (which includes the selection of the best positions) are measured, and the work of the scoring counted.
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of CompiledPattern, the patterns to find
+	 * @param image : an ImageView, the RGB image where to look for the patterns
+	 * @param stats : the SearchStats where the phases and the work are added
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 */
+	public List<TopK> search(int n, List<CompiledPattern> patterns, ImageView image, SearchStats stats) {
+		//Requirement : at least one position per pattern
+		assert n > 0;
+		assert patterns != null && image != null && stats != null;
+
+		List<CompiledPattern> fitting = new ArrayList<>(patterns.size());
+		for(CompiledPattern pattern : patterns) {
+			if(pattern.height() <= image.height() && pattern.width() <= image.width()) {
+				fitting.add(pattern);
+			}
+		}
+		List<TopK> found = fitting.isEmpty() ? List.of() : searchAll(n, fitting, image, stats);
+		List<TopK> results = new ArrayList<>(patterns.size());
+		int next = 0;
+		for(CompiledPattern pattern : patterns) {
+			if(next < fitting.size() && fitting.get(next) == pattern) {
+				results.add(found.get(next++));
+			}
+			else {
+				results.add(new TopK(n, smallestFirst()));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @param name : a String, the name of a metric, in any case ("distance", "SIMILARITY"...)
+	 * @return the Metric of this name
+	 * @throws IllegalArgumentException if there is no metric of this name
+	 */
+	public static Metric fromName(String name) {
+		try {
+			return valueOf(name.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown metric : " + name
+					+ ", expected one of " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+		}
+	}
+}
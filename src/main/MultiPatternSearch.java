@@ -0,0 +1,353 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Search of many patterns (of any sizes) in the same image at once, instead of one search per pattern.
+ * The image is converted once (to a GrayPlane for the similarity, to channel rows for the distance), and the
+ * patterns are grouped by height : the rows covered by an output row (and, for the similarity, their column sums)
+ * only depend on the height of the pattern, and are computed once per group. Each output row is then evaluated for
+ * all the patterns of the group one after the other, while its rows are in the cache : the image is read (and
+ * converted) once per group instead of once per pattern.
+ * For the distance, the channel sums of the windows are shared as well : they give a lower bound of the distance of
+ * each pattern, which skips most windows without looking at their pixels.
+ * Each pattern gets its own TopK, with the same results as the search of this pattern alone.
+ */
+public final class MultiPatternSearch {
+
+	/**
+	 * Finds the n positions of highest similarity (normalized cross correlation) of each pattern in the image.
+	 * The similarities are the ones of SimilarityBasedSearch.similarityMatrix(GrayPlane, GrayPlane).
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of 2D arrays of integers, the RGB patterns to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the patterns
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 * @throws IllegalArgumentException if a pattern is too big for exact integer sums
+	 * (see SimilarityBasedSearch.checkIntegerSums)
+	 */
+	public static List<TopK> similaritySearch(int n, List<int[][]> patterns, int[][] image) {
+		return similaritySearch(n, compile(patterns), ImageProcessing.toGrayPlane(image));
+	}
+
+	/**
+	 * Version of similaritySearch for compiled patterns and an image already converted to a GrayPlane,
+	 * for patterns or images searched more than once
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of CompiledPattern, the patterns to find
+	 * @param image : a GrayPlane, the gray-scale image where to look for the patterns
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 * @throws IllegalArgumentException if a pattern is too big for exact integer sums
+	 * (see SimilarityBasedSearch.checkIntegerSums)
+	 */
+	public static List<TopK> similaritySearch(int n, List<CompiledPattern> patterns, GrayPlane image) {
+		return similaritySearch(n, patterns, image, SearchStats.DISABLED);
+	}
+
+	/**
+	 * Version of similaritySearch counting its work (the windows of zero deviation, which get -1 without being
+	 * compared, are the pruned ones). The time spent is not measured here, but by the caller.
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of CompiledPattern, the patterns to find
+	 * @param image : a GrayPlane, the gray-scale image where to look for the patterns
+	 * @param stats : the SearchStats counting the windows and comparisons
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 * @throws IllegalArgumentException if a pattern is too big for exact integer sums
+	 * (see SimilarityBasedSearch.checkIntegerSums)
+	 */
+	public static List<TopK> similaritySearch(int n, List<CompiledPattern> patterns, GrayPlane image, SearchStats stats) {
+		checkPatterns(n, patterns, image.width(), image.height());
+
+		List<TopK> results = new ArrayList<>(patterns.size());
+		for(int p = 0; p < patterns.size(); p++) {
+			//The sums are exact integers, as in SimilarityBasedSearch.similarityMatrix(GrayPlane, GrayPlane)
+			SimilarityBasedSearch.checkIntegerSums(patterns.get(p).width(), patterns.get(p).height());
+			results.add(new TopK(n, false));
+		}
+		for(List<Integer> group : groupByHeight(patterns).values()) {
+			CompiledPattern[] members = new CompiledPattern[group.size()];
+			TopK[] best = new TopK[group.size()];
+			for(int k = 0; k < members.length; k++) {
+				members[k] = patterns.get(group.get(k));
+				best[k] = results.get(group.get(k));
+			}
+			similarityGroup(members, best, image, stats);
+		}
+		return results;
+	}
+
+	/**
+	 * Finds the n positions of smallest distance (mean absolute error) of each pattern in the image.
+	 * The distances are the ones of DistanceBasedSearch.distanceMatrix(ImageView, ImageView). A window is abandoned
+	 * as soon as its partial distance is worse than the n-th best distance of its pattern.
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of 2D arrays of integers, the RGB patterns to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the patterns
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 */
+	public static List<TopK> distanceSearch(int n, List<int[][]> patterns, int[][] image) {
+		return distanceSearch(n, compile(patterns), PackedImage.fromArray(image));
+	}
+
+	/**
+	 * Version of distanceSearch for compiled patterns and an image of any storage (see ImageView),
+	 * for patterns searched more than once
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of CompiledPattern, the patterns to find
+	 * @param image : an ImageView, the RGB image where to look for the patterns
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 */
+	public static List<TopK> distanceSearch(int n, List<CompiledPattern> patterns, ImageView image) {
+		return distanceSearch(n, patterns, image, SearchStats.DISABLED);
+	}
+
+	/**
+	 * Version of distanceSearch counting its work (the windows skipped by the lower bound or abandoned are the pruned
+	 * ones). The time spent is not measured here, but by the caller.
+	 * @param n : an integer, the number of positions to find per pattern
+	 * @param patterns : a List of CompiledPattern, the patterns to find
+	 * @param image : an ImageView, the RGB image where to look for the patterns
+	 * @param stats : the SearchStats counting the windows and comparisons
+	 * @return a List of TopK, the (at most n) best positions of each pattern, in the order of the patterns
+	 */
+	public static List<TopK> distanceSearch(int n, List<CompiledPattern> patterns, ImageView image, SearchStats stats) {
+		checkPatterns(n, patterns, image.width(), image.height());
+
+		List<TopK> results = new ArrayList<>(patterns.size());
+		for(int p = 0; p < patterns.size(); p++) {
+			results.add(new TopK(n, true));
+		}
+		for(List<Integer> group : groupByHeight(patterns).values()) {
+			CompiledPattern[] members = new CompiledPattern[group.size()];
+			TopK[] best = new TopK[group.size()];
+			for(int k = 0; k < members.length; k++) {
+				members[k] = patterns.get(group.get(k));
+				best[k] = results.get(group.get(k));
+			}
+			distanceGroup(members, best, image, stats);
+		}
+		return results;
+	}
+
+	private static List<CompiledPattern> compile(List<int[][]> patterns) {
+		//Requirement : patterns should all contain at least 1 pixel
+		assert patterns != null;
+		List<CompiledPattern> compiled = new ArrayList<>(patterns.size());
+		for(int[][] pattern : patterns) {
+			assert pattern != null && pattern.length > 0 && pattern[0].length > 0;
+			compiled.add(new CompiledPattern(pattern));
+		}
+		return compiled;
+	}
+
+	private static void checkPatterns(int n, List<CompiledPattern> patterns, int width, int height) {
+		//Requirement : at least one position per pattern
+		assert n > 0;
+		assert patterns != null;
+		for(CompiledPattern pattern : patterns) {
+			//Requirement : each pattern must entirely fit at least once into the image
+			assert pattern.height() <= height && pattern.width() <= width;
+		}
+	}
+
+	// Indices of the patterns, by height
+	private static Map<Integer, List<Integer>> groupByHeight(List<CompiledPattern> patterns) {
+		Map<Integer, List<Integer>> groups = new TreeMap<>();
+		for(int p = 0; p < patterns.size(); p++) {
+			groups.computeIfAbsent(patterns.get(p).height(), height -> new ArrayList<>()).add(p);
+		}
+		return groups;
+	}
+
+	/*
+	 * Similarity
+	 */
+
+	// Patterns all of the same height
+	private static void similarityGroup(CompiledPattern[] patterns, TopK[] best, GrayPlane image, SearchStats stats) {
+		int patternHeight = patterns[0].height();
+		int imageWidth = image.width();
+		short[] imageValues = image.data();
+
+		//Column sums and int rows of the patternHeight rows of the current output row, as in
+		//SimilarityBasedSearch.similarityMatrix(GrayPlane, GrayPlane), shared by all the patterns
+		long[] columnSums = new long[imageWidth];
+		long[] columnSquareSums = new long[imageWidth];
+		int[][] rows = new int[patternHeight][imageWidth];
+		//Prefix sums of the column sums : the window sums of any width are differences of two of them
+		long[] sums = new long[imageWidth+1];
+		long[] squareSums = new long[imageWidth+1];
+		int[][] window = new int[patternHeight][];
+		for(int i = 0; i < patternHeight; i++) {
+			SimilarityBasedSearch.addRow(columnSums, columnSquareSums, imageValues, i*imageWidth, 1);
+			SimilarityBasedSearch.toInts(imageValues, i*imageWidth, rows[i]);
+		}
+
+		for(int row = 0; row < image.height()-patternHeight+1; row++) {
+			if(row > 0) {
+				int entering = row+patternHeight-1;
+				SimilarityBasedSearch.addRow(columnSums, columnSquareSums, imageValues, (row-1)*imageWidth, -1);
+				SimilarityBasedSearch.addRow(columnSums, columnSquareSums, imageValues, entering*imageWidth, 1);
+				SimilarityBasedSearch.toInts(imageValues, entering*imageWidth, rows[entering % patternHeight]);
+			}
+			for(int x = 0; x < imageWidth; x++) {
+				sums[x+1] = sums[x] + columnSums[x];
+				squareSums[x+1] = squareSums[x] + columnSquareSums[x];
+			}
+			//The rows of the windows of this output row, top to bottom
+			for(int i = 0; i < patternHeight; i++) {
+				window[i] = rows[(row+i) % patternHeight];
+			}
+			for(int p = 0; p < patterns.length; p++) {
+				similarityRow(patterns[p], best[p], window, sums, squareSums, row, stats);
+			}
+		}
+	}
+
+	// Offers the similarities of a pattern for all the windows of an output row
+	private static void similarityRow(CompiledPattern pattern, TopK best, int[][] window, long[] sums, long[] squareSums, int row,
+			SearchStats stats) {
+		int patternWidth = pattern.width();
+		int[] values = pattern.graySums();
+		long pixels = pattern.pixels();
+		long patternSum = pattern.graySum();
+		double patternDeviation = pattern.grayDeviation();
+		double scale = 9.0*pixels;
+		int flat = 0;
+		for(int col = 0; col < sums.length-patternWidth; col++) {
+			long sum = sums[col+patternWidth] - sums[col];
+			long squareSum = squareSums[col+patternWidth] - squareSums[col];
+			double imageDeviation = pixels*squareSum - sum*sum;
+
+			double similarity;
+			if(Math.round(imageDeviation/scale * (patternDeviation/scale)) == 0) {
+				similarity = -1;
+				flat++;
+			}
+			else {
+				long product = 0;
+				for(int i = 0; i < window.length; i++) {
+					int[] imageRow = window[i];
+					int offset = i*patternWidth;
+					int rowProduct = 0;
+					for(int j = 0; j < patternWidth; j++) {
+						rowProduct += imageRow[col+j]*values[offset+j];
+					}
+					product += rowProduct;
+				}
+				similarity = (pixels*product - sum*patternSum) / Math.sqrt(imageDeviation*patternDeviation);
+			}
+			best.offer(similarity, row, col);
+		}
+		//Counted once per row, so that counting costs nothing
+		int windows = sums.length-patternWidth;
+		stats.count(windows, (windows - flat)*pixels, flat);
+	}
+
+	/*
+	 * Distance
+	 */
+
+	// Patterns all of the same height
+	private static void distanceGroup(CompiledPattern[] patterns, TopK[] best, ImageView image, SearchStats stats) {
+		int patternHeight = patterns[0].height();
+		int imageWidth = image.width();
+
+		//rows[c][r % patternHeight] contains the values of channel c of image row r, as in
+		//DistanceBasedSearch.distanceMatrix(ImageView, ImageView), shared by all the patterns
+		int[][][] rows = new int[3][patternHeight][imageWidth];
+		//Sums of each channel over the rows of the current output row, per column, and their prefix sums :
+		//|window sum - pattern sum| of a channel is a lower bound of its SAD (see DistanceBasedSearch.nBest)
+		long[][] columnSums = new long[3][imageWidth];
+		long[][] sums = new long[3][imageWidth+1];
+		for(int i = 0; i < patternHeight - 1; i++) {
+			image.readChannels(i, rows[0][i], rows[1][i], rows[2][i], 0);
+			for(int c = 0; c < 3; c++) {
+				addRow(columnSums[c], rows[c][i], 1);
+			}
+		}
+
+		//The rows of the windows of the current output row, top to bottom
+		int[][] red = new int[patternHeight][];
+		int[][] green = new int[patternHeight][];
+		int[][] blue = new int[patternHeight][];
+		for(int row = 0; row < image.height()-patternHeight+1; row++) {
+			//The entering row replaces the leaving one in the ring
+			int entering = (row+patternHeight-1) % patternHeight;
+			if(row > 0) {
+				for(int c = 0; c < 3; c++) {
+					addRow(columnSums[c], rows[c][entering], -1);
+				}
+			}
+			image.readChannels(row+patternHeight-1, rows[0][entering], rows[1][entering], rows[2][entering], 0);
+			for(int c = 0; c < 3; c++) {
+				addRow(columnSums[c], rows[c][entering], 1);
+				for(int x = 0; x < imageWidth; x++) {
+					sums[c][x+1] = sums[c][x] + columnSums[c][x];
+				}
+			}
+			for(int i = 0; i < patternHeight; i++) {
+				int ring = (row+i) % patternHeight;
+				red[i] = rows[0][ring];
+				green[i] = rows[1][ring];
+				blue[i] = rows[2][ring];
+			}
+			for(int p = 0; p < patterns.length; p++) {
+				distanceRow(patterns[p], best[p], red, green, blue, sums, row, stats);
+			}
+		}
+	}
+
+	// Offers the distances of a pattern for the windows of an output row better than its n-th best one
+	private static void distanceRow(CompiledPattern pattern, TopK best, int[][] red, int[][] green, int[][] blue,
+			long[][] sums, int row, SearchStats stats) {
+		int patternWidth = pattern.width();
+		double count = 3.0*pattern.pixels();
+		long[] patternSums = pattern.channelSums();
+		int[] patternRed = pattern.red();
+		int[] patternGreen = pattern.green();
+		int[] patternBlue = pattern.blue();
+		int windows = red[0].length-patternWidth+1;
+		int pruned = 0;
+		long comparedRows = 0;
+		for(int col = 0; col < windows; col++) {
+			//Windows are visited in row-major order, the first one wins in case of equality : a window is only
+			//kept if its SAD is strictly smaller than the one of the n-th best window (exact integer comparisons)
+			long limit = best.isFull() ? Math.round(best.worst() * count) : Long.MAX_VALUE;
+			long bound = 0;
+			for(int c = 0; c < 3; c++) {
+				bound += Math.abs(sums[c][col+patternWidth] - sums[c][col] - patternSums[c]);
+			}
+			if(bound >= limit) {
+				pruned++;
+				continue;
+			}
+			//Partial SADs only grow : the window is abandoned as soon as it reaches the limit
+			long sad = 0;
+			int i = 0;
+			for(; i < red.length && sad < limit; i++) {
+				sad += DistanceBasedSearch.rowSad(red[i], green[i], blue[i], col,
+						patternRed, patternGreen, patternBlue, i*patternWidth, patternWidth);
+			}
+			comparedRows += i;
+			if(sad < limit) {
+				best.offer(sad / count, row, col);
+			}
+			else if(i < red.length) {
+				//Abandoned before its last row
+				pruned++;
+			}
+		}
+		//Counted once per row, so that counting costs nothing
+		stats.count(windows, comparedRows*patternWidth, pruned);
+	}
+
+	// Adds (sign 1) or removes (sign -1) a row of channel values to the column sums
+	private static void addRow(long[] columnSums, int[] row, int sign) {
+		for(int x = 0; x < columnSums.length; x++) {
+			columnSums[x] += sign*row[x];
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package main;
+
+/**
+ * A RGB image stored in a single int array, row after row.
+ * Pixel (row, col) is at index offset + row*stride + col of the array : the stride (distance between two
+ * rows, at least the width) and the offset allow an image to be a view over a bigger array, without copy.
+ * Compared to an int[][], there is no object per row, only one bounds check per access,
+ * and a window spanning several rows lies in one contiguous block of memory.
+ */
+public final class PackedImage implements ImageView {
+
+	private final int[] data;
+	private final int offset;
+	private final int width;
+	private final int height;
+	private final int stride;
+
+	/**
+	 * Creates a new black image
+	 * @param width : an integer, the width of the image
+	 * @param height : an integer, the height of the image
+	 */
+	public PackedImage(int width, int height) {
+		this(new int[width*height], 0, width, height, width);
+	}
+
+	/**
+	 * Creates an image backed by the given array (no copy)
+	 * @param data : an array of packed RGB colors
+	 * @param offset : an integer, the index of pixel (0, 0) in data
+	 * @param width : an integer, the width of the image
+	 * @param height : an integer, the height of the image
+	 * @param stride : an integer, the distance in data between two vertically adjacent pixels
+	 */
+	public PackedImage(int[] data, int offset, int width, int height, int stride) {
+		//Requirement : image should contain at least 1 pixel, and fit in data
+		assert data != null;
+		assert width > 0 && height > 0;
+		assert stride >= width;
+		assert offset >= 0 && offset + (height-1)*stride + width <= data.length;
+
+		this.data = data;
+		this.offset = offset;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+	}
+
+	/**
+	 * Copies a 2D array into a new packed image
+	 * @param image : a HxW integer array of packed RGB colors
+	 * @return a new PackedImage with the same pixels
+	 */
+	public static PackedImage fromArray(int[][] image) {
+		//Requirement : image should contain at least 1 pixel
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+
+		PackedImage packed = new PackedImage(image[0].length, image.length);
+		for(int i = 0; i < image.length; i++) {
+			System.arraycopy(image[i], 0, packed.data, i*packed.width, packed.width);
+		}
+		return packed;
+	}
+
+	/**
+	 * Copies the image into a new 2D array
+	 * @return a HxW integer array of packed RGB colors
+	 */
+	public int[][] toArray() {
+		int[][] array = new int[height][width];
+		for(int i = 0; i < height; i++) {
+			System.arraycopy(data, offset + i*stride, array[i], 0, width);
+		}
+		return array;
+	}
+
+	/**
+	 * Returns a view (no copy) over a rectangular part of this image
+	 * @param row : an integer, the row-coordinate of the upper left corner of the part
+	 * @param col : an integer, the column-coordinate of the upper left corner of the part
+	 * @param width : an integer, the width of the part
+	 * @param height : an integer, the height of the part
+	 * @return a PackedImage sharing its pixels with this one
+	 */
+	public PackedImage subImage(int row, int col, int width, int height) {
+		//Requirement : the part is entirely in the image
+		assert row >= 0 && col >= 0;
+		assert row + height <= this.height && col + width <= this.width;
+
+		return new PackedImage(data, index(row, col), width, height, stride);
+	}
+
+	@Override
+	public int get(int row, int col) {
+		return data[index(row, col)];
+	}
+
+	@Override
+	public void readChannels(int row, int[] red, int[] green, int[] blue, int start) {
+		int n = index(row, 0);
+		for(int j = 0; j < width; j++) {
+			int rgb = data[n + j];
+			red[start + j] = (rgb >> 16) & 0xff;
+			green[start + j] = (rgb >> 8) & 0xff;
+			blue[start + j] = rgb & 0xff;
+		}
+	}
+
+	public void set(int row, int col, int rgb) {
+		data[index(row, col)] = rgb;
+	}
+
+	/**
+	 * @return an integer, the index of pixel (row, col) in data()
+	 */
+	public int index(int row, int col) {
+		return offset + row*stride + col;
+	}
+
+	/**
+	 * @return the backing array (not a copy)
+	 */
+	public int[] data() {
+		return data;
+	}
+
+	public int offset() {
+		return offset;
+	}
+
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+
+	public int stride() {
+		return stride;
+	}
+}
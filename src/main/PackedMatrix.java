@@ -0,0 +1,132 @@
+package main;
+
+/**
+ * A matrix of doubles (gray-scale image, distance or similarity matrix) stored in a single double array, row after row.
+ * Element (row, col) is at index offset + row*stride + col of the array : the stride (distance between two
+ * rows, at least the width) and the offset allow a matrix to be a view over a bigger array, without copy.
+ * Compared to a double[][], there is no object per row, only one bounds check per access,
+ * and a window spanning several rows lies in one contiguous block of memory.
+ */
+public final class PackedMatrix {
+
+	private final double[] data;
+	private final int offset;
+	private final int width;
+	private final int height;
+	private final int stride;
+
+	/**
+	 * Creates a new matrix filled with zeros
+	 * @param width : an integer, the width of the matrix
+	 * @param height : an integer, the height of the matrix
+	 */
+	public PackedMatrix(int width, int height) {
+		this(new double[width*height], 0, width, height, width);
+	}
+
+	/**
+	 * Creates a matrix backed by the given array (no copy)
+	 * @param data : an array of doubles
+	 * @param offset : an integer, the index of element (0, 0) in data
+	 * @param width : an integer, the width of the matrix
+	 * @param height : an integer, the height of the matrix
+	 * @param stride : an integer, the distance in data between two vertically adjacent elements
+	 */
+	public PackedMatrix(double[] data, int offset, int width, int height, int stride) {
+		//Requirement : matrix should contain at least 1 element, and fit in data
+		assert data != null;
+		assert width > 0 && height > 0;
+		assert stride >= width;
+		assert offset >= 0 && offset + (height-1)*stride + width <= data.length;
+
+		this.data = data;
+		this.offset = offset;
+		this.width = width;
+		this.height = height;
+		this.stride = stride;
+	}
+
+	/**
+	 * Copies a 2D array into a new packed matrix
+	 * @param matrix : a HxW double array
+	 * @return a new PackedMatrix with the same values
+	 */
+	public static PackedMatrix fromArray(double[][] matrix) {
+		//Requirement : matrix should contain at least 1 element
+		assert matrix != null;
+		assert matrix.length > 0;
+		assert matrix[0].length > 0;
+
+		PackedMatrix packed = new PackedMatrix(matrix[0].length, matrix.length);
+		for(int i = 0; i < matrix.length; i++) {
+			System.arraycopy(matrix[i], 0, packed.data, i*packed.width, packed.width);
+		}
+		return packed;
+	}
+
+	/**
+	 * Copies the matrix into a new 2D array
+	 * @return a HxW double array
+	 */
+	public double[][] toArray() {
+		double[][] array = new double[height][width];
+		for(int i = 0; i < height; i++) {
+			System.arraycopy(data, offset + i*stride, array[i], 0, width);
+		}
+		return array;
+	}
+
+	/**
+	 * Returns a view (no copy) over a rectangular part of this matrix
+	 * @param row : an integer, the row-coordinate of the upper left corner of the part
+	 * @param col : an integer, the column-coordinate of the upper left corner of the part
+	 * @param width : an integer, the width of the part
+	 * @param height : an integer, the height of the part
+	 * @return a PackedMatrix sharing its values with this one
+	 */
+	public PackedMatrix subMatrix(int row, int col, int width, int height) {
+		//Requirement : the part is entirely in the matrix
+		assert row >= 0 && col >= 0;
+		assert row + height <= this.height && col + width <= this.width;
+
+		return new PackedMatrix(data, index(row, col), width, height, stride);
+	}
+
+	public double get(int row, int col) {
+		return data[index(row, col)];
+	}
+
+	public void set(int row, int col, double value) {
+		data[index(row, col)] = value;
+	}
+
+	/**
+	 * @return an integer, the index of element (row, col) in data()
+	 */
+	public int index(int row, int col) {
+		return offset + row*stride + col;
+	}
+
+	/**
+	 * @return the backing array (not a copy)
+	 */
+	public double[] data() {
+		return data;
+	}
+
+	public int offset() {
+		return offset;
+	}
+
+	public int width() {
+		return width;
+	}
+
+	public int height() {
+		return height;
+	}
+
+	public int stride() {
+		return stride;
+	}
+}
@@ -0,0 +1,306 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Search of a single big image file while it is being decoded, instead of after.
+ * A producer thread decodes the image with an ImageReader, which reports each decoded row (IIOReadUpdateListener).
+ * Search workers compute the distance matrix band of output rows after band of output rows, from the top : a band
+ * is computed as soon as the image rows it covers (its rows + pattern height - 1) are decoded.
+ * The decoding and the search thus overlap, the whole run tends to max(decode, search) instead of decode + search.
+ * The Result gives the times of the phases and how much of the search was done during the decoding.
+ * Rows are only read while they are decoded for PNG files, which are decoded row after row from the top : other
+ * formats (progressive JPEG files would first give blurred rows), interlaced PNG files and images decoded into
+ * a BufferedImage without view (see Helper.hasView) are searched once fully decoded.
+ */
+public final class PipelinedSearch {
+
+	//Number of output rows computed at once by a worker
+	private static final int BAND_ROWS = 16;
+
+	/**
+	 * The distance matrix of a pipelined search, and the times of its phases
+	 */
+	public static final class Result {
+		private final double[][] matrix;
+		private final long decodeNanos;
+		private final long searchNanos;
+		private final long waitNanos;
+		private final long overlapNanos;
+		private final long totalNanos;
+
+		private Result(double[][] matrix, long decodeNanos, long searchNanos, long waitNanos, long overlapNanos,
+				long totalNanos) {
+			this.matrix = matrix;
+			this.decodeNanos = decodeNanos;
+			this.searchNanos = searchNanos;
+			this.waitNanos = waitNanos;
+			this.overlapNanos = overlapNanos;
+			this.totalNanos = totalNanos;
+		}
+
+		/**
+		 * @return a 2D array of doubles, the distance matrix (see DistanceBasedSearch.distanceMatrix(ImageView, ImageView))
+		 */
+		public double[][] matrix() {
+			return matrix;
+		}
+
+		/**
+		 * @return a long, the time in nanoseconds spent decoding the image (producer thread)
+		 */
+		public long decodeNanos() {
+			return decodeNanos;
+		}
+
+		/**
+		 * @return a long, the time in nanoseconds spent computing the matrix, summed over the workers
+		 */
+		public long searchNanos() {
+			return searchNanos;
+		}
+
+		/**
+		 * @return a long, the time in nanoseconds the workers waited for rows to be decoded, summed over the workers
+		 */
+		public long waitNanos() {
+			return waitNanos;
+		}
+
+		/**
+		 * @return a long, the part of searchNanos spent while the image was still being decoded
+		 */
+		public long overlapNanos() {
+			return overlapNanos;
+		}
+
+		/**
+		 * @return a long, the time in nanoseconds of the whole run (wall-clock)
+		 */
+		public long totalNanos() {
+			return totalNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("decode %.1f ms, search %.1f ms (%.1f ms during decode), wait %.1f ms, total %.1f ms",
+					decodeNanos / 1e6, searchNanos / 1e6, overlapNanos / 1e6, waitNanos / 1e6, totalNanos / 1e6);
+		}
+	}
+
+	/**
+	 * Computes the distance matrix of a pattern in an image file, searching the image while it is decoded
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param path : a String, the path of the image file where to look for the pattern
+	 * @param workers : an integer, the number of search threads (the decoding has its own thread)
+	 * @return a Result, containing the same matrix as DistanceBasedSearch.distanceMatrix(ImageView, ImageView)
+	 * @throws IOException if the image file cannot be read
+	 */
+	public static Result distanceMatrix(int[][] pattern, String path, int workers) throws IOException {
+		//Requirement : pattern is not empty, and at least one worker
+		assert pattern != null && pattern.length > 0 && pattern[0].length > 0;
+		assert workers > 0;
+
+		long start = System.nanoTime();
+		ImageInputStream stream = ImageIO.createImageInputStream(new File(path));
+		if(stream == null) {
+			throw new IOException("Cannot open " + path);
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+		if(!readers.hasNext()) {
+			stream.close();
+			throw new IOException("Unknown image format : " + path);
+		}
+		ImageReader reader = readers.next();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		Thread producer = null;
+		try {
+			reader.setInput(stream, true, true);
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			//Requirement : pattern must entirely fit at least once into the image
+			assert pattern.length <= height && pattern[0].length <= width;
+
+			Progress progress = new Progress("png".equalsIgnoreCase(reader.getFormatName()));
+			reader.addIIOReadUpdateListener(progress);
+			producer = new Thread(() -> progress.decode(reader), "decoder");
+			producer.start();
+
+			CompiledPattern compiled = new CompiledPattern(pattern);
+			double[][] matrix = new double[height - pattern.length + 1][width - pattern[0].length + 1];
+			AtomicInteger next = new AtomicInteger();
+			AtomicLong search = new AtomicLong();
+			AtomicLong wait = new AtomicLong();
+			AtomicLong overlap = new AtomicLong();
+			Future<?>[] tasks = new Future<?>[workers];
+			for(int t = 0; t < workers; t++) {
+				tasks[t] = pool.submit(() -> {
+					for(int from = next.getAndAdd(BAND_ROWS); from < matrix.length; from = next.getAndAdd(BAND_ROWS)) {
+						int to = Math.min(from + BAND_ROWS, matrix.length);
+						long waitStart = System.nanoTime();
+						ImageView image = progress.await(to + pattern.length - 1);
+						long bandStart = System.nanoTime();
+						DistanceBasedSearch.distanceRows(compiled, image, matrix, from, to);
+						long bandEnd = System.nanoTime();
+						wait.addAndGet(bandStart - waitStart);
+						search.addAndGet(bandEnd - bandStart);
+						overlap.addAndGet(Math.max(0, Math.min(bandEnd, progress.decodeEnd()) - bandStart));
+					}
+					return null;
+				});
+			}
+			for(Future<?> task : tasks) {
+				try {
+					task.get();
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			producer.join();
+			return new Result(matrix, progress.decodeEnd() - start, search.get(), wait.get(), overlap.get(),
+					System.nanoTime() - start);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted search of " + path, e);
+		} finally {
+			pool.shutdownNow();
+			//The reader cannot be disposed of while the producer is decoding
+			if(producer != null && producer.isAlive()) {
+				reader.abort();
+				joinUninterruptibly(producer);
+			}
+			reader.dispose();
+			stream.close();
+		}
+	}
+
+	private static void joinUninterruptibly(Thread thread) {
+		boolean interrupted = false;
+		while(thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// The rows decoded so far, shared by the producer and the workers. All the fields are guarded by this :
+	// the pixels of the published rows are written by the producer before they are published.
+	private static final class Progress implements IIOReadUpdateListener {
+		private ImageView image;
+		private int rows;
+		//Whether the rows can be read while they are decoded, row after row from the top
+		private boolean incremental;
+		private IOException failure;
+		private long decodeEnd = Long.MAX_VALUE;
+
+		Progress(boolean incremental) {
+			this.incremental = incremental;
+		}
+
+		// Decodes the whole image (run by the producer thread), then publishes all its rows
+		void decode(ImageReader reader) {
+			boolean decodedAll = false;
+			try {
+				BufferedImage decoded = reader.read(0);
+				synchronized(this) {
+					image = Helper.view(decoded);
+					rows = decoded.getHeight();
+				}
+				decodedAll = true;
+			} catch (IOException | RuntimeException e) {
+				synchronized(this) {
+					failure = e instanceof IOException ? (IOException) e : new IOException(e);
+				}
+			} finally {
+				synchronized(this) {
+					//An Error (OutOfMemoryError...) must not leave the workers waiting for rows which never come
+					if(!decodedAll && failure == null) {
+						failure = new IOException("The decoding of the image stopped");
+					}
+					decodeEnd = System.nanoTime();
+					notifyAll();
+				}
+			}
+		}
+
+		// Waits until the first rows of the image are decoded, and gives a view of the image
+		synchronized ImageView await(int rows) throws IOException, InterruptedException {
+			while(this.rows < rows && failure == null) {
+				wait();
+			}
+			if(failure != null) {
+				throw failure;
+			}
+			return image;
+		}
+
+		// The end time of the decoding, Long.MAX_VALUE while it is running
+		synchronized long decodeEnd() {
+			return decodeEnd;
+		}
+
+		@Override
+		public synchronized void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass,
+				int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+			//The rows of an interlaced image are only complete after the last pass, none of which covers every row
+			if(periodY != 1 || !Helper.hasView(theImage)) {
+				incremental = false;
+			}
+			else if(image == null) {
+				image = Helper.view(theImage);
+			}
+		}
+
+		@Override
+		public synchronized void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY,
+				int width, int height, int periodX, int periodY, int[] bands) {
+			if(incremental && image != null && periodY == 1 && minY <= rows) {
+				int decoded = minY + height;
+				if(decoded > rows) {
+					rows = decoded;
+					notifyAll();
+				}
+			}
+		}
+
+		@Override
+		public void passComplete(ImageReader source, BufferedImage theImage) {
+		}
+
+		@Override
+		public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass,
+				int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+		}
+
+		@Override
+		public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY,
+				int width, int height, int periodX, int periodY, int[] bands) {
+		}
+
+		@Override
+		public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+		}
+	}
+}
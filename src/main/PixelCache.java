@@ -0,0 +1,112 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.UUID;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A directory of raw images (see MappedImage), one per source image file, so that an image searched
+ * again and again is decoded only once : the next runs just map the raw file in memory.
+ * An entry is found from the absolute path of the source image, and is only used if the size and
+ * modification time of the source image are still the ones recorded in it : otherwise the image
+ * is decoded again and the entry replaced.
+ */
+public final class PixelCache {
+
+	private final Path directory;
+
+	/**
+	 * @param directory : a Path, the directory of the raw images (created when needed)
+	 */
+	public PixelCache(Path directory) {
+		assert directory != null;
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the cache in the directory where-is-waldo-cache of the temporary directory of the system
+	 */
+	public static PixelCache defaultCache() {
+		return new PixelCache(Paths.get(System.getProperty("java.io.tmpdir"), "where-is-waldo-cache"));
+	}
+
+	/**
+	 * Opens an image through the cache : maps its raw image if it is up to date, otherwise decodes the image
+	 * (see Helper.view), writes its raw image and maps it.
+	 * @param path : a String, the path of the source image file
+	 * @return the MappedImage of the source image
+	 * @throws IOException if the source image cannot be read, or the cache cannot be written
+	 */
+	public MappedImage open(String path) throws IOException {
+		Path source = Paths.get(path).toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		Path entry = entry(source);
+		if(Files.exists(entry)) {
+			try {
+				MappedImage cached = MappedImage.map(entry);
+				if(cached.sourceSize() == size && cached.sourceModified() == modified) {
+					return cached;
+				}
+			} catch (IOException e) {
+				//Invalid entry (other format, or interrupted writing) : written again below
+			}
+		}
+
+		BufferedImage image = ImageIO.read(source.toFile());
+		if(image == null) {
+			throw new IOException("Unknown image format : " + source);
+		}
+		ImageView decoded = Helper.view(image);
+		Files.createDirectories(directory);
+		//Written aside then moved, so that another process never maps a half written entry
+		Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+		try {
+			MappedImage.write(temporary, decoded, size, modified);
+			Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		return MappedImage.map(entry);
+	}
+
+	/**
+	 * @param path : a String, the path of a source image file
+	 * @return a boolean, true if the cache holds an up to date raw image of it
+	 */
+	public boolean contains(String path) {
+		try {
+			Path source = Paths.get(path).toAbsolutePath().normalize();
+			BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+			MappedImage image = MappedImage.map(entry(source));
+			return image.sourceSize() == attributes.size()
+					&& image.sourceModified() == attributes.lastModifiedTime().toMillis();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the raw image of a source image, if any
+	 * @param path : a String, the path of a source image file
+	 * @throws IOException if the raw image cannot be deleted
+	 */
+	public void remove(String path) throws IOException {
+		Files.deleteIfExists(entry(Paths.get(path).toAbsolutePath().normalize()));
+	}
+
+	// The raw file of a source image : a name derived from its absolute path
+	private Path entry(Path source) {
+		return directory.resolve(UUID.nameUUIDFromBytes(source.toString().getBytes(StandardCharsets.UTF_8)) + ".raw");
+	}
+}
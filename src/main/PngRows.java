@@ -0,0 +1,238 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Sequential reader of the rows of a PNG file, from the top : each row is decoded once, and only the previous
+ * row is kept (for the filters), whatever the size of the image. ImageIO always decodes into an image of the
+ * size of the region read, which for a gigapixel scene does not fit in memory.
+ * Only the non-interlaced PNG files of 8 bits RGB or RGBA pixels without ICC profile are read : they give the
+ * same colors as ImageIO (BufferedImage.getRGB). open returns null for the others.
+ */
+final class PngRows implements AutoCloseable {
+
+	private static final long SIGNATURE = 0x89504e470d0a1a0aL;
+	private static final int IHDR = 0x49484452;
+	private static final int IDAT = 0x49444154;
+	private static final int ICCP = 0x69434350;
+
+	private final DataInputStream file;
+	private final InputStream data;
+	private final int width;
+	private final int height;
+	//Bytes per pixel : 3 (RGB) or 4 (RGBA)
+	private final int pixelBytes;
+	private byte[] row;
+	private byte[] previous;
+	private int next;
+
+	private PngRows(DataInputStream file, int width, int height, int pixelBytes, int firstDataLength) {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.pixelBytes = pixelBytes;
+		data = new InflaterInputStream(new DataChunks(firstDataLength), new Inflater(), 1 << 16);
+		row = new byte[width*pixelBytes];
+		previous = new byte[width*pixelBytes];
+	}
+
+	/**
+	 * Opens a PNG file and reads its header, up to the first row
+	 * @param path : a String, the path of the image file
+	 * @return the PngRows of the file, or null if it is not a PNG file this class reads
+	 * @throws IOException if the file cannot be read
+	 */
+	static PngRows open(String path) throws IOException {
+		DataInputStream file = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(path)), 1 << 16));
+		try {
+			if(file.readLong() != SIGNATURE) {
+				file.close();
+				return null;
+			}
+			int width = 0;
+			int height = 0;
+			int pixelBytes = 0;
+			while(true) {
+				int length = file.readInt();
+				int type = file.readInt();
+				if(type == IHDR) {
+					width = file.readInt();
+					height = file.readInt();
+					int bitDepth = file.readUnsignedByte();
+					int colorType = file.readUnsignedByte();
+					file.skipNBytes(2); //compression and filter methods, a single one of each exists
+					int interlace = file.readUnsignedByte();
+					file.skipNBytes(length - 13 + 4); //CRC
+					if(bitDepth != 8 || (colorType != 2 && colorType != 6) || interlace != 0 || width <= 0 || height <= 0) {
+						file.close();
+						return null;
+					}
+					pixelBytes = colorType == 2 ? 3 : 4;
+				}
+				else if(type == ICCP || (type == IDAT && pixelBytes == 0)) {
+					//ImageIO converts the colors of a profile, and a PNG file has its header before its pixels
+					file.close();
+					return null;
+				}
+				else if(type == IDAT) {
+					return new PngRows(file, width, height, pixelBytes, length);
+				}
+				else {
+					file.skipNBytes(length + 4L);
+				}
+			}
+		} catch (EOFException e) {
+			file.close();
+			throw new IOException("Truncated PNG file : " + path, e);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return an integer, the width of the image
+	 */
+	int width() {
+		return width;
+	}
+
+	/**
+	 * @return an integer, the height of the image
+	 */
+	int height() {
+		return height;
+	}
+
+	/**
+	 * Decodes the next row of the image
+	 * @param pixels : an array of at least width integers, where the packed ARGB colors of the row are written
+	 * @throws IOException if the file cannot be read, or is not a valid PNG file
+	 */
+	void readRow(int[] pixels) throws IOException {
+		if(next >= height) {
+			throw new IOException("No row left");
+		}
+		int filter = data.read();
+		if(filter < 0) {
+			throw new IOException("Truncated PNG data");
+		}
+		byte[] swap = previous;
+		previous = row;
+		row = swap;
+		readFully(row);
+		unfilter(filter);
+		for(int j = 0, k = 0; j < width; j++, k += pixelBytes) {
+			int alpha = pixelBytes == 4 ? row[k+3] & 0xff : 0xff;
+			pixels[j] = alpha << 24 | (row[k] & 0xff) << 16 | (row[k+1] & 0xff) << 8 | (row[k+2] & 0xff);
+		}
+		next++;
+	}
+
+	private void readFully(byte[] bytes) throws IOException {
+		for(int n = 0; n < bytes.length; ) {
+			int read = data.read(bytes, n, bytes.length - n);
+			if(read < 0) {
+				throw new IOException("Truncated PNG data");
+			}
+			n += read;
+		}
+	}
+
+	// Undoes the filter of the row, against the previous row (all zeros before the first row)
+	private void unfilter(int filter) throws IOException {
+		int length = row.length;
+		switch(filter) {
+		case 0:
+			break;
+		case 1:
+			for(int k = pixelBytes; k < length; k++) {
+				row[k] += row[k - pixelBytes];
+			}
+			break;
+		case 2:
+			for(int k = 0; k < length; k++) {
+				row[k] += previous[k];
+			}
+			break;
+		case 3:
+			for(int k = 0; k < length; k++) {
+				int left = k >= pixelBytes ? row[k - pixelBytes] & 0xff : 0;
+				row[k] += (left + (previous[k] & 0xff)) >>> 1;
+			}
+			break;
+		case 4:
+			for(int k = 0; k < length; k++) {
+				int left = k >= pixelBytes ? row[k - pixelBytes] & 0xff : 0;
+				int up = previous[k] & 0xff;
+				int upLeft = k >= pixelBytes ? previous[k - pixelBytes] & 0xff : 0;
+				row[k] += paeth(left, up, upLeft);
+			}
+			break;
+		default:
+			throw new IOException("Unknown PNG filter : " + filter);
+		}
+	}
+
+	// The neighbour closest to left + up - upLeft, in this order in case of a tie
+	private static int paeth(int left, int up, int upLeft) {
+		int estimate = left + up - upLeft;
+		int toLeft = Math.abs(estimate - left);
+		int toUp = Math.abs(estimate - up);
+		int toUpLeft = Math.abs(estimate - upLeft);
+		if(toLeft <= toUp && toLeft <= toUpLeft) {
+			return left;
+		}
+		return toUp <= toUpLeft ? up : upLeft;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	// The compressed pixels : the data of the consecutive IDAT chunks, as a single stream
+	private final class DataChunks extends InputStream {
+		private int left;
+		private boolean ended;
+
+		DataChunks(int firstLength) {
+			left = firstLength;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			while(left == 0) {
+				if(ended) {
+					return -1;
+				}
+				file.skipNBytes(4); //CRC
+				left = file.readInt();
+				if(file.readInt() != IDAT) {
+					ended = true;
+					left = 0;
+				}
+			}
+			int read = file.read(bytes, offset, Math.min(length, left));
+			if(read < 0) {
+				throw new EOFException("Truncated PNG file");
+			}
+			left -= read;
+			return read;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package main;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Coarse-to-fine search over image pyramids.
+ * Image and pattern are downsampled by 2 (each pixel of a level is the mean of a 2x2 block of the level below)
+ * as many times as requested. The exhaustive search only runs at the coarsest level, which is 4 times
+ * smaller per level. Then, at each finer level, only small neighbourhoods around the best candidates
+ * of the coarser level are evaluated.
+ * This is much faster on big images, but may miss the best match when the pattern has fine details
+ * that disappear at the coarsest level : use few levels for small patterns.
+ */
+public final class PyramidSearch {
+
+	//Half size of the neighbourhood evaluated around each candidate : position (r, c) of a level
+	//is refined over [2r-RADIUS, 2r+RADIUS] x [2c-RADIUS, 2c+RADIUS] of the level below
+	private static final int RADIUS = 2;
+
+	//The pattern of the coarsest level keeps at least this size (levels are dropped otherwise)
+	private static final int MIN_PATTERN_SIZE = 4;
+
+	/**
+	 * Finds the n positions of the pattern with the smallest distance (mean absolute error) in the image
+	 * @param n : an integer, the number of positions we want to find
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an 2D array of integers, the RGB image where to look for the pattern
+	 * @param levels : an integer, the number of levels of the pyramid (1 means an exhaustive search)
+	 * @param candidates : an integer, the number of positions kept at each level to be refined at the next one
+	 * @return an array of at most n row, column-coordinate pairs (full resolution), best first
+	 */
+	public static int[][] distanceSearch(int n, int[][] pattern, int[][] image, int levels, int candidates) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		assert n > 0 && levels > 0 && candidates > 0;
+
+		levels = usableLevels(pattern.length, pattern[0].length, levels);
+		int[][][] patterns = new int[levels][][];
+		int[][][] images = new int[levels][][];
+		patterns[0] = pattern;
+		images[0] = image;
+		for(int l = 1; l < levels; l++) {
+			patterns[l] = downsample(patterns[l-1]);
+			images[l] = downsample(images[l-1]);
+		}
+
+		//Exhaustive search at the coarsest level
+		int coarsest = levels - 1;
+		TopK best = DistanceBasedSearch.nBest(levels == 1 ? n : candidates, patterns[coarsest], images[coarsest],
+				Double.POSITIVE_INFINITY);
+
+		for(int l = coarsest - 1; l >= 0; l--) {
+			int[][] levelPattern = patterns[l];
+			int[][] levelImage = images[l];
+			TopK refined = new TopK(l == 0 ? n : candidates, true);
+			for(long position : neighbourhoods(best, levelPattern.length, levelPattern[0].length,
+					levelImage.length, levelImage[0].length)) {
+				int row = TopK.row(position);
+				int col = TopK.col(position);
+				refined.offer(DistanceBasedSearch.meanAbsoluteError(row, col, levelPattern, levelImage), row, col);
+			}
+			best = refined;
+		}
+		return best.coordinates();
+	}
+
+	/**
+	 * Finds the n positions of the pattern with the highest similarity (normalized cross correlation) in the image
+	 * @param n : an integer, the number of positions we want to find
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @param levels : an integer, the number of levels of the pyramid (1 means an exhaustive search)
+	 * @param candidates : an integer, the number of positions kept at each level to be refined at the next one
+	 * @return an array of at most n row, column-coordinate pairs (full resolution), best first
+	 */
+	public static int[][] similaritySearch(int n, double[][] pattern, double[][] image, int levels, int candidates) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		assert n > 0 && levels > 0 && candidates > 0;
+
+		levels = usableLevels(pattern.length, pattern[0].length, levels);
+		double[][][] patterns = new double[levels][][];
+		double[][][] images = new double[levels][][];
+		patterns[0] = pattern;
+		images[0] = image;
+		for(int l = 1; l < levels; l++) {
+			patterns[l] = downsample(patterns[l-1]);
+			images[l] = downsample(images[l-1]);
+		}
+
+		//Exhaustive search at the coarsest level
+		int coarsest = levels - 1;
+		TopK best = SimilarityBasedSearch.nBest(levels == 1 ? n : candidates, patterns[coarsest], images[coarsest],
+				Double.NEGATIVE_INFINITY);
+
+		for(int l = coarsest - 1; l >= 0; l--) {
+			double[][] levelPattern = patterns[l];
+			double[][] levelImage = images[l];
+			int patternHeight = levelPattern.length;
+			int patternWidth = levelPattern[0].length;
+			double[] centeredPattern = SimilarityBasedSearch.centeredPattern(levelPattern);
+			double patternDeviation = SimilarityBasedSearch.squaredDeviation(centeredPattern);
+			IntegralImage integral = new IntegralImage(levelImage);
+
+			TopK refined = new TopK(l == 0 ? n : candidates, false);
+			for(long position : neighbourhoods(best, patternHeight, patternWidth, levelImage.length, levelImage[0].length)) {
+				int row = TopK.row(position);
+				int col = TopK.col(position);
+				refined.offer(SimilarityBasedSearch.normalizedCrossCorrelation(row, col, centeredPattern,
+						patternWidth, patternHeight, patternDeviation, levelImage, integral), row, col);
+			}
+			best = refined;
+		}
+		return best.coordinates();
+	}
+
+	/**
+	 * Halves the size of a RGB image, each pixel being the mean color of a 2x2 block (odd last row and column are dropped)
+	 * @param image : a HxW integer array of packed RGB colors, at least 2x2
+	 * @return a (H/2)x(W/2) integer array of packed RGB colors
+	 */
+	public static int[][] downsample(int[][] image) {
+		int[][] half = new int[image.length/2][image[0].length/2];
+		for(int i = 0; i < half.length; i++) {
+			for(int j = 0; j < half[0].length; j++) {
+				int a = image[2*i][2*j];
+				int b = image[2*i][2*j+1];
+				int c = image[2*i+1][2*j];
+				int d = image[2*i+1][2*j+1];
+				//+2 to round to the nearest value
+				half[i][j] = ImageProcessing.getRGB(
+						(ImageProcessing.getRed(a) + ImageProcessing.getRed(b) + ImageProcessing.getRed(c) + ImageProcessing.getRed(d) + 2) / 4,
+						(ImageProcessing.getGreen(a) + ImageProcessing.getGreen(b) + ImageProcessing.getGreen(c) + ImageProcessing.getGreen(d) + 2) / 4,
+						(ImageProcessing.getBlue(a) + ImageProcessing.getBlue(b) + ImageProcessing.getBlue(c) + ImageProcessing.getBlue(d) + 2) / 4);
+			}
+		}
+		return half;
+	}
+
+	/**
+	 * Halves the size of a gray-scale image, each value being the mean of a 2x2 block (odd last row and column are dropped)
+	 * @param image : a HxW double array, at least 2x2
+	 * @return a (H/2)x(W/2) double array
+	 */
+	public static double[][] downsample(double[][] image) {
+		double[][] half = new double[image.length/2][image[0].length/2];
+		for(int i = 0; i < half.length; i++) {
+			for(int j = 0; j < half[0].length; j++) {
+				half[i][j] = (image[2*i][2*j] + image[2*i][2*j+1] + image[2*i+1][2*j] + image[2*i+1][2*j+1]) / 4;
+			}
+		}
+		return half;
+	}
+
+	// Number of levels that keep the coarsest pattern at least MIN_PATTERN_SIZE wide and high
+	private static int usableLevels(int patternHeight, int patternWidth, int levels) {
+		int usable = 1;
+		while(usable < levels && Math.min(patternHeight, patternWidth) >> usable >= MIN_PATTERN_SIZE) {
+			usable++;
+		}
+		return usable;
+	}
+
+	// Distinct positions (packed as in TopK) of the finer level around the candidates of the coarser level,
+	// restricted to the positions where the pattern fits entirely in the image
+	private static Set<Long> neighbourhoods(TopK candidates, int patternHeight, int patternWidth,
+			int imageHeight, int imageWidth) {
+		Set<Long> positions = new HashSet<Long>();
+		for(int[] candidate : candidates.coordinates()) {
+			for(int row = 2*candidate[0] - RADIUS; row <= 2*candidate[0] + RADIUS; row++) {
+				for(int col = 2*candidate[1] - RADIUS; col <= 2*candidate[1] + RADIUS; col++) {
+					if(row >= 0 && col >= 0 && row <= imageHeight - patternHeight && col <= imageWidth - patternWidth) {
+						positions.add(TopK.pack(row, col));
+					}
+				}
+			}
+		}
+		return positions;
+	}
+}
@@ -0,0 +1,119 @@
+package main;
+
+/**
+ * A RGB image stored as three separate planes (structure of arrays) : one byte per pixel and per channel,
+ * row after row, in three contiguous arrays.
+ * The colors are unpacked once, when the planes are made, instead of each time a pixel is read :
+ * the search loops then run over plain arrays of channel values, which the JIT can vectorize.
+ * A pixel takes 3 bytes instead of the 4 of a packed int.
+ */
+public final class RgbPlanes implements ImageView {
+
+	private final byte[] red;
+	private final byte[] green;
+	private final byte[] blue;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Creates a new black image
+	 * @param width : an integer, the width of the image
+	 * @param height : an integer, the height of the image
+	 */
+	public RgbPlanes(int width, int height) {
+		//Requirement : image should contain at least 1 pixel
+		assert width > 0 && height > 0;
+
+		this.red = new byte[width*height];
+		this.green = new byte[width*height];
+		this.blue = new byte[width*height];
+		this.width = width;
+		this.height = height;
+	}
+
+	@Override
+	public int get(int row, int col) {
+		int n = index(row, col);
+		return ImageProcessing.getRGB(red[n] & 0xff, green[n] & 0xff, blue[n] & 0xff);
+	}
+
+	@Override
+	public void readChannels(int row, int[] red, int[] green, int[] blue, int start) {
+		int n = index(row, 0);
+		for(int j = 0; j < width; j++) {
+			red[start + j] = this.red[n + j] & 0xff;
+			green[start + j] = this.green[n + j] & 0xff;
+			blue[start + j] = this.blue[n + j] & 0xff;
+		}
+	}
+
+	/**
+	 * @param row : an integer, the row-coordinate of the pixel
+	 * @param col : an integer, the column-coordinate of the pixel
+	 * @param rgb : a 32-bits RGB color, the packed color of the pixel
+	 */
+	public void set(int row, int col, int rgb) {
+		int n = index(row, col);
+		red[n] = (byte) ImageProcessing.getRed(rgb);
+		green[n] = (byte) ImageProcessing.getGreen(rgb);
+		blue[n] = (byte) ImageProcessing.getBlue(rgb);
+	}
+
+	/**
+	 * Converts the planes back to packed colors
+	 * @return a HxW integer array of packed RGB colors
+	 */
+	public int[][] toArray() {
+		int[][] image = new int[height][width];
+		for(int i = 0; i < height; i++) {
+			for(int j = 0; j < width; j++) {
+				image[i][j] = get(i, j);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @param row : an integer, the row-coordinate of the pixel
+	 * @param col : an integer, the column-coordinate of the pixel
+	 * @return an integer, the index of the pixel in the planes
+	 */
+	public int index(int row, int col) {
+		//Requirement : pixel is inside the image
+		assert row >= 0 && row < height;
+		assert col >= 0 && col < width;
+
+		return row*width + col;
+	}
+
+	/**
+	 * @return the red plane (not a copy), pixel (row, col) being at index row*width + col (unsigned bytes)
+	 */
+	public byte[] red() {
+		return red;
+	}
+
+	/**
+	 * @return the green plane (not a copy), see red()
+	 */
+	public byte[] green() {
+		return green;
+	}
+
+	/**
+	 * @return the blue plane (not a copy), see red()
+	 */
+	public byte[] blue() {
+		return blue;
+	}
+
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+}
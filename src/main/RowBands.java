@@ -0,0 +1,88 @@
+package main;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the rows of an output matrix into bands computed in parallel over a ForkJoinPool.
+ * Each band is handled by a single thread, and two bands never share a row, so a band can write
+ * its rows of the output without any synchronization.
+ */
+final class RowBands {
+
+	/**
+	 * Work done on a band of consecutive rows
+	 */
+	interface Band {
+		/**
+		 * @param fromRow : an integer, the first row of the band (inclusive)
+		 * @param toRow : an integer, the last row of the band (exclusive)
+		 */
+		void compute(int fromRow, int toRow);
+	}
+
+	private RowBands() {}
+
+	/**
+	 * Runs band over rows [0, rows) in a new pool with the given number of threads, shut down afterwards
+	 * @param rows : an integer, the number of rows of the output
+	 * @param band : the work to do on each band
+	 * @param parallelism : an integer, the number of worker threads (at least 1)
+	 */
+	static void run(int rows, Band band, int parallelism) {
+		//Requirement : at least one thread
+		assert parallelism > 0;
+
+		if(parallelism == 1) {
+			band.compute(0, rows);
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			run(rows, band, pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Runs band over rows [0, rows) in the given pool and waits for all bands to be done
+	 * @param rows : an integer, the number of rows of the output
+	 * @param band : the work to do on each band
+	 * @param pool : the ForkJoinPool to run the bands in
+	 */
+	static void run(int rows, Band band, ForkJoinPool pool) {
+		assert pool != null;
+
+		//A few bands per thread, so that a thread done early can steal work from a slower one
+		int bandHeight = Math.max(1, rows / (4*pool.getParallelism()));
+		pool.invoke(new Task(band, 0, rows, bandHeight));
+	}
+
+	@SuppressWarnings("serial")
+	private static final class Task extends RecursiveAction {
+		private final Band band;
+		private final int fromRow;
+		private final int toRow;
+		private final int bandHeight;
+
+		Task(Band band, int fromRow, int toRow, int bandHeight) {
+			this.band = band;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.bandHeight = bandHeight;
+		}
+
+		@Override
+		protected void compute() {
+			if(toRow - fromRow <= bandHeight) {
+				band.compute(fromRow, toRow);
+			}
+			else {
+				int middle = (fromRow + toRow) >>> 1;
+				invokeAll(new Task(band, fromRow, middle, bandHeight), new Task(band, middle, toRow, bandHeight));
+			}
+		}
+	}
+}
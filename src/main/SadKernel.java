@@ -0,0 +1,54 @@
+package main;
+
+/**
+ * Sum of absolute differences (SAD) between a row of pattern pixels and a row of image pixels,
+ * computed with integer arithmetic : sum(|dRed| + |dGreen| + |dBlue|) over the row.
+ * The mean absolute error of a window is then the sum of the SAD of its rows divided once by 3*h*w : all the
+ * kernels give exactly the same value, which differs from DistanceBasedSearch.meanAbsoluteError(int, int, int[][],
+ * int[][]) (a division by 3 per pixel) by rounding errors only, below 1e-12.
+ *
+ * Two implementations exist : SCALAR, always available, and a SIMD one using the Java Vector API
+ * (jdk.incubator.vector), see vector(). The SIMD kernel is compiled separately (source folder src-vector),
+ * and is only used when the JVM is started with --add-modules jdk.incubator.vector.
+ */
+public interface SadKernel {
+
+	/**
+	 * @param pattern : an array of packed RGB colors
+	 * @param patternStart : an integer, the index of the first pattern pixel of the row
+	 * @param image : an array of packed RGB colors
+	 * @param imageStart : an integer, the index of the first image pixel of the row
+	 * @param length : an integer, the number of pixels of the row
+	 * @return an integer, the sum of the absolute differences of the three channels over the row
+	 */
+	int rowSad(int[] pattern, int patternStart, int[] image, int imageStart, int length);
+
+	/**
+	 * Plain Java kernel, one pixel at a time
+	 */
+	SadKernel SCALAR = (pattern, patternStart, image, imageStart, length) -> {
+		int sad = 0;
+		for(int j = 0; j < length; j++) {
+			int p = pattern[patternStart + j];
+			int q = image[imageStart + j];
+			sad += Math.abs(((p >> 16) & 0xFF) - ((q >> 16) & 0xFF))
+					+ Math.abs(((p >> 8) & 0xFF) - ((q >> 8) & 0xFF))
+					+ Math.abs((p & 0xFF) - (q & 0xFF));
+		}
+		return sad;
+	};
+
+	/**
+	 * Returns the SIMD kernel (several pixels per instruction) if it can be loaded, SCALAR otherwise.
+	 * Both always give exactly the same result (integer sums).
+	 * @return a SadKernel
+	 */
+	static SadKernel vector() {
+		try {
+			return (SadKernel) Class.forName("main.VectorSadKernel").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			//Kernel not compiled, or jdk.incubator.vector module not added to the JVM
+			return SCALAR;
+		}
+	}
+}
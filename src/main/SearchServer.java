@@ -0,0 +1,538 @@
+package main;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A search service, so that many searches share one JVM (and its JIT-compiled engines) instead of starting one each.
+ * It only listens on the loopback address, and each request is handled by its own virtual thread (when the JVM has
+ * them, Java 21 and later, otherwise by a pool of platform threads, see DirectorySearch).
+ * Decoded images and compiled patterns are kept in a cache bounded in bytes, which drops the least recently used ones
+ * first : an image or a pattern searched again is neither read nor decoded (nor compiled) again.
+ * Endpoints (all the answers are JSON) :
+ * POST /images, POST /patterns : the body is an image file (PNG, JPEG...), which is decoded (and, for a pattern,
+ * compiled) and cached. The answer gives its id (a hash of the file) : {"id":...,"width":...,"height":...}.
+ * An upload dropped from the cache must be uploaded again.
+ * GET /search?image=ID&pattern=ID[&pattern=ID...][&metric=distance|similarity][&n=K] : the n best positions of each
+ * pattern, {"image":...,"metric":...,"patterns":[{"pattern":...,"results":[{"rank":...,"row":...,"col":...,
+ * "score":...}...]}...],"millis":...}. Instead of ids, imagePath=PATH and patternPath=PATH give files on the server,
+ * relative to its directory (files outside of it are refused). With stats=true, the answer also has the "stats" of the
+ * search (see SearchStats : the decoding counted is the one of the files not cached yet, and the CPU time and allocated
+ * bytes are -1 when requests run on virtual threads, Java 21 and later).
+ * GET /metrics : the numbers of requests and failures, the latency percentiles of the searches and uploads (over the
+ * last 1024 of each) and the cache statistics (entries, bytes, hit rate...).
+ * Errors are answered with the matching status and {"error":...}.
+ */
+public final class SearchServer {
+
+	//Largest file accepted in an upload, in bytes
+	private static final int MAX_UPLOAD = 64 << 20;
+	//Number of latencies kept per endpoint for the percentiles
+	private static final int LATENCIES = 1024;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	//Real path of the directory of the files given by path
+	private final Path root;
+	private final Cache cache;
+	private final long started = System.nanoTime();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final Latencies searches = new Latencies();
+	private final Latencies uploads = new Latencies();
+
+	/**
+	 * Creates a server (not started yet) on the loopback address
+	 * @param port : an integer, the port to listen on, 0 for any free port (see port())
+	 * @param root : a Path, the directory of the files which can be searched by path
+	 * @param cacheBytes : a long, the size of the cache of decoded images and compiled patterns, in bytes
+	 * @throws IOException if the port cannot be used or root does not exist
+	 */
+	public SearchServer(int port, Path root, long cacheBytes) throws IOException {
+		//Requirement : a valid port and a cache size
+		assert port >= 0 && port <= 0xFFFF;
+		assert root != null && cacheBytes >= 0;
+
+		this.root = root.toRealPath();
+		cache = new Cache(cacheBytes);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = DirectorySearch.perTaskExecutor(2*Runtime.getRuntime().availableProcessors());
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+	}
+
+	/**
+	 * Starts answering requests, in the background
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the server, without waiting for the requests being answered
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return an integer, the port the server listens on
+	 */
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	// Answers a request
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		requests.incrementAndGet();
+		String endpoint = exchange.getRequestURI().getPath();
+		Latencies latencies = null;
+		int status = 200;
+		String answer;
+		try {
+			switch(endpoint) {
+			case "/images":
+			case "/patterns":
+				latencies = uploads;
+				requireMethod(exchange, "POST");
+				answer = upload(endpoint.equals("/patterns"), exchange);
+				break;
+			case "/search":
+				latencies = searches;
+				requireMethod(exchange, "GET");
+				answer = search(parameters(exchange.getRequestURI()));
+				break;
+			case "/metrics":
+				requireMethod(exchange, "GET");
+				answer = metrics();
+				break;
+			default:
+				throw new RequestException(404, "Unknown endpoint : " + endpoint);
+			}
+		} catch (RequestException e) {
+			status = e.status;
+			answer = error(e.getMessage());
+		} catch (IllegalArgumentException e) {
+			//Bad numbers, metrics or escapes in the parameters
+			status = 400;
+			answer = error(e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			status = 500;
+			answer = error(e.toString());
+		}
+		if(status != 200) {
+			failures.incrementAndGet();
+		}
+
+		byte[] bytes = answer.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		} finally {
+			if(latencies != null) {
+				latencies.add(System.nanoTime() - start);
+			}
+		}
+	}
+
+	private static void requireMethod(HttpExchange exchange, String method) throws RequestException {
+		if(!exchange.getRequestMethod().equals(method)) {
+			exchange.getResponseHeaders().set("Allow", method);
+			throw new RequestException(405, "Use " + method + " for " + exchange.getRequestURI().getPath());
+		}
+	}
+
+	// Decodes (and compiles) an uploaded file, and caches it under the hash of the file
+	private String upload(boolean pattern, HttpExchange exchange) throws IOException, RequestException {
+		byte[] file = exchange.getRequestBody().readNBytes(MAX_UPLOAD + 1);
+		if(file.length > MAX_UPLOAD) {
+			throw new RequestException(413, "Files are limited to " + MAX_UPLOAD + " bytes");
+		}
+		String id = hash(file);
+		String key = (pattern ? "pattern:" : "image:") + id;
+		Object value = cache.get(key);
+		if(value == null) {
+			ImageView image = decode(file, "the uploaded file");
+			value = pattern ? new CompiledPattern(image) : image;
+			if(!cache.put(key, value, weight(value))) {
+				throw new RequestException(413, "The image is bigger than the cache");
+			}
+		}
+		int width = pattern ? ((CompiledPattern) value).width() : ((ImageView) value).width();
+		int height = pattern ? ((CompiledPattern) value).height() : ((ImageView) value).height();
+		return "{\"id\":\"" + id + "\",\"width\":" + width + ",\"height\":" + height + "}";
+	}
+
+	// Searches the patterns in the image
+	private String search(Map<String, List<String>> parameters) throws IOException, RequestException {
+		long start = System.nanoTime();
+		Metric metric = Metric.fromName(parameter(parameters, "metric", "distance"));
+		int n = Integer.parseInt(parameter(parameters, "n", "1"));
+		SearchStats stats = Boolean.parseBoolean(parameter(parameters, "stats", "false")) ? new SearchStats()
+				: SearchStats.DISABLED;
+		if(n < 1) {
+			throw new RequestException(400, "n must be at least 1");
+		}
+
+		String imageName;
+		ImageView image;
+		if(parameters.containsKey("image")) {
+			imageName = parameter(parameters, "image", null);
+			image = (ImageView) uploaded("image:", imageName);
+		}
+		else if(parameters.containsKey("imagePath")) {
+			imageName = parameter(parameters, "imagePath", null);
+			image = (ImageView) file("image:", imageName, false, stats);
+		}
+		else {
+			throw new RequestException(400, "An image (image=ID or imagePath=PATH) is needed");
+		}
+
+		List<String> names = new ArrayList<>();
+		List<CompiledPattern> patterns = new ArrayList<>();
+		for(String id : parameters.getOrDefault("pattern", List.of())) {
+			names.add(id);
+			patterns.add((CompiledPattern) uploaded("pattern:", id));
+		}
+		for(String path : parameters.getOrDefault("patternPath", List.of())) {
+			names.add(path);
+			patterns.add((CompiledPattern) file("pattern:", path, true, stats));
+		}
+		if(patterns.isEmpty()) {
+			throw new RequestException(400, "At least one pattern (pattern=ID or patternPath=PATH) is needed");
+		}
+
+		List<TopK> found = metric.search(n, patterns, image, stats);
+		StringBuilder answer = new StringBuilder("{\"image\":").append(DirectorySearch.json(imageName))
+				.append(",\"metric\":\"").append(metric.name().toLowerCase(Locale.ROOT)).append("\",\"patterns\":[");
+		for(int p = 0; p < patterns.size(); p++) {
+			int[][] coordinates = found.get(p).coordinates();
+			double[] scores = found.get(p).scores();
+			answer.append(p == 0 ? "" : ",").append("{\"pattern\":").append(DirectorySearch.json(names.get(p)))
+					.append(",\"results\":[");
+			for(int k = 0; k < coordinates.length; k++) {
+				answer.append(k == 0 ? "" : ",").append("{\"rank\":").append(k+1)
+						.append(",\"row\":").append(coordinates[k][0]).append(",\"col\":").append(coordinates[k][1])
+						.append(",\"score\":").append(scores[k]).append('}');
+			}
+			answer.append("]}");
+		}
+		answer.append("],\"millis\":").append(millis(System.nanoTime() - start));
+		if(stats.isEnabled()) {
+			answer.append(",\"stats\":").append(stats.toJson());
+		}
+		return answer.append('}').toString();
+	}
+
+	// An uploaded image or pattern, if still in the cache
+	private Object uploaded(String kind, String id) throws RequestException {
+		Object value = cache.get(kind + id);
+		if(value == null) {
+			throw new RequestException(404, "Unknown " + kind.substring(0, kind.length()-1) + " id " + id
+					+ " : it was never uploaded, or was dropped from the cache, upload it again");
+		}
+		return value;
+	}
+
+	// An image or pattern of the served directory, decoded (and compiled) on the first search
+	private Object file(String kind, String path, boolean pattern, SearchStats stats) throws IOException, RequestException {
+		Path file;
+		try {
+			file = root.resolve(path).toRealPath();
+		} catch (IOException e) {
+			throw new RequestException(404, "No such file : " + path);
+		}
+		if(!file.startsWith(root) || !Files.isRegularFile(file)) {
+			throw new RequestException(403, "Not a file of the served directory : " + path);
+		}
+		//A file modified since it was cached gets another key : the old value is never used again, and is dropped
+		String key = kind + file + "@" + Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file);
+		Object value = cache.get(key);
+		if(value == null) {
+			stats.begin(SearchStats.Phase.DECODE);
+			ImageView image = decode(Files.readAllBytes(file), path);
+			stats.end(SearchStats.Phase.DECODE);
+			value = pattern ? new CompiledPattern(image) : image;
+			//Too big to be cached, it is searched anyway
+			cache.put(key, value, weight(value));
+		}
+		return value;
+	}
+
+	private static ImageView decode(byte[] file, String name) throws RequestException {
+		BufferedImage image;
+		try {
+			image = ImageIO.read(new ByteArrayInputStream(file));
+		} catch (IOException e) {
+			throw new RequestException(400, "Cannot decode " + name + " : " + e.getMessage());
+		}
+		if(image == null) {
+			throw new RequestException(400, "Unknown image format : " + name);
+		}
+		return Helper.view(image);
+	}
+
+	// The approximate size in memory of a cached value, in bytes
+	private static long weight(Object value) {
+		if(value instanceof CompiledPattern) {
+			//Channels and sums of the channels (4 ints per pixel) and centered gray levels (a double per pixel)
+			return 24L*((CompiledPattern) value).pixels();
+		}
+		ImageView image = (ImageView) value;
+		return 4L*image.width()*image.height();
+	}
+
+	// The first 128 bits of the SHA-256 of a file, in hexadecimal
+	private static String hash(byte[] file) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(file);
+			StringBuilder hash = new StringBuilder();
+			for(int k = 0; k < 16; k++) {
+				hash.append(String.format("%02x", digest[k] & 0xFF));
+			}
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			//Every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private String metrics() {
+		StringBuilder answer = new StringBuilder("{\"requests\":").append(requests.get())
+				.append(",\"failures\":").append(failures.get())
+				.append(",\"uptimeSeconds\":").append((System.nanoTime() - started) / 1_000_000_000L)
+				.append(",\"search\":");
+		searches.appendTo(answer);
+		answer.append(",\"upload\":");
+		uploads.appendTo(answer);
+		answer.append(",\"cache\":");
+		cache.appendTo(answer);
+		return answer.append('}').toString();
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + DirectorySearch.json(String.valueOf(message)) + "}";
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	// The parameters of the query of an URI, by name (a name can be repeated)
+	private static Map<String, List<String>> parameters(URI uri) {
+		Map<String, List<String>> parameters = new HashMap<>();
+		String query = uri.getRawQuery();
+		if(query == null) {
+			return parameters;
+		}
+		for(String parameter : query.split("&")) {
+			if(parameter.isEmpty()) {
+				continue;
+			}
+			int equal = parameter.indexOf('=');
+			String name = URLDecoder.decode(equal < 0 ? parameter : parameter.substring(0, equal), StandardCharsets.UTF_8);
+			String value = equal < 0 ? "" : URLDecoder.decode(parameter.substring(equal + 1), StandardCharsets.UTF_8);
+			parameters.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+		}
+		return parameters;
+	}
+
+	// The single value of a parameter, or its default value if it is missing
+	private static String parameter(Map<String, List<String>> parameters, String name, String defaultValue)
+			throws RequestException {
+		List<String> values = parameters.get(name);
+		if(values == null) {
+			return defaultValue;
+		}
+		if(values.size() > 1) {
+			throw new RequestException(400, "Only one " + name + " is allowed");
+		}
+		return values.get(0);
+	}
+
+	// A request which cannot be answered, with the HTTP status telling why
+	@SuppressWarnings("serial")
+	private static final class RequestException extends Exception {
+
+		private final int status;
+
+		RequestException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	// Cache bounded by the sum of the weights of its values : the least recently used values are dropped first
+	private static final class Cache {
+
+		private final long capacity;
+		//In access order : the least recently used value first
+		private final LinkedHashMap<String, Object> values = new LinkedHashMap<>(16, 0.75f, true);
+		private final Map<String, Long> weights = new HashMap<>();
+		private long weight;
+		private long hits;
+		private long misses;
+		private long evictions;
+
+		Cache(long capacity) {
+			this.capacity = capacity;
+		}
+
+		// The value of a key (which becomes the most recently used), null if it is not cached
+		synchronized Object get(String key) {
+			Object value = values.get(key);
+			if(value == null) {
+				misses++;
+			}
+			else {
+				hits++;
+			}
+			return value;
+		}
+
+		// Caches a value, dropping the least recently used ones to make room. Returns false if it is bigger than the
+		// cache (it is then not cached).
+		synchronized boolean put(String key, Object value, long valueWeight) {
+			if(valueWeight > capacity) {
+				return false;
+			}
+			Long old = weights.put(key, valueWeight);
+			weight += valueWeight - (old == null ? 0 : old);
+			values.put(key, value);
+			//The value just put is the last one, and fits : it is not dropped
+			Iterator<String> eldest = values.keySet().iterator();
+			while(weight > capacity) {
+				String dropped = eldest.next();
+				eldest.remove();
+				weight -= weights.remove(dropped);
+				evictions++;
+			}
+			return true;
+		}
+
+		synchronized void appendTo(StringBuilder json) {
+			long lookups = hits + misses;
+			json.append("{\"entries\":").append(values.size()).append(",\"bytes\":").append(weight)
+					.append(",\"capacity\":").append(capacity).append(",\"hits\":").append(hits)
+					.append(",\"misses\":").append(misses)
+					.append(",\"hitRate\":").append(lookups == 0 ? 0 : (double) hits / lookups)
+					.append(",\"evictions\":").append(evictions).append('}');
+		}
+	}
+
+	// The last LATENCIES latencies of an endpoint, in a ring
+	private static final class Latencies {
+
+		private final long[] nanos = new long[LATENCIES];
+		private long count;
+
+		synchronized void add(long latency) {
+			nanos[(int) (count++ % LATENCIES)] = latency;
+		}
+
+		synchronized void appendTo(StringBuilder json) {
+			long[] sorted = Arrays.copyOf(nanos, (int) Math.min(count, LATENCIES));
+			Arrays.sort(sorted);
+			json.append("{\"count\":").append(count);
+			if(sorted.length > 0) {
+				json.append(",\"p50Millis\":").append(millis(percentile(sorted, 50)))
+						.append(",\"p90Millis\":").append(millis(percentile(sorted, 90)))
+						.append(",\"p99Millis\":").append(millis(percentile(sorted, 99)))
+						.append(",\"maxMillis\":").append(millis(sorted[sorted.length-1]));
+			}
+			json.append('}');
+		}
+
+		// Nearest-rank percentile
+		private static long percentile(long[] sorted, int percent) {
+			int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+			return sorted[Math.max(rank, 1) - 1];
+		}
+	}
+
+	/**
+	 * Starts a server :
+	 * SearchServer [--port PORT] [--root DIRECTORY] [--cache-mb MB]
+	 * Defaults : port 8080, the current directory, a cache of 256 MB. It runs until the JVM is stopped.
+	 * @param args : the arguments described above
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int port = 8080;
+		String root = ".";
+		long cacheBytes = 256L << 20;
+		try {
+			for(int k = 0; k < args.length; k++) {
+				switch(args[k]) {
+				case "--port":
+					port = Integer.parseInt(value(args, ++k));
+					break;
+				case "--root":
+					root = value(args, ++k);
+					break;
+				case "--cache-mb":
+					cacheBytes = Long.parseLong(value(args, ++k)) << 20;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument : " + args[k]);
+				}
+			}
+			if(port < 0 || port > 0xFFFF || cacheBytes < 0) {
+				throw new IllegalArgumentException("Wrong port or cache size");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage : SearchServer [--port PORT] [--root DIRECTORY] [--cache-mb MB]");
+			System.exit(2);
+			return;
+		}
+
+		try {
+			SearchServer server = new SearchServer(port, Paths.get(root), cacheBytes);
+			server.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+			System.err.println("Listening on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+					+ server.port() + "/");
+		} catch (IOException e) {
+			System.err.println(e);
+			System.exit(1);
+		}
+	}
+
+	private static String value(String[] args, int k) {
+		if(k >= args.length) {
+			throw new IllegalArgumentException("Missing value after " + args[k-1]);
+		}
+		return args[k];
+	}
+}
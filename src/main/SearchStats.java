@@ -0,0 +1,294 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+/**
+ * Where the time of a search goes : wall-clock time, CPU time and allocated bytes of each phase (decoding, gray levels,
+ * scoring, selection of the best positions), and the work done by the scoring (windows evaluated, pixel comparisons,
+ * windows pruned before being fully compared).
+ * A SearchStats is filled by one search at a time, on one thread : the CPU time and the allocated bytes are the ones of
+ * the thread measuring the phase. When the JVM cannot measure them, they are -1. This is also the case of the phases
+ * measured (even once) on a virtual thread (Java 21 and later) : the JVM does not measure them, and the thread can
+ * move from a carrier thread to another during the phase.
+ * DISABLED measures nothing, and costs a test per phase (and per row of windows for the counters) : searches which are
+ * not measured get it.
+ */
+public final class SearchStats {
+
+	/**
+	 * The phases of a search
+	 */
+	public enum Phase {
+		/**
+		 * Reading and decoding of the image files (Helper.read...)
+		 */
+		DECODE,
+		/**
+		 * Conversion to gray levels (ImageProcessing.toGray, toGrayPlane)
+		 */
+		GRAY,
+		/**
+		 * Scores of the windows (distanceMatrix, similarityMatrix...). The engines keeping the best positions while
+		 * scoring (MultiPatternSearch, Metric) count their selection here.
+		 */
+		SCORE,
+		/**
+		 * Selection of the best positions of a matrix of scores (Collector.findNBest(int, double[][], boolean,
+		 * SearchStats))
+		 */
+		SELECT
+	}
+
+	/**
+	 * Measures nothing
+	 */
+	public static final SearchStats DISABLED = new SearchStats(false);
+
+	private final boolean enabled;
+	//Totals per phase, and the values at the beginning of the current measure of the phase
+	private final long[] wallNanos = new long[Phase.values().length];
+	private final long[] cpuNanos = new long[Phase.values().length];
+	private final long[] allocatedBytes = new long[Phase.values().length];
+	private final long[] wallStart = new long[Phase.values().length];
+	private final long[] cpuStart = new long[Phase.values().length];
+	private final long[] allocatedStart = new long[Phase.values().length];
+	//The phases whose CPU time and allocated bytes are unknown (measured on a virtual thread)
+	private final boolean[] unmeasured = new boolean[Phase.values().length];
+	private long windows;
+	private long comparisons;
+	private long pruned;
+
+	/**
+	 * Creates empty statistics, which measure the phases and count the work
+	 */
+	public SearchStats() {
+		this(true);
+	}
+
+	private SearchStats(boolean enabled) {
+		this.enabled = enabled;
+		if(enabled) {
+			//Now rather than in the first phase measured
+			Meters.load();
+		}
+	}
+
+	/**
+	 * @return a boolean, false for DISABLED
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts measuring a phase. A phase can be measured many times (one image after the other...) : the times add up.
+	 * @param phase : the Phase starting
+	 */
+	public void begin(Phase phase) {
+		if(!enabled) {
+			return;
+		}
+		int p = phase.ordinal();
+		if(Meters.onVirtualThread()) {
+			unmeasured[p] = true;
+		}
+		allocatedStart[p] = allocatedBytes();
+		cpuStart[p] = cpuNanos();
+		wallStart[p] = System.nanoTime();
+	}
+
+	/**
+	 * Stops measuring a phase, started by begin on the same thread
+	 * @param phase : the Phase ending
+	 */
+	public void end(Phase phase) {
+		if(!enabled) {
+			return;
+		}
+		int p = phase.ordinal();
+		wallNanos[p] += System.nanoTime() - wallStart[p];
+		long cpu = cpuNanos();
+		long allocated = allocatedBytes();
+		//-1 : a thread the JVM does not measure
+		if(cpu < 0 || cpuStart[p] < 0 || allocated < 0 || allocatedStart[p] < 0) {
+			unmeasured[p] = true;
+		}
+		cpuNanos[p] += cpu - cpuStart[p];
+		allocatedBytes[p] += allocated - allocatedStart[p];
+	}
+
+	/**
+	 * Adds the measures and the counts of other statistics to these ones, for instance the ones of a search among
+	 * many (see DirectorySearch). Not thread-safe : concurrent searches have their own SearchStats, added one at a time.
+	 * @param other : the SearchStats to add, whose phases have ended
+	 */
+	void add(SearchStats other) {
+		if(!enabled || !other.enabled) {
+			return;
+		}
+		for(int p = 0; p < wallNanos.length; p++) {
+			wallNanos[p] += other.wallNanos[p];
+			cpuNanos[p] += other.cpuNanos[p];
+			allocatedBytes[p] += other.allocatedBytes[p];
+			unmeasured[p] |= other.unmeasured[p];
+		}
+		windows += other.windows;
+		comparisons += other.comparisons;
+		pruned += other.pruned;
+	}
+
+	/**
+	 * Counts the work of the scoring. Engines count a whole row of windows at once.
+	 * @param windows : a long, the number of windows (positions) evaluated
+	 * @param comparisons : a long, the number of pixels compared (a pixel of the pattern with a pixel of the image)
+	 * @param pruned : a long, the number of these windows left before all their pixels were compared (by a bound,
+	 * or because they could not be a best one)
+	 */
+	public void count(long windows, long comparisons, long pruned) {
+		if(!enabled) {
+			return;
+		}
+		this.windows += windows;
+		this.comparisons += comparisons;
+		this.pruned += pruned;
+	}
+
+	/**
+	 * @param phase : a Phase
+	 * @return a long, the wall-clock time of the phase, in nanoseconds
+	 */
+	public long wallNanos(Phase phase) {
+		return wallNanos[phase.ordinal()];
+	}
+
+	/**
+	 * @param phase : a Phase
+	 * @return a long, the CPU time of the phase, in nanoseconds, -1 if the JVM cannot measure it (or the phase was
+	 * measured on a virtual thread)
+	 */
+	public long cpuNanos(Phase phase) {
+		return enabled && Meters.CPU_TIME && !unmeasured[phase.ordinal()] ? cpuNanos[phase.ordinal()] : -1;
+	}
+
+	/**
+	 * @param phase : a Phase
+	 * @return a long, the bytes allocated during the phase, -1 if the JVM cannot measure them (or the phase was
+	 * measured on a virtual thread)
+	 */
+	public long allocatedBytes(Phase phase) {
+		return enabled && Meters.ALLOCATIONS != null && !unmeasured[phase.ordinal()] ? allocatedBytes[phase.ordinal()] : -1;
+	}
+
+	/**
+	 * @return a long, the number of windows evaluated
+	 */
+	public long windows() {
+		return windows;
+	}
+
+	/**
+	 * @return a long, the number of pixel comparisons
+	 */
+	public long comparisons() {
+		return comparisons;
+	}
+
+	/**
+	 * @return a long, the number of windows pruned
+	 */
+	public long pruned() {
+		return pruned;
+	}
+
+	/**
+	 * @return a String, the statistics as a JSON object :
+	 * {"phases":{"decode":{"wallMillis":...,"cpuMillis":...,"allocatedBytes":...},...},"windows":...,"comparisons":...,
+	 * "pruned":...}. Phases never measured are left out.
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\"phases\":{");
+		boolean first = true;
+		for(Phase phase : Phase.values()) {
+			if(wallNanos(phase) == 0) {
+				continue;
+			}
+			json.append(first ? "" : ",").append('"').append(phase.name().toLowerCase(Locale.ROOT))
+					.append("\":{\"wallMillis\":").append(millis(wallNanos(phase)))
+					.append(",\"cpuMillis\":").append(cpuNanos(phase) < 0 ? "-1" : millis(cpuNanos(phase)))
+					.append(",\"allocatedBytes\":").append(allocatedBytes(phase)).append('}');
+			first = false;
+		}
+		return json.append("},\"windows\":").append(windows).append(",\"comparisons\":").append(comparisons)
+				.append(",\"pruned\":").append(pruned).append('}').toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for(Phase phase : Phase.values()) {
+			if(wallNanos(phase) == 0) {
+				continue;
+			}
+			text.append(String.format(Locale.ROOT, "%-6s wall %9s ms, cpu %9s ms, %s bytes allocated%n",
+					phase.name().toLowerCase(Locale.ROOT), millis(wallNanos(phase)),
+					cpuNanos(phase) < 0 ? "?" : millis(cpuNanos(phase)),
+					allocatedBytes(phase) < 0 ? "?" : String.format(Locale.ROOT, "%,d", allocatedBytes(phase))));
+		}
+		return text.append(String.format(Locale.ROOT, "%,d windows, %,d pixel comparisons, %,d windows pruned",
+				windows, comparisons, pruned)).toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static long cpuNanos() {
+		return Meters.CPU_TIME ? Meters.THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	private static long allocatedBytes() {
+		return Meters.ALLOCATIONS != null ? Meters.ALLOCATIONS.getCurrentThreadAllocatedBytes() : 0;
+	}
+
+	// The thread meters of the JVM, only loaded once a SearchStats measures something (loading them takes milliseconds)
+	private static final class Meters {
+
+		private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+		private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+		//getCurrentThreadAllocatedBytes is only in the HotSpot extension of ThreadMXBean
+		private static final com.sun.management.ThreadMXBean ALLOCATIONS = THREADS instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+				&& ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled()
+				? (com.sun.management.ThreadMXBean) THREADS : null;
+
+		//Thread.isVirtual, only in Java 21 and later : found by reflection, as in DirectorySearch.perTaskExecutor
+		private static final Method IS_VIRTUAL = isVirtualMethod();
+
+		// Does nothing, but loads the class
+		static void load() {
+		}
+
+		// Whether the current thread is a virtual thread
+		static boolean onVirtualThread() {
+			if(IS_VIRTUAL == null) {
+				return false;
+			}
+			try {
+				return (Boolean) IS_VIRTUAL.invoke(Thread.currentThread());
+			} catch (ReflectiveOperationException e) {
+				return false;
+			}
+		}
+
+		private static Method isVirtualMethod() {
+			try {
+				return Thread.class.getMethod("isVirtual");
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -1,6 +1,15 @@
 package main;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 public class SimilarityBasedSearch {
+	
+	//Biggest pattern (in pixels) for the exact integer sums of the GrayPlane engines : with values up to 765,
+	//pixels*sum(I^2), sum(I)^2 and pixels*sum(I*P) are at most 765^2 * pixels^2, which fits in a long up to here
+	static final long MAX_INTEGER_PIXELS = 3_969_935;
+	//Widest pattern for these engines : a row of products, at most 765^2 * width, fits in an int below this
+	static final int MAX_INTEGER_WIDTH = 3669;
 
 	/**
 	 * Computes the mean value of a gray-scale image given as a 2D array 
@@ -107,7 +116,6 @@ public class SimilarityBasedSearch {
 		
 		double normCross = 0;
 //		System.out.println("round(denom1 * denom2) : " + Math.round(denom1*denom2));
-		System.out.println();
 		if(Math.round(denom1*denom2) == 0) { //Math.round() used to avoid problems due to denom1, denom2 being doubles
 			return -1;
 		}
@@ -116,6 +124,51 @@ public class SimilarityBasedSearch {
 		}
 	}
 	
+	/**
+	 * normalizedCrossCorrelation of a compiled pattern : the mean and deviation of the pattern are not computed again,
+	 * only the ones of the image window. The value is the one of normalizedCrossCorrelation(row, col,
+	 * ImageProcessing.toGray(pattern), image), up to rounding errors.
+	 * @param row : a integer, the row-coordinate of the upper left corner of the pattern in the image.
+	 * @param col : a integer, the column-coordinate of the upper left corner of the pattern in the image.
+	 * @param pattern : a CompiledPattern, the pattern to find
+	 * @param image : an 2D array of double, the gray-scale image where to look for the pattern
+	 * @return a double, the Normalized Cross Correlation value at position (row, col), -1 if the denominator is 0
+	 */
+	public static double normalizedCrossCorrelation(int row, int col, CompiledPattern pattern, double[][] image) {
+		//Requirement : pattern fits entirely in the image given its position (row, col)
+		assert pattern != null && image != null;
+		assert pattern.height() <= (image.length - row);
+		assert pattern.width() <= (image[0].length - col);
+		
+		int patternHeight = pattern.height();
+		int patternWidth = pattern.width();
+		double[] centered = pattern.centered();
+		double imageWindowMean = 0;
+		for(int i = 0; i < patternHeight; i++) {
+			for(int j = 0; j < patternWidth; j++) {
+				imageWindowMean += image[row+i][col+j];
+			}
+		}
+		imageWindowMean /= pattern.pixels();
+		
+		double num = 0;
+		double denom1 = 0;
+		for(int i = 0; i < patternHeight; i++) {
+			for(int j = 0; j < patternWidth; j++) {
+				double deviation = image[row+i][col+j] - imageWindowMean;
+				num += deviation*centered[i*patternWidth + j];
+				denom1 += deviation*deviation;
+			}
+		}
+		
+		if(Math.round(denom1*pattern.deviation()) == 0) { //same test as in normalizedCrossCorrelation
+			return -1;
+		}
+		else {
+			return (num / Math.sqrt(denom1*pattern.deviation()));
+		}
+	}
+	
 	/**
 	 * Compute the similarityMatrix between a gray-scale image and a gray-scale pattern
 	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
@@ -139,8 +192,31 @@ public class SimilarityBasedSearch {
 		assert pattern.length <= image.length;
 		assert pattern[0].length <= image[0].length;
 		
-		int patternHeight = pattern.length;
-		int patternWidth = pattern[0].length;
+		//Calling normalizedCrossCorrelation for each position would recompute the pattern mean
+		//and copy the image window every time. Instead, everything that only depends on the pattern
+		//is computed once here, and the window means and deviations are read from summed-area tables
+		double[] centeredPattern = centeredPattern(pattern);
+		return similarityMatrix(centeredPattern, pattern[0].length, pattern.length, squaredDeviation(centeredPattern), image);
+	}
+	
+	/**
+	 * similarityMatrix of a compiled pattern : the same values as similarityMatrix(ImageProcessing.toGray(pattern), image),
+	 * without any preparation of the pattern
+	 * @param pattern : a CompiledPattern, the pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @return a 2D array of doubles, see similarityMatrix
+	 */
+	public static double[][] similarityMatrix(CompiledPattern pattern, double[][] image) {
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern != null && image != null;
+		assert pattern.height() <= image.length;
+		assert pattern.width() <= image[0].length;
+		
+		return similarityMatrix(pattern.centered(), pattern.width(), pattern.height(), pattern.deviation(), image);
+	}
+	
+	private static double[][] similarityMatrix(double[] centeredPattern, int patternWidth, int patternHeight,
+			double patternDeviation, double[][] image) {
 		int imageHeight = image.length;
 		int imageWidth = image[0].length;
 		
@@ -149,14 +225,625 @@ public class SimilarityBasedSearch {
 		//and +1, because if image and pattern are the same size, we still have to calculate
 		//the mean absolute error once.
 		double[][] matrix = new double[imageHeight-patternHeight+1][imageWidth-patternWidth+1];
+		IntegralImage integral = new IntegralImage(image);
 		
 		for(int i = 0; i < imageHeight-patternHeight+1; i++) {
 			for(int j = 0; j < imageWidth-patternWidth+1; j++) {
-				matrix[i][j] += normalizedCrossCorrelation(i, j, pattern, image);
+				matrix[i][j] = normalizedCrossCorrelation(i, j, centeredPattern, patternWidth, patternHeight,
+						patternDeviation, image, integral);
 			}
 		}
 		
 		return matrix; 
 	}
+	
+	/**
+	 * similarityMatrix where the pattern may go beyond the right and bottom borders of the image,
+	 * the missing pixels being given by the strategy. The strategy is applied once, by padding the image,
+	 * then the plain similarityMatrix runs over the padded image.
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @param strategy : the BorderStrategy defining the pixels beyond the borders
+	 * @return a 2D array of doubles of the size of the image, containing the similarity of each position
+	 */
+	public static double[][] similarityMatrix(double[][] pattern, double[][] image, BorderStrategy strategy) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		assert strategy != null;
+		
+		return similarityMatrix(pattern, strategy.pad(image, pattern.length-1, pattern[0].length-1));
+	}
+	
+	/**
+	 * Packed version of similarityMatrix
+	 * @param pattern : a PackedMatrix, the gray-scale pattern to find
+	 * @param image : a PackedMatrix, the gray-scale image where to look for the pattern
+	 * @return a PackedMatrix, containing the same values as similarityMatrix on the 2D arrays
+	 */
+	public static PackedMatrix similarityMatrix(PackedMatrix pattern, PackedMatrix image) {
+		//Requirement : pattern and image must exist
+		assert pattern != null;
+		assert image != null;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.height() <= image.height();
+		assert pattern.width() <= image.width();
+		
+		int patternHeight = pattern.height();
+		int patternWidth = pattern.width();
+		PackedMatrix matrix = new PackedMatrix(image.width()-patternWidth+1, image.height()-patternHeight+1);
+		
+		double[] centeredPattern = centeredPattern(pattern.toArray());
+		double patternDeviation = squaredDeviation(centeredPattern);
+		IntegralImage integral = new IntegralImage(image);
+		double[] values = image.data();
+		
+		for(int row = 0; row < matrix.height(); row++) {
+			for(int col = 0; col < matrix.width(); col++) {
+				double num = 0;
+				for(int i = 0; i < patternHeight; i++) {
+					int start = image.index(row+i, col);
+					int offset = i*patternWidth;
+					for(int j = 0; j < patternWidth; j++) {
+						num += values[start+j]*centeredPattern[offset+j];
+					}
+				}
+				double denom1 = integral.squaredDeviation(row, col, patternWidth, patternHeight);
+				if(Math.round(denom1*patternDeviation) == 0) {
+					matrix.set(row, col, -1);
+				}
+				else {
+					matrix.set(row, col, num / Math.sqrt(denom1*patternDeviation));
+				}
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Single precision version of similarityMatrix : gray-scale images and result are stored as floats
+	 * (half the memory and cache traffic), but sums are accumulated in double.
+	 * The window means and deviations come from column sums of the current rows, so no double
+	 * summed-area table (twice the size of a double image) is needed.
+	 * @param pattern : an 2D array of floats, the gray-scale pattern to find
+	 * @param image : an 2D array of floats, the gray-scale image where to look for the pattern
+	 * @return a 2D array of floats, see similarityMatrix
+	 */
+	public static float[][] similarityMatrix(float[][] pattern, float[][] image) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
+		int imageWidth = image[0].length;
+		int pixels = patternHeight*patternWidth;
+		
+		double patternMean = 0;
+		for(int i = 0; i < patternHeight; i++) {
+			for(int j = 0; j < patternWidth; j++) {
+				patternMean += pattern[i][j];
+			}
+		}
+		patternMean /= pixels;
+		float[] centeredPattern = new float[pixels];
+		double patternDeviation = 0;
+		for(int i = 0; i < patternHeight; i++) {
+			for(int j = 0; j < patternWidth; j++) {
+				centeredPattern[i*patternWidth + j] = (float) (pattern[i][j] - patternMean);
+				patternDeviation += (pattern[i][j] - patternMean)*(pattern[i][j] - patternMean);
+			}
+		}
+		
+		float[][] matrix = new float[image.length-patternHeight+1][imageWidth-patternWidth+1];
+		double[] columnSums = new double[imageWidth];
+		double[] columnSquareSums = new double[imageWidth];
+		for(int row = 0; row < matrix.length; row++) {
+			Arrays.fill(columnSums, 0);
+			Arrays.fill(columnSquareSums, 0);
+			for(int i = 0; i < patternHeight; i++) {
+				float[] imageRow = image[row+i];
+				for(int x = 0; x < imageWidth; x++) {
+					columnSums[x] += imageRow[x];
+					columnSquareSums[x] += (double) imageRow[x]*imageRow[x];
+				}
+			}
+			for(int col = 0; col < matrix[0].length; col++) {
+				double sum = 0;
+				double squareSum = 0;
+				for(int x = col; x < col+patternWidth; x++) {
+					sum += columnSums[x];
+					squareSum += columnSquareSums[x];
+				}
+				double denom1 = Math.max(0, squareSum - sum*sum/pixels);
+				if(Math.round(denom1*patternDeviation) == 0) {
+					matrix[row][col] = -1;
+				}
+				else {
+					//Each pattern row is summed in float (vectorizable), the rows in double
+					double num = 0;
+					for(int i = 0; i < patternHeight; i++) {
+						float[] imageRow = image[row+i];
+						int offset = i*patternWidth;
+						float rowNum = 0;
+						for(int j = 0; j < patternWidth; j++) {
+							rowNum += imageRow[col+j]*centeredPattern[offset+j];
+						}
+						num += rowNum;
+					}
+					matrix[row][col] = (float) (num / Math.sqrt(denom1*patternDeviation));
+				}
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Version of similarityMatrix on compact gray-scale planes. As a GrayPlane holds 3 times the gray levels
+	 * as integers, every sum is computed exactly with integer accumulators : with n the number of pixels of
+	 * the pattern, the numerator is n*sum(I*P) - sum(I)*sum(P) and the denominators n*sum(I^2) - sum(I)^2
+	 * and n*sum(P^2) - sum(P)^2 (the factors n and 3 cancel out in the quotient).
+	 * The window sums come from integer column sums, updated (exactly) from one output row to the next.
+	 * The similarities are the ones of similarityMatrix on the double gray-scale images, up to rounding errors.
+	 * @param pattern : a GrayPlane, the gray-scale pattern to find
+	 * @param image : a GrayPlane, the gray-scale image where to look for the pattern
+	 * @return a 2D array of doubles, see similarityMatrix
+	 * @throws IllegalArgumentException if the pattern is too big for exact integer sums (see checkIntegerSums)
+	 */
+	public static double[][] similarityMatrix(GrayPlane pattern, GrayPlane image) {
+		//Requirement : pattern and image must exist
+		assert pattern != null;
+		assert image != null;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.height() <= image.height();
+		assert pattern.width() <= image.width();
+		
+		checkIntegerSums(pattern.width(), pattern.height());
+		
+		//The products are computed on ints : the JIT vectorizes int * int loops, but not short * short ones
+		int[] patternValues = new int[pattern.height()*pattern.width()];
+		for(int k = 0; k < patternValues.length; k++) {
+			patternValues[k] = pattern.data()[k];
+		}
+		
+		long pixels = patternValues.length;
+		long patternSum = 0;
+		long patternSquareSum = 0;
+		for(int value : patternValues) {
+			patternSum += value;
+			patternSquareSum += value*value;
+		}
+		return similarityMatrix(patternValues, pattern.width(), pattern.height(), patternSum,
+				pixels*patternSquareSum - patternSum*patternSum, image);
+	}
+	
+	/**
+	 * similarityMatrix of a compiled pattern in a GrayPlane : the same values as
+	 * similarityMatrix(ImageProcessing.toGrayPlane(pattern), image), without any preparation of the pattern
+	 * @param pattern : a CompiledPattern, the pattern to find
+	 * @param image : a GrayPlane, the gray-scale image where to look for the pattern
+	 * @return a 2D array of doubles, see similarityMatrix
+	 * @throws IllegalArgumentException if the pattern is too big for exact integer sums (see checkIntegerSums)
+	 */
+	public static double[][] similarityMatrix(CompiledPattern pattern, GrayPlane image) {
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern != null && image != null;
+		assert pattern.height() <= image.height();
+		assert pattern.width() <= image.width();
+		
+		checkIntegerSums(pattern.width(), pattern.height());
+		
+		return similarityMatrix(pattern.graySums(), pattern.width(), pattern.height(), pattern.graySum(),
+				pattern.grayDeviation(), image);
+	}
+	
+	private static double[][] similarityMatrix(int[] patternValues, int patternWidth, int patternHeight, long patternSum,
+			double patternDeviation, GrayPlane image) {
+		int imageWidth = image.width();
+		long pixels = patternHeight*patternWidth;
+		short[] imageValues = image.data();
+		//Scale of the (gray level) deviations used by similarityMatrix for its -1 case : our deviations
+		//are n times bigger, and computed on values 3 times bigger
+		double scale = 9.0*pixels;
+		
+		double[][] matrix = new double[image.height()-patternHeight+1][imageWidth-patternWidth+1];
+		
+		//Sums of the values and of their squares over the patternHeight rows of the current output row, per column
+		long[] columnSums = new long[imageWidth];
+		long[] columnSquareSums = new long[imageWidth];
+		//The patternHeight rows of the current output row, as ints : image row r is in rows[r % patternHeight],
+		//so that each row is converted once, when it enters the window
+		int[][] rows = new int[patternHeight][imageWidth];
+		for(int i = 0; i < patternHeight; i++) {
+			addRow(columnSums, columnSquareSums, imageValues, i*imageWidth, 1);
+			toInts(imageValues, i*imageWidth, rows[i]);
+		}
+		
+		for(int row = 0; row < matrix.length; row++) {
+			if(row > 0) {
+				int entering = row+patternHeight-1;
+				addRow(columnSums, columnSquareSums, imageValues, (row-1)*imageWidth, -1);
+				addRow(columnSums, columnSquareSums, imageValues, entering*imageWidth, 1);
+				toInts(imageValues, entering*imageWidth, rows[entering % patternHeight]);
+			}
+			long sum = 0;
+			long squareSum = 0;
+			for(int x = 0; x < patternWidth - 1; x++) {
+				sum += columnSums[x];
+				squareSum += columnSquareSums[x];
+			}
+			for(int col = 0; col < matrix[0].length; col++) {
+				//Slide the window sums by one column
+				sum += columnSums[col+patternWidth-1];
+				squareSum += columnSquareSums[col+patternWidth-1];
+				double imageDeviation = pixels*squareSum - sum*sum;
+				
+				if(Math.round(imageDeviation/scale * (patternDeviation/scale)) == 0) {
+					matrix[row][col] = -1;
+				}
+				else {
+					long product = 0;
+					for(int i = 0; i < patternHeight; i++) {
+						int[] imageRow = rows[(row+i) % patternHeight];
+						int offset = i*patternWidth;
+						//A row of products fits in an int for patterns narrower than 2^31 / 765^2 = 3669 pixels
+						//(see checkIntegerSums)
+						int rowProduct = 0;
+						for(int j = 0; j < patternWidth; j++) {
+							rowProduct += imageRow[col+j]*patternValues[offset+j];
+						}
+						product += rowProduct;
+					}
+					matrix[row][col] = (pixels*product - sum*patternSum) / Math.sqrt(imageDeviation*patternDeviation);
+				}
+				sum -= columnSums[col];
+				squareSum -= columnSquareSums[col];
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Checks that the sums of the GrayPlane engines (see similarityMatrix(GrayPlane, GrayPlane)) are exact for a pattern.
+	 * Overflows would silently give wrong similarities, hence an exception (not an assert, off by default).
+	 * @param width : an integer, the width of the pattern
+	 * @param height : an integer, the height of the pattern
+	 * @throws IllegalArgumentException if the pattern is too wide or too big
+	 */
+	static void checkIntegerSums(int width, int height) {
+		if(width >= MAX_INTEGER_WIDTH || (long) width*height > MAX_INTEGER_PIXELS) {
+			throw new IllegalArgumentException("Pattern of " + width + "x" + height + " pixels too big for the integer"
+					+ " similarity (at most " + (MAX_INTEGER_WIDTH-1) + " pixels wide and " + MAX_INTEGER_PIXELS
+					+ " pixels) : use similarityMatrix on double gray-scale images");
+		}
+	}
+	
+	static void toInts(short[] values, int start, int[] row) {
+		for(int x = 0; x < row.length; x++) {
+			row[x] = values[start+x];
+		}
+	}
+	
+	// Adds (sign 1) or removes (sign -1) the row of values starting at start to the column sums
+	static void addRow(long[] columnSums, long[] columnSquareSums, short[] values, int start, int sign) {
+		for(int x = 0; x < columnSums.length; x++) {
+			int value = values[start+x];
+			columnSums[x] += sign*value;
+			columnSquareSums[x] += sign*value*value;
+		}
+	}
+	
+	/**
+	 * Streaming search : every window similarity goes straight into a bounded collector, the similarity matrix
+	 * is never built. Beyond the image itself, the memory used is O(n + W + h*w), whatever the size of the image :
+	 * instead of summed-area tables, the window means and deviations come from column sums of the current rows.
+	 * The similarities are the ones of similarityMatrix, up to rounding errors.
+	 * @param n : an integer, the maximal number of positions to keep
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @param minSimilarity : a double, windows with a smaller similarity are ignored (Double.NEGATIVE_INFINITY to keep everything)
+	 * @return a TopK containing the (at most n) positions of highest similarity, with their similarities
+	 */
+	public static TopK nBest(int n, double[][] pattern, double[][] image, double minSimilarity) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		double[] centeredPattern = centeredPattern(pattern);
+		return nBest(n, centeredPattern, pattern[0].length, pattern.length, squaredDeviation(centeredPattern), image,
+				minSimilarity);
+	}
+	
+	/**
+	 * Streaming search of a compiled pattern : the same positions and similarities as
+	 * nBest(n, ImageProcessing.toGray(pattern), image, minSimilarity), without any preparation of the pattern
+	 * @param n : an integer, the maximal number of positions to keep
+	 * @param pattern : a CompiledPattern, the pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @param minSimilarity : a double, windows with a smaller similarity are ignored (Double.NEGATIVE_INFINITY to keep everything)
+	 * @return a TopK containing the (at most n) positions of highest similarity, with their similarities
+	 */
+	public static TopK nBest(int n, CompiledPattern pattern, double[][] image, double minSimilarity) {
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern != null && image != null;
+		assert pattern.height() <= image.length;
+		assert pattern.width() <= image[0].length;
+		
+		return nBest(n, pattern.centered(), pattern.width(), pattern.height(), pattern.deviation(), image, minSimilarity);
+	}
+	
+	private static TopK nBest(int n, double[] centeredPattern, int patternWidth, int patternHeight,
+			double patternDeviation, double[][] image, double minSimilarity) {
+		int imageWidth = image[0].length;
+		int pixels = patternHeight*patternWidth;
+		
+		//Sums of the values and of their squares over the patternHeight rows of the current output row, per column.
+		//They are recomputed for each output row rather than updated, so that no rounding error builds up
+		double[] columnSums = new double[imageWidth];
+		double[] columnSquareSums = new double[imageWidth];
+		
+		TopK best = new TopK(n, false);
+		for(int row = 0; row < image.length-patternHeight+1; row++) {
+			Arrays.fill(columnSums, 0);
+			Arrays.fill(columnSquareSums, 0);
+			for(int i = 0; i < patternHeight; i++) {
+				double[] imageRow = image[row+i];
+				for(int x = 0; x < imageWidth; x++) {
+					columnSums[x] += imageRow[x];
+					columnSquareSums[x] += imageRow[x]*imageRow[x];
+				}
+			}
+			for(int col = 0; col < imageWidth-patternWidth+1; col++) {
+				double sum = 0;
+				double squareSum = 0;
+				for(int x = col; x < col+patternWidth; x++) {
+					sum += columnSums[x];
+					squareSum += columnSquareSums[x];
+				}
+				double denom1 = Math.max(0, squareSum - sum*sum/pixels);
+				
+				double similarity;
+				if(Math.round(denom1*patternDeviation) == 0) {
+					similarity = -1;
+				}
+				else {
+					double num = 0;
+					for(int i = 0; i < patternHeight; i++) {
+						double[] imageRow = image[row+i];
+						int offset = i*patternWidth;
+						for(int j = 0; j < patternWidth; j++) {
+							num += imageRow[col+j]*centeredPattern[offset+j];
+						}
+					}
+					similarity = num / Math.sqrt(denom1*patternDeviation);
+				}
+				if(similarity >= minSimilarity) {
+					best.offer(similarity, row, col);
+				}
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Parallel version of similarityMatrix : the rows of the matrix are split into bands computed
+	 * by a new pool of the given number of threads. The result is exactly the same as similarityMatrix.
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @param parallelism : an integer, the number of threads to use (at least 1)
+	 * @return a 2D array of doubles, see similarityMatrix
+	 */
+	public static double[][] similarityMatrix(double[][] pattern, double[][] image, int parallelism) {
+		return parallelSimilarityMatrix(pattern, image, null, parallelism);
+	}
+	
+	/**
+	 * Parallel version of similarityMatrix, running in a pool supplied (and owned) by the caller.
+	 * The result is exactly the same as similarityMatrix.
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @param pool : the ForkJoinPool to run in
+	 * @return a 2D array of doubles, see similarityMatrix
+	 */
+	public static double[][] similarityMatrix(double[][] pattern, double[][] image, ForkJoinPool pool) {
+		return parallelSimilarityMatrix(pattern, image, pool, 0);
+	}
+	
+	//pool is null when a pool of parallelism threads has to be created
+	private static double[][] parallelSimilarityMatrix(double[][] pattern, double[][] image, ForkJoinPool pool,
+			int parallelism) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
+		int height = image.length-patternHeight+1;
+		int width = image[0].length-patternWidth+1;
+		double[][] matrix = new double[height][width];
+		
+		//Shared between the workers, but only read
+		double[] centeredPattern = centeredPattern(pattern);
+		double patternDeviation = squaredDeviation(centeredPattern);
+		IntegralImage integral = new IntegralImage(image);
+		
+		RowBands.Band band = (fromRow, toRow) -> {
+			//Scratch state of the worker, allocated once per band : the numerators of a whole output row.
+			//They are accumulated pattern row by pattern row, so that the same image row is reused for
+			//every window of the output row while it is in cache. For each window, the products are
+			//added in the same order as in similarityMatrix, hence the identical result.
+			double[] numerators = new double[width];
+			for(int row = fromRow; row < toRow; row++) {
+				Arrays.fill(numerators, 0);
+				for(int i = 0; i < patternHeight; i++) {
+					double[] imageRow = image[row+i];
+					int offset = i*patternWidth;
+					for(int col = 0; col < width; col++) {
+						double num = numerators[col];
+						for(int j = 0; j < patternWidth; j++) {
+							num += imageRow[col+j]*centeredPattern[offset+j];
+						}
+						numerators[col] = num;
+					}
+				}
+				for(int col = 0; col < width; col++) {
+					double denom1 = integral.squaredDeviation(row, col, patternWidth, patternHeight);
+					if(Math.round(denom1*patternDeviation) == 0) {
+						matrix[row][col] = -1;
+					}
+					else {
+						matrix[row][col] = numerators[col] / Math.sqrt(denom1*patternDeviation);
+					}
+				}
+			}
+		};
+		
+		if(pool != null) {
+			RowBands.run(height, band, pool);
+		}
+		else {
+			RowBands.run(height, band, parallelism);
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Same result as similarityMatrix up to rounding (about 1e-13), but the numerator of the normalized cross
+	 * correlation is computed for every position at once by an FFT correlation (see FourierCorrelation), so that
+	 * the cost no longer depends on the size of the pattern. Faster than similarityMatrix for big patterns.
+	 * Windows of almost the same similarity may come in another order.
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param image : an 2D array of doubles, the gray-scale image where to look for the pattern
+	 * @return a 2D array of doubles, see similarityMatrix
+	 */
+	public static double[][] similarityMatrixFFT(double[][] pattern, double[][] image) {
+		//Requirement : pattern and image should both contain at least 1 pixel
+		assert pattern != null;
+		assert pattern.length > 0;
+		assert pattern[0].length > 0;
+		
+		assert image != null;
+		assert image.length > 0;
+		assert image[0].length > 0;
+		
+		//Requirement : pattern must entirely fit at least once into the image
+		assert pattern.length <= image.length;
+		assert pattern[0].length <= image[0].length;
+		
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
+		
+		double[] centeredPattern = centeredPattern(pattern);
+		double patternDeviation = squaredDeviation(centeredPattern);
+		double[][] centered = new double[patternHeight][];
+		for(int i = 0; i < patternHeight; i++) {
+			centered[i] = Arrays.copyOfRange(centeredPattern, i*patternWidth, (i+1)*patternWidth);
+		}
+		
+		//matrix first holds the numerators, then is normalized in place
+		double[][] matrix = FourierCorrelation.correlate(centered, image);
+		IntegralImage integral = new IntegralImage(image);
+		for(int i = 0; i < matrix.length; i++) {
+			for(int j = 0; j < matrix[0].length; j++) {
+				double denom1 = integral.squaredDeviation(i, j, patternWidth, patternHeight);
+				if(Math.round(denom1*patternDeviation) == 0) {
+					matrix[i][j] = -1;
+				}
+				else {
+					matrix[i][j] /= Math.sqrt(denom1*patternDeviation);
+				}
+			}
+		}
+		return matrix;
+	}
+	
+	/**
+	 * Flattens a gray-scale pattern row by row, subtracting its mean from every value
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern
+	 * @return an array of doubles of size height*width, the values M(i, j) - mean(M)
+	 */
+	static double[] centeredPattern(double[][] pattern) {
+		int patternHeight = pattern.length;
+		int patternWidth = pattern[0].length;
+		double patternMean = mean(pattern);
+		double[] centered = new double[patternHeight*patternWidth];
+		for(int i = 0; i < patternHeight; i++) {
+			for(int j = 0; j < patternWidth; j++) {
+				centered[i*patternWidth + j] = pattern[i][j] - patternMean;
+			}
+		}
+		return centered;
+	}
+	
+	/**
+	 * @param centeredPattern : an array of doubles, as returned by centeredPattern
+	 * @return a double, the sum of squares of the centered values (right part of the denominator)
+	 */
+	static double squaredDeviation(double[] centeredPattern) {
+		double deviation = 0;
+		for(int k = 0; k < centeredPattern.length; k++) {
+			deviation += centeredPattern[k]*centeredPattern[k];
+		}
+		return deviation;
+	}
+	
+	/**
+	 * Same value as normalizedCrossCorrelation(row, col, pattern, image), but using precomputed pattern
+	 * statistics and the summed-area tables of the image : only the numerator still needs a pass over the window.
+	 * Since the centered pattern sums to zero, sum((I - mean(I))*(M - mean(M))) = sum(I*(M - mean(M))).
+	 */
+	static double normalizedCrossCorrelation(int row, int col, double[] centeredPattern, int patternWidth,
+			int patternHeight, double patternDeviation, double[][] image, IntegralImage integral) {
+		double num = 0;
+		for(int i = 0; i < patternHeight; i++) {
+			double[] imageRow = image[row+i];
+			int offset = i*patternWidth;
+			for(int j = 0; j < patternWidth; j++) {
+				num += imageRow[col+j]*centeredPattern[offset+j];
+			}
+		}
+		double denom1 = integral.squaredDeviation(row, col, patternWidth, patternHeight);
+		
+		if(Math.round(denom1*patternDeviation) == 0) { //same test as in normalizedCrossCorrelation
+			return -1;
+		}
+		else {
+			return (num / Math.sqrt(denom1*patternDeviation));
+		}
+	}
 
 }
@@ -0,0 +1,331 @@
+package main;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Out-of-core search, for scenes too big to be loaded in memory at once.
+ * The scene is cut into tiles of tileSize x tileSize positions. Each tile is read with an overlap of
+ * pattern size - 1 pixels on its right and bottom (so that every position of the tile can be evaluated)
+ * and searched by the streaming search of DistanceBasedSearch or SimilarityBasedSearch. The n best
+ * positions of all the tiles are merged into a global TopK : the result is the same as the streaming
+ * search of the whole scene.
+ * The memory used only depends on the tile size (and, for a file, on the width of the scene), never on
+ * the height of the scene.
+ * Scenes are read either from an image file or from an ImageView, for instance a MappedImage of a PixelCache.
+ * The 8 bits RGB and RGBA PNG files (see PngRows) are decoded once, from the top : only a sliding band of
+ * tileSize + pattern height - 1 rows of the scene is kept, the rows shared by two bands are not read again.
+ * Other image files are read through an ImageReader with source regions, and each band of tiles is a new read of
+ * the file : a sequential format (other PNG files, ...) is decoded from its first row at each read, and the time of
+ * a search grows as the square of the number of bands. Gigapixel scenes in these formats are not supported : they
+ * do not fit in memory for a PixelCache either, and must first be converted to an 8 bits RGB PNG file.
+ */
+public final class TiledSearch {
+
+	/**
+	 * Finds the n positions of the pattern with the smallest distance (mean absolute error) in an image file
+	 * @param n : an integer, the number of positions we want to find
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param path : a String, the path of the image file where to look for the pattern
+	 * @param tileSize : an integer, the number of rows and columns of positions of a tile
+	 * @return a TopK containing the (at most n) positions of smallest distance in the whole image
+	 * @throws IOException if the image file cannot be read
+	 */
+	public static TopK distanceSearch(int n, int[][] pattern, String path, int tileSize) throws IOException {
+		return search(n, pattern, null, fileTiles(path), tileSize);
+	}
+
+	/**
+	 * Finds the n positions of the pattern with the smallest distance (mean absolute error) in an image
+	 * @param n : an integer, the number of positions we want to find
+	 * @param pattern : an 2D array of integers, the RGB pattern to find
+	 * @param image : an ImageView, the RGB image where to look for the pattern
+	 * @param tileSize : an integer, the number of rows and columns of positions of a tile
+	 * @return a TopK containing the (at most n) positions of smallest distance in the whole image
+	 */
+	public static TopK distanceSearch(int n, int[][] pattern, ImageView image, int tileSize) {
+		try {
+			return search(n, pattern, null, new ViewTiles(image), tileSize);
+		} catch (IOException e) {
+			throw new AssertionError(e); //an ImageView is never read from a file
+		}
+	}
+
+	/**
+	 * Finds the n positions of the pattern with the highest similarity (normalized cross correlation) in an image file
+	 * @param n : an integer, the number of positions we want to find
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param path : a String, the path of the image file where to look for the pattern
+	 * @param tileSize : an integer, the number of rows and columns of positions of a tile
+	 * @return a TopK containing the (at most n) positions of highest similarity in the whole image
+	 * @throws IOException if the image file cannot be read
+	 */
+	public static TopK similaritySearch(int n, double[][] pattern, String path, int tileSize) throws IOException {
+		return search(n, null, pattern, fileTiles(path), tileSize);
+	}
+
+	/**
+	 * Finds the n positions of the pattern with the highest similarity (normalized cross correlation) in an image
+	 * @param n : an integer, the number of positions we want to find
+	 * @param pattern : an 2D array of doubles, the gray-scale pattern to find
+	 * @param image : an ImageView, the RGB image where to look for the pattern
+	 * @param tileSize : an integer, the number of rows and columns of positions of a tile
+	 * @return a TopK containing the (at most n) positions of highest similarity in the whole image
+	 */
+	public static TopK similaritySearch(int n, double[][] pattern, ImageView image, int tileSize) {
+		try {
+			return search(n, null, pattern, new ViewTiles(image), tileSize);
+		} catch (IOException e) {
+			throw new AssertionError(e); //an ImageView is never read from a file
+		}
+	}
+
+	// Exactly one of rgbPattern (distance search) and grayPattern (similarity search) is not null
+	private static TopK search(int n, int[][] rgbPattern, double[][] grayPattern, Tiles tiles, int tileSize)
+			throws IOException {
+		boolean distance = rgbPattern != null;
+		int patternHeight = distance ? rgbPattern.length : grayPattern.length;
+		int patternWidth = distance ? rgbPattern[0].length : grayPattern[0].length;
+
+		//Requirement : pattern must entirely fit at least once into the image
+		assert n > 0 && tileSize > 0;
+		assert patternHeight <= tiles.height() && patternWidth <= tiles.width();
+
+		//Number of positions of the pattern on each axis
+		int rows = tiles.height() - patternHeight + 1;
+		int cols = tiles.width() - patternWidth + 1;
+		TopK best = new TopK(n, distance);
+		try {
+			for(int row = 0; row < rows; row += tileSize) {
+				int tileRows = Math.min(tileSize, rows - row);
+				tiles.startBand(row, tileRows + patternHeight - 1);
+				for(int col = 0; col < cols; col += tileSize) {
+					int tileCols = Math.min(tileSize, cols - col);
+					int[][] tile = tiles.read(row, col, tileCols + patternWidth - 1, tileRows + patternHeight - 1);
+
+					//Only the windows at least as good as the current n-th best can enter the global TopK. The margin
+					//makes sure that windows equal to it (maybe better, by position) are not lost to rounding
+					TopK found;
+					if(distance) {
+						double limit = best.isFull() ? best.worst() * (1 + 1e-12) : Double.POSITIVE_INFINITY;
+						found = DistanceBasedSearch.nBest(n, rgbPattern, tile, limit);
+					}
+					else {
+						double limit = best.isFull() ? best.worst() - 1e-12 : Double.NEGATIVE_INFINITY;
+						found = SimilarityBasedSearch.nBest(n, grayPattern, ImageProcessing.toGray(tile), limit);
+					}
+					merge(best, found, row, col);
+				}
+			}
+		} finally {
+			tiles.close();
+		}
+		return best;
+	}
+
+	// Adds the positions found in the tile whose upper left position is (row, col) to the global TopK
+	private static void merge(TopK best, TopK found, int row, int col) {
+		int[][] coordinates = found.coordinates();
+		double[] scores = found.scores();
+		for(int k = 0; k < coordinates.length; k++) {
+			best.offer(scores[k], row + coordinates[k][0], col + coordinates[k][1]);
+		}
+	}
+
+	/*
+	 * Tile sources
+	 */
+
+	// Reads parts of a scene, tile row (band) after tile row
+	private interface Tiles {
+		int width();
+		int height();
+		// Called before reading the tiles of the band of rows [row, row + height)
+		void startBand(int row, int height) throws IOException;
+		// Copy of a part of the current band
+		int[][] read(int row, int col, int width, int height);
+		void close();
+	}
+
+	// Parts of an ImageView : each tile is copied on its own
+	private static final class ViewTiles implements Tiles {
+		private final ImageView image;
+
+		ViewTiles(ImageView image) {
+			this.image = image;
+		}
+
+		@Override
+		public int width() {
+			return image.width();
+		}
+
+		@Override
+		public int height() {
+			return image.height();
+		}
+
+		@Override
+		public void startBand(int row, int height) {
+		}
+
+		@Override
+		public int[][] read(int row, int col, int width, int height) {
+			int[][] tile = new int[height][width];
+			for(int i = 0; i < height; i++) {
+				for(int j = 0; j < width; j++) {
+					tile[i][j] = image.get(row + i, col + j);
+				}
+			}
+			return tile;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	// The tiles of an image file : rows of a PNG file decoded once if PngRows reads it, source regions otherwise
+	private static Tiles fileTiles(String path) throws IOException {
+		PngRows rows = PngRows.open(path);
+		return rows != null ? new PngTiles(rows) : new FileTiles(path);
+	}
+
+	// Parts of a PNG file, decoded row after row. The bands only go down and overlap by less than their height :
+	// the rows of the previous band that belong to the next one are kept, and the rows below are decoded.
+	private static final class PngTiles implements Tiles {
+		private final PngRows rows;
+		private int[][] band = new int[0][];
+		private int bandRow;
+
+		PngTiles(PngRows rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public int width() {
+			return rows.width();
+		}
+
+		@Override
+		public int height() {
+			return rows.height();
+		}
+
+		@Override
+		public void startBand(int row, int height) throws IOException {
+			//Requirement : bands go down, and the rows between two bands are not skipped
+			assert row >= bandRow && row <= bandRow + band.length;
+
+			int[][] next = new int[height][];
+			int kept = Math.min(bandRow + band.length - row, height);
+			System.arraycopy(band, row - bandRow, next, 0, kept);
+			for(int i = kept; i < height; i++) {
+				//The rows leaving the band are reused for the new ones
+				int[] pixels = i - kept < row - bandRow ? band[i - kept] : new int[rows.width()];
+				rows.readRow(pixels);
+				next[i] = pixels;
+			}
+			band = next;
+			bandRow = row;
+		}
+
+		@Override
+		public int[][] read(int row, int col, int width, int height) {
+			int[][] tile = new int[height][width];
+			for(int i = 0; i < height; i++) {
+				System.arraycopy(band[row - bandRow + i], col, tile[i], 0, width);
+			}
+			return tile;
+		}
+
+		@Override
+		public void close() {
+			try {
+				rows.close();
+			} catch (IOException e) {
+				//Nothing left to read
+			}
+		}
+	}
+
+	// Parts of an image file, read by an ImageReader with source regions. Sequential formats such as PNG
+	// decode (and drop) every row above a region at each read, whatever its width : the regions read are thus
+	// whole bands of the image, one per tile row, instead of single tiles (one decoding per band instead of one
+	// per tile, see the class comment). Only the band is kept in memory, its tiles are then copied one after
+	// the other.
+	private static final class FileTiles implements Tiles {
+		private final ImageInputStream stream;
+		private final ImageReader reader;
+		private final int width;
+		private final int height;
+		private ImageView band;
+		private int bandRow;
+
+		FileTiles(String path) throws IOException {
+			stream = ImageIO.createImageInputStream(new File(path));
+			if(stream == null) {
+				throw new IOException("Cannot open " + path);
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if(!readers.hasNext()) {
+				stream.close();
+				throw new IOException("Unknown image format : " + path);
+			}
+			reader = readers.next();
+			reader.setInput(stream, false, true);
+			width = reader.getWidth(0);
+			height = reader.getHeight(0);
+		}
+
+		@Override
+		public int width() {
+			return width;
+		}
+
+		@Override
+		public int height() {
+			return height;
+		}
+
+		@Override
+		public void startBand(int row, int height) throws IOException {
+			//The previous band can be collected before the next one is decoded
+			band = null;
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(0, row, width, height));
+			BufferedImage image = reader.read(0, param);
+			band = Helper.view(image);
+			bandRow = row;
+		}
+
+		@Override
+		public int[][] read(int row, int col, int width, int height) {
+			int[][] tile = new int[height][width];
+			for(int i = 0; i < height; i++) {
+				for(int j = 0; j < width; j++) {
+					tile[i][j] = band.get(row - bandRow + i, col + j);
+				}
+			}
+			return tile;
+		}
+
+		@Override
+		public void close() {
+			reader.dispose();
+			try {
+				stream.close();
+			} catch (IOException e) {
+				//Nothing left to read
+			}
+		}
+	}
+}
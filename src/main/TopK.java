@@ -0,0 +1,202 @@
+package main;
+
+/**
+ * Keeps the k best (smallest or biggest) values offered to it, together with their row, column coordinates.
+ * Values are kept in a bounded binary heap whose root is the worst of the k kept values, so that
+ * offering a value costs O(log k), and nothing is stored beyond the k values.
+ * Coordinates are stored packed in a long (row in the high 32 bits, column in the low ones),
+ * which orders them in row-major order. Among equal values, the first one in row-major order
+ * is the best, as in Collector.findNBest.
+ */
+public final class TopK {
+
+	private final int capacity;
+	private final boolean smallestFirst;
+	private final double[] values;
+	private final long[] positions;
+	private int size;
+
+	/**
+	 * @param k : an integer, the number of values to keep
+	 * @param smallestFirst : a boolean, indicates if the smallest value is the best or not (biggest is then the best)
+	 */
+	public TopK(int k, boolean smallestFirst) {
+		//Requirement : at least one value to keep
+		assert k > 0;
+
+		this.capacity = k;
+		this.smallestFirst = smallestFirst;
+		this.values = new double[k];
+		this.positions = new long[k];
+	}
+
+	/**
+	 * Offers a value. It is kept if fewer than k values are kept, or if it is better than the worst kept value.
+	 * @param value : a double
+	 * @param row : an integer, the row-coordinate of the value
+	 * @param col : an integer, the column-coordinate of the value
+	 * @return a boolean, true if the value was kept
+	 */
+	public boolean offer(double value, int row, int col) {
+		long position = pack(row, col);
+		if(size < capacity) {
+			values[size] = value;
+			positions[size] = position;
+			siftUp(size++);
+			return true;
+		}
+		if(!better(value, position, values[0], positions[0])) {
+			return false;
+		}
+		values[0] = value;
+		positions[0] = position;
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Adds all the values kept by another TopK (e.g. computed on another part of the same matrix)
+	 * @param other : a TopK with the same order
+	 */
+	public void addAll(TopK other) {
+		assert other.smallestFirst == smallestFirst;
+		for(int n = 0; n < other.size; n++) {
+			offer(other.values[n], row(other.positions[n]), col(other.positions[n]));
+		}
+	}
+
+	/**
+	 * @return a boolean, true if k values are kept : from then on, only values better than worst() are kept
+	 */
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	/**
+	 * @return a double, the worst of the kept values (undefined if nothing is kept)
+	 */
+	public double worst() {
+		assert size > 0;
+		return values[0];
+	}
+
+	/**
+	 * @return an integer, the number of kept values (at most k)
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return an integer, the number of values to keep
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return a boolean, indicates if the smallest value is the best
+	 */
+	public boolean smallestFirst() {
+		return smallestFirst;
+	}
+
+	/**
+	 * @return an array of size size() containing row, column-coordinate pairs, best first
+	 */
+	public int[][] coordinates() {
+		long[] sorted = new long[size];
+		sorted(new double[size], sorted);
+		int[][] coordinates = new int[size][];
+		for(int n = 0; n < size; n++) {
+			coordinates[n] = new int[] {row(sorted[n]), col(sorted[n])};
+		}
+		return coordinates;
+	}
+
+	/**
+	 * @return an array of size size() containing the kept values, best first (same order as coordinates())
+	 */
+	public double[] scores() {
+		double[] scores = new double[size];
+		sorted(scores, new long[size]);
+		return scores;
+	}
+
+	static long pack(int row, int col) {
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	static int row(long position) {
+		return (int) (position >>> 32);
+	}
+
+	static int col(long position) {
+		return (int) position;
+	}
+
+	// Fills the arrays with the kept values and positions, from the best to the worst : the worst is
+	// repeatedly removed from the root of a copy of the heap (heap sort), in O(k log k)
+	private void sorted(double[] sortedValues, long[] sortedPositions) {
+		TopK copy = new TopK(capacity, smallestFirst);
+		System.arraycopy(values, 0, copy.values, 0, size);
+		System.arraycopy(positions, 0, copy.positions, 0, size);
+		copy.size = size;
+		while(copy.size > 0) {
+			int last = --copy.size;
+			sortedValues[last] = copy.values[0];
+			sortedPositions[last] = copy.positions[0];
+			copy.values[0] = copy.values[last];
+			copy.positions[0] = copy.positions[last];
+			copy.siftDown(0);
+		}
+	}
+
+	// true if (value, position) is strictly better than (otherValue, otherPosition)
+	private boolean better(double value, long position, double otherValue, long otherPosition) {
+		if(value != otherValue) {
+			return smallestFirst ? value < otherValue : value > otherValue;
+		}
+		return position < otherPosition;
+	}
+
+	// The root is the worst : a child is never worse than its parent
+	private void siftUp(int n) {
+		while(n > 0) {
+			int parent = (n - 1) >>> 1;
+			if(!better(values[parent], positions[parent], values[n], positions[n])) {
+				return;
+			}
+			swap(n, parent);
+			n = parent;
+		}
+	}
+
+	private void siftDown(int n) {
+		while(true) {
+			int worst = n;
+			int left = 2*n + 1;
+			int right = left + 1;
+			if(left < size && better(values[worst], positions[worst], values[left], positions[left])) {
+				worst = left;
+			}
+			if(right < size && better(values[worst], positions[worst], values[right], positions[right])) {
+				worst = right;
+			}
+			if(worst == n) {
+				return;
+			}
+			swap(n, worst);
+			n = worst;
+		}
+	}
+
+	private void swap(int a, int b) {
+		double value = values[a];
+		values[a] = values[b];
+		values[b] = value;
+		long position = positions[a];
+		positions[a] = positions[b];
+		positions[b] = position;
+	}
+}